@@ -0,0 +1,85 @@
+package stegexpose.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import stegexpose.ChannelPlanes;
+
+
+
+/**
+ * BenchmarkImages
+ * 
+ * Generates the images used by the benchmarks. Images are made up deterministically from a seed
+ * (smooth gradients and waves plus a little sensor-like noise, so the detectors see something close
+ * to a photograph), which lets the benchmarks run offline and be repeated exactly.
+ * 
+ * @version 0.1
+ */
+public class BenchmarkImages {
+	
+	private static final long SEED = 0x5e9e7b05eL;
+	
+	/**
+	 * Parses an image size of the form [width]x[height]
+	 * 
+	 * @param size	image size, e.g. 1024x768
+	 * @return 		width and height
+	 */
+	public static int[] parseSize(String size){
+		String[] parts = size.split("x");
+		return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+	
+	/**
+	 * Generates a clean or stego image
+	 * 
+	 * @param width			width of the image
+	 * @param height		height of the image
+	 * @param embedRate		fraction of bytes whose LSB is replaced by a random message bit (0 for a clean image)
+	 * @return 				channel planes of the image
+	 */
+	public static ChannelPlanes generate(int width, int height, double embedRate){
+		Random random = new Random(SEED ^ ((long) width << 32) ^ height);
+		ChannelPlanes image = new ChannelPlanes(width, height);
+		byte[][] planes = {image.getRed(), image.getGreen(), image.getBlue()};
+		double[] phase = {random.nextDouble()*Math.PI, random.nextDouble()*Math.PI, random.nextDouble()*Math.PI};
+		
+		int p = 0;
+		for(int y=0; y<height; y++){
+			for(int x=0; x<width; x++){
+				double u = (double) x/width, v = (double) y/height;
+				for(int c=0; c<3; c++){
+					double value = 128 + 60*Math.sin(6*u + phase[c]) * Math.cos(4*v - phase[c]) + 40*(u - v)
+							+ 2*random.nextGaussian();
+					int b = (int) Math.max(0, Math.min(255, Math.round(value)));
+					if(embedRate > 0 && random.nextDouble() < embedRate)
+						b = (b & 0xfe) | random.nextInt(2);
+					planes[c][p] = (byte) b;
+				}
+				p++;
+			}
+		}
+		return image;
+	}
+	
+	/**
+	 * Packs channel planes into an RGB image, e.g. to be written to disk
+	 * 
+	 * @param image		channel planes
+	 * @return 			image of type TYPE_3BYTE_BGR
+	 */
+	public static BufferedImage toBufferedImage(ChannelPlanes image){
+		int width = image.getWidth(), height = image.getHeight();
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		int[] row = new int[width];
+		for(int y=0; y<height; y++){
+			for(int x=0; x<width; x++){
+				int p = y*width+x;
+				row[x] = ((image.getRed()[p] & 0xff) << 16) | ((image.getGreen()[p] & 0xff) << 8) | (image.getBlue()[p] & 0xff);
+			}
+			out.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,30 @@
+package stegexpose.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+
+/**
+ * BenchmarkMain
+ * 
+ * Runs the benchmarks with the usual JMH command line options (e.g. -p size=1024x1024 to pick an
+ * image size, or a benchmark name pattern). The GC profiler is always added so every result comes
+ * with its allocation rate and GC counts.
+ * 
+ * @version 0.1
+ */
+public class BenchmarkMain {
+	
+	public static void main(String[] args) throws Exception{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
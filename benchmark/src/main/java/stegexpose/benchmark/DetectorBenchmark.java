@@ -0,0 +1,116 @@
+package stegexpose.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import stegexpose.ChannelPlanes;
+import stegexpose.ChiSquare;
+import stegexpose.Fuse;
+import stegexpose.PairHistogram;
+import stegexpose.PrimarySets;
+import stegexpose.RSAnalysis;
+import stegexpose.SamplePairs;
+
+
+
+/**
+ * DetectorBenchmark
+ * 
+ * Measures each detector on its own, on generated images from thumbnail size up to 50 megapixels.
+ * Every benchmark includes the work the detector needs from the decoded channel planes onwards, as
+ * done by FileAnalysis.
+ * 
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class DetectorBenchmark {
+	
+	//size of chi square blocks as used by FileAnalysis
+	private static final int CS_SIZE = 1024;
+	
+	@Param({"160x120", "1024x1024", "4000x3000", "8192x6144"})
+	public String size;
+	
+	@Param({"0", "0.1"})
+	public double embedRate;
+	
+	private ChannelPlanes image;
+	private PairHistogram pairs;
+	private ArrayList<Double> detectorResults;
+	
+	@Setup(Level.Trial)
+	public void setUp(){
+		int[] dimensions = BenchmarkImages.parseSize(size);
+		image = BenchmarkImages.generate(dimensions[0], dimensions[1], embedRate);
+		pairs = PairHistogram.fromPlanes(image);
+		detectorResults = new ArrayList<Double>();
+		detectorResults.add(0.05);
+		detectorResults.add(0.12);
+		detectorResults.add(0.08);
+		detectorResults.add(0.1);
+	}
+	
+	@Benchmark
+	public PairHistogram pairHistogram(){
+		return PairHistogram.fromPlanes(image);
+	}
+	
+	@Benchmark
+	public double primarySets(){
+		PrimarySets ps = new PrimarySets(image);
+		ps.run();
+		return ps.getResult();
+	}
+	
+	@Benchmark
+	public double primarySetsFromHistogram(){
+		PrimarySets ps = new PrimarySets(pairs, RSAnalysis.ANALYSIS_COLOUR_RED);
+		ps.run();
+		return ps.getResult();
+	}
+	
+	@Benchmark
+	public double samplePairs(){
+		SamplePairs sp = new SamplePairs();
+		PairHistogram histogram = PairHistogram.fromPlanes(image);
+		return sp.doAnalysis(histogram, RSAnalysis.ANALYSIS_COLOUR_RED) + sp.doAnalysis(histogram, RSAnalysis.ANALYSIS_COLOUR_GREEN)
+				+ sp.doAnalysis(histogram, RSAnalysis.ANALYSIS_COLOUR_BLUE);
+	}
+	
+	@Benchmark
+	public double[] chiSquareTopToBottom(){
+		int nbBlocks = ((3*image.getWidth()*image.getHeight())/CS_SIZE) - 1;
+		double[] x = new double[nbBlocks];
+		double[] chi = new double[nbBlocks];
+		ChiSquare.chiSquareAttackTopToBottom(image, x, chi, CS_SIZE);
+		return chi;
+	}
+	
+	@Benchmark
+	public double[][][] rsAnalysis(){
+		return new RSAnalysis(2, 2).doAnalysis(image);
+	}
+	
+	@Benchmark
+	public double fuse(){
+		return Fuse.seQ(Fuse.se(detectorResults), 3*image.getWidth()*image.getHeight());
+	}
+}
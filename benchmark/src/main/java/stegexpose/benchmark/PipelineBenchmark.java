@@ -0,0 +1,98 @@
+package stegexpose.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import stegexpose.FileAnalysis;
+import stegexpose.RunStegExpose;
+
+
+
+/**
+ * PipelineBenchmark
+ * 
+ * Measures StegExpose end to end: PNG decoding plus all detectors for a single file (FileAnalysis),
+ * and RunStegExpose scanning a directory of clean and stego files into a csv report.
+ * 
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class PipelineBenchmark {
+	
+	//number of files in the scanned directory, every fourth one is a stego file
+	private static final int DIRECTORY_FILES = 8;
+	
+	@Param({"160x120", "1024x1024", "4000x3000", "8192x6144"})
+	public String size;
+	
+	@Param({"default", "fast"})
+	public String speed;
+	
+	private File directory;
+	private File cleanFile;
+	private File report;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException{
+		int[] dimensions = BenchmarkImages.parseSize(size);
+		directory = createTempDirectory();
+		for(int i=0; i<DIRECTORY_FILES; i++){
+			double embedRate = (i % 4 == 3) ? 0.1 : 0;
+			File file = new File(directory, (embedRate > 0 ? "stego_" : "clean_") + i + ".png");
+			ImageIO.write(BenchmarkImages.toBufferedImage(BenchmarkImages.generate(dimensions[0] + i*2, dimensions[1], embedRate)), "PNG", file);
+			if(i == 0)
+				cleanFile = file;
+		}
+		report = File.createTempFile("stegexpose-report", ".csv");
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		for(File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+		report.delete();
+	}
+	
+	@Benchmark
+	public FileAnalysis analyseFile(){
+		FileAnalysis analysis = new FileAnalysis(cleanFile);
+		analysis.run(speed.equals("fast"), 0.2);
+		return analysis;
+	}
+	
+	@Benchmark
+	public void scanDirectory(){
+		//the journal would force the report to disk at every flush and be left behind
+		RunStegExpose.main(new String[]{directory.getPath(), speed, "default", report.getPath(), "--no-journal"});
+	}
+	
+	private static File createTempDirectory() throws IOException{
+		File directory = File.createTempFile("stegexpose-benchmark", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+	}
+}
@@ -0,0 +1,508 @@
+package stegexpose;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+
+
+/**
+ * ArchiveReader
+ *
+ * Lists the files inside ZIP and TAR archives (optionally gzip compressed, .tar.gz or .tgz) so that
+ * they can be scanned without being extracted to disk. Archives are recognised by their name. Every
+ * file in an archive is reported as the name of the archive, "!/" and its path in the archive, e.g.
+ * evidence.zip!/photos/1.png.
+ *
+ * A ZIP file on disk is opened with its central directory, which gives random access to every entry:
+ * its entries are listed straight away and only read, and inflated, when the pipeline gets to them,
+ * by as many threads as read files. A TAR archive can only be read from start to end, so its entries
+ * are read one after the other while they are listed, as far ahead as the pipeline accepts them. An
+ * archive inside an archive is read into memory and read as a stream in the same way, up to the
+ * maximum depth of archives; deeper archives are treated as any other file.
+ *
+ * The sizes in an archive are not trusted: an entry is read into a buffer which grows with the bytes
+ * actually read, and an entry, or an archive within an archive, larger than the maximum entry size is
+ * skipped with a message on stderr instead of being read into memory.
+ *
+ * @version 0.1
+ */
+public class ArchiveReader {
+
+	//kinds of archives
+	private static final int NONE = 0;
+	private static final int ZIP = 1;
+	private static final int TAR = 2;
+	private static final int TAR_GZ = 3;
+	//largest GNU long name or POSIX extended header
+	private static final int MAX_HEADER_BYTES = 1 << 20;
+	//buffer an entry of a known size starts with, it grows as the entry is read
+	private static final int FIRST_BUFFER = 1 << 20;
+	private static final int TAR_BLOCK = 512;
+
+	private final int maxDepth;
+	private final long maxEntryBytes;
+
+
+	/**
+	 * Creates a reader
+	 *
+	 * @param maxDepth			number of levels of archives within archives opened, 1 to open only archives on disk
+	 * @param maxEntryBytes		largest entry read into memory, larger entries are skipped
+	 */
+	public ArchiveReader(int maxDepth, long maxEntryBytes){
+		this.maxDepth = maxDepth;
+		this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Checks if a file is an archive this class can read, by its name
+	 *
+	 * @param name		file name or path
+	 * @return 			true for .zip, .tar, .tar.gz and .tgz files
+	 */
+	public static boolean isArchive(String name){
+		return kind(name) != NONE;
+	}
+
+	private static int kind(String name){
+		String lower = name.toLowerCase(Locale.ROOT);
+		if(lower.endsWith(".zip"))
+			return ZIP;
+		if(lower.endsWith(".tar"))
+			return TAR;
+		if(lower.endsWith(".tar.gz") || lower.endsWith(".tgz"))
+			return TAR_GZ;
+		return NONE;
+	}
+
+	/**
+	 * Lists the files in an archive on disk, and in the archives within it up to the maximum depth
+	 *
+	 * @param archive		archive file
+	 * @param name			name the archive is reported under
+	 * @param visitor		visitor every file in the archive is handed to, in the order of the archive
+	 * @throws IOException 	if the archive cannot be read; the entries listed until then stay valid
+	 * @throws InterruptedException 	if interrupted while handing over an entry
+	 */
+	public void read(Path archive, String name, Visitor visitor) throws IOException, InterruptedException{
+		int kind = kind(name);
+		if(kind == ZIP){
+			readZip(archive, name, visitor);
+			return;
+		}
+		InputStream in = Files.newInputStream(archive);
+		try{
+			readStream(in, kind, name, 1, visitor);
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/*
+	 * Lists the entries of a ZIP file through its central directory. Entries are read by the visitor,
+	 * archives within it are read here.
+	 */
+	private void readZip(Path archive, String name, Visitor visitor) throws IOException, InterruptedException{
+		SharedZip zip;
+		try{
+			zip = new SharedZip(new ZipFile(archive.toFile()));
+		}
+		//entry names which are not UTF-8
+		catch(IllegalArgumentException e){
+			throw new IOException(name + ": " + e.getMessage());
+		}
+		try{
+			Enumeration<? extends ZipEntry> entries = zip.file.entries();
+			while(entries.hasMoreElements()){
+				ZipEntry entry = entries.nextElement();
+				if(entry.isDirectory())
+					continue;
+				String entryName = name + "!/" + entry.getName();
+				if(entry.getSize() > maxEntryBytes){
+					skipped(entryName);
+					continue;
+				}
+				int kind = kind(entry.getName());
+				if(kind != NONE && maxDepth > 1){
+					InputStream in = zip.file.getInputStream(entry);
+					try{
+						readNested(in, entry.getSize(), kind, entryName, 2, visitor);
+					}
+					finally{
+						in.close();
+					}
+					continue;
+				}
+				zip.users.incrementAndGet();
+				visitor.visit(new Entry(entryName, zip, entry, maxEntryBytes));
+			}
+		}
+		finally{
+			zip.release();
+		}
+	}
+
+	/*
+	 * Reads an archive within an archive into memory and lists its entries. A nested archive which
+	 * cannot be read is left out, the rest of the outer archive is still read.
+	 */
+	private void readNested(InputStream in, long size, int kind, String name, int depth, Visitor visitor) throws IOException, InterruptedException{
+		byte[] data = readFully(in, size, maxEntryBytes);
+		if(data == null){
+			skipped(name);
+			return;
+		}
+		try{
+			readStream(new ByteArrayInputStream(data), kind, name, depth, visitor);
+		}
+		catch(IOException e){}
+	}
+
+	/*
+	 * Lists the entries of an archive read from start to end, reading every entry as it goes
+	 */
+	private void readStream(InputStream in, int kind, String name, int depth, Visitor visitor) throws IOException, InterruptedException{
+		if(kind == ZIP){
+			ZipInputStream zip = new ZipInputStream(in, StandardCharsets.UTF_8);
+			try{
+				for(ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry())
+					if(!entry.isDirectory())
+						readEntry(zip, entry.getName(), entry.getSize(), name, depth, visitor);
+			}
+			//entry names which are not UTF-8
+			catch(IllegalArgumentException e){
+				throw new IOException(name + ": " + e.getMessage());
+			}
+			return;
+		}
+		if(kind == TAR_GZ)
+			in = new GZIPInputStream(in, 1 << 16);
+		readTar(in, name, depth, visitor);
+	}
+
+	/*
+	 * Reads one entry of an archive read as a stream, which is either handed to the visitor or, if it is
+	 * an archive itself, read in turn
+	 */
+	private void readEntry(InputStream in, String path, long size, String name, int depth, Visitor visitor) throws IOException, InterruptedException{
+		String entryName = name + "!/" + path;
+		int kind = kind(path);
+		if(kind != NONE && depth < maxDepth){
+			readNested(in, size, kind, entryName, depth + 1, visitor);
+			return;
+		}
+		byte[] data = readFully(in, size, maxEntryBytes);
+		if(data == null){
+			skipped(entryName);
+			return;
+		}
+		visitor.visit(new Entry(entryName, data));
+	}
+
+	private void skipped(String name){
+		System.err.println("skipping " + name + ", larger than " + maxEntryBytes + " bytes");
+	}
+
+	/*
+	 * Reads a TAR archive: a 512 byte header before every entry, whose data is padded to a whole number
+	 * of blocks. Long names are taken from GNU long name entries and POSIX extended headers; only
+	 * regular files are listed.
+	 */
+	private void readTar(InputStream in, String name, int depth, Visitor visitor) throws IOException, InterruptedException{
+		byte[] header = new byte[TAR_BLOCK];
+		String longName = null;
+		while(true){
+			if(!readBlock(in, header) || isZero(header))
+				return;
+			long size = tarSize(header);
+			byte type = header[156];
+			long padding = (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+			if(type == 'L' || type == 'x'){
+				byte[] data = readFully(in, size, MAX_HEADER_BYTES);
+				if(data == null)
+					throw new IOException(name + ": header too long");
+				longName = type == 'L' ? tarString(data, 0, data.length) : paxPath(data, longName);
+				skipFully(in, padding);
+				continue;
+			}
+			String path = longName;
+			longName = null;
+			if(path == null){
+				path = tarString(header, 0, 100);
+				//ustar splits long names into a prefix and a name
+				if(tarString(header, 257, 5).equals("ustar")){
+					String prefix = tarString(header, 345, 155);
+					if(!prefix.isEmpty())
+						path = prefix + "/" + path;
+				}
+			}
+			if((type == '0' || type == 0 || type == '7') && !path.endsWith("/"))
+				readEntry(in, path, size, name, depth, visitor);
+			else
+				skipFully(in, size);
+			skipFully(in, padding);
+		}
+	}
+
+	/*
+	 * Size of a TAR entry: octal digits, or a big-endian number if the first byte has its top bit set.
+	 * A big-endian size which does not fit a positive long is refused.
+	 */
+	private static long tarSize(byte[] header) throws IOException{
+		if((header[124] & 0x80) != 0){
+			if((header[124] & 0x7f) != 0 || header[125] != 0 || header[126] != 0 || header[127] != 0 || header[128] < 0)
+				throw new IOException("not a TAR archive");
+			long size = 0;
+			for(int i=128; i<136; i++)
+				size = (size << 8) | (header[i] & 0xff);
+			return size;
+		}
+		long size = 0;
+		for(int i=124; i<136; i++){
+			byte b = header[i];
+			if(b == 0 || b == ' ')
+				continue;
+			if(b < '0' || b > '7')
+				throw new IOException("not a TAR archive");
+			size = size*8 + (b - '0');
+		}
+		return size;
+	}
+
+	private static String tarString(byte[] data, int from, int length){
+		int end = from;
+		while(end < from + length && data[end] != 0)
+			end++;
+		return new String(data, from, end - from, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * The path in a POSIX extended header, records of "length key=value\n"
+	 */
+	private static String paxPath(byte[] data, String otherwise){
+		String path = otherwise;
+		int at = 0;
+		while(at < data.length){
+			int space = at;
+			while(space < data.length && data[space] != ' ')
+				space++;
+			int length;
+			try{
+				length = Integer.parseInt(new String(data, at, space - at, StandardCharsets.US_ASCII));
+			}
+			catch(NumberFormatException e){
+				break;
+			}
+			//a record holds its length, a space, key=value and a newline
+			if(length <= 0 || at + length > data.length || space + 1 >= at + length || data[at + length - 1] != '\n')
+				break;
+			String record = new String(data, space + 1, at + length - space - 2, StandardCharsets.UTF_8);
+			if(record.startsWith("path="))
+				path = record.substring(5);
+			at += length;
+		}
+		return path;
+	}
+
+	private static boolean isZero(byte[] block){
+		for(byte b : block)
+			if(b != 0)
+				return false;
+		return true;
+	}
+
+	/*
+	 * Reads a whole block, returns false at the end of the stream
+	 */
+	private static boolean readBlock(InputStream in, byte[] block) throws IOException{
+		int read = 0;
+		while(read < block.length){
+			int n = in.read(block, read, block.length - read);
+			if(n < 0){
+				if(read == 0)
+					return false;
+				throw new EOFException("TAR archive cut short");
+			}
+			read += n;
+		}
+		return true;
+	}
+
+	private static void skipFully(InputStream in, long bytes) throws IOException{
+		byte[] buffer = null;
+		while(bytes > 0){
+			long n = in.skip(bytes);
+			if(n <= 0){
+				if(buffer == null)
+					buffer = new byte[8192];
+				n = in.read(buffer, 0, (int)Math.min(buffer.length, bytes));
+				if(n < 0)
+					throw new EOFException("archive cut short");
+			}
+			bytes -= n;
+		}
+	}
+
+	/*
+	 * Reads an entry into memory, of the given size or up to the end of the stream if the size is not
+	 * known (-1). The buffer grows with the bytes read, as the size given may not be the real one.
+	 * Returns null, with the entry skipped, if it is larger than max bytes.
+	 */
+	static byte[] readFully(InputStream in, long size, long max) throws IOException{
+		if(size > max){
+			skipFully(in, size);
+			return null;
+		}
+		if(size >= 0){
+			byte[] data = new byte[(int)Math.min(size, FIRST_BUFFER)];
+			int read = 0;
+			while(read < size){
+				if(read == data.length)
+					data = Arrays.copyOf(data, (int)Math.min(size, 2L*data.length));
+				int n = in.read(data, read, data.length - read);
+				if(n < 0)
+					throw new EOFException("archive cut short");
+				read += n;
+			}
+			return data;
+		}
+		ByteArrayOutputStream data = new ByteArrayOutputStream(1 << 16);
+		byte[] buffer = new byte[1 << 16];
+		for(int n = in.read(buffer); n >= 0; n = in.read(buffer)){
+			if(data.size() + (long)n > max){
+				while(in.read(buffer) >= 0);
+				return null;
+			}
+			data.write(buffer, 0, n);
+		}
+		return data.toByteArray();
+	}
+
+	/**
+	 * Receives the files found in an archive
+	 */
+	public interface Visitor {
+
+		/**
+		 * Receives a file found in an archive. The entry must be read or released.
+		 *
+		 * @param entry		the file
+		 * @throws InterruptedException 	if interrupted while taking the entry
+		 */
+		void visit(Entry entry) throws InterruptedException;
+	}
+
+	/**
+	 * A file in an archive, either read already or read from a ZIP file when it is needed
+	 */
+	public static class Entry {
+		private final String name;
+		private byte[] data;
+		private SharedZip zip;
+		private final ZipEntry zipEntry;
+		private final long maxBytes;
+
+		Entry(String name, byte[] data){
+			this.name = name;
+			this.data = data;
+			this.zip = null;
+			this.zipEntry = null;
+			this.maxBytes = 0;
+		}
+
+		Entry(String name, SharedZip zip, ZipEntry zipEntry, long maxBytes){
+			this.name = name;
+			this.zip = zip;
+			this.zipEntry = zipEntry;
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * Gets the name the file is reported under
+		 *
+		 * @return 		name of the archive, "!/" and the path of the file in the archive
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Reads the contents of the file and lets go of the archive. Can only be called once.
+		 *
+		 * @return 		contents of the file
+		 * @throws IOException 	if the file cannot be read from the archive, is larger than the maximum
+		 * 						entry size or is not the size the archive gives
+		 */
+		public byte[] read() throws IOException{
+			byte[] contents = data;
+			data = null;
+			if(zip == null)
+				return contents;
+			try{
+				InputStream in = zip.file.getInputStream(zipEntry);
+				try{
+					contents = readFully(in, zipEntry.getSize(), maxBytes);
+					if(contents == null)
+						throw new IOException(name + " is larger than " + maxBytes + " bytes");
+					if(zipEntry.getSize() >= 0 && in.read() >= 0)
+						throw new IOException(name + " is larger than the archive says");
+					return contents;
+				}
+				finally{
+					in.close();
+				}
+			}
+			finally{
+				release();
+			}
+		}
+
+		/**
+		 * Lets go of the archive without reading the file
+		 */
+		public void release(){
+			data = null;
+			if(zip != null){
+				zip.release();
+				zip = null;
+			}
+		}
+	}
+
+	/*
+	 * ZIP file shared by its entries, closed once the listing and all entries have let go of it
+	 */
+	private static class SharedZip {
+		final ZipFile file;
+		//the listing and every entry not read yet
+		final AtomicInteger users = new AtomicInteger(1);
+
+		SharedZip(ZipFile file){
+			this.file = file;
+		}
+
+		void release(){
+			if(users.decrementAndGet() == 0){
+				try{
+					file.close();
+				}
+				catch(IOException e){}
+			}
+		}
+	}
+}
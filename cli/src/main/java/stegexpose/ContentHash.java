@@ -0,0 +1,154 @@
+package stegexpose;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+
+/**
+ * ContentHash
+ *
+ * 128 bit hash of the contents of a file or of the pixels of an image (MurmurHash3, x64 variant).
+ * Hashing runs at memory speed, so it is used to recognise files and images seen before rather than
+ * to guard against deliberate collisions.
+ *
+ * @version 0.1
+ */
+public final class ContentHash {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final long high;
+	private final long low;
+
+
+	/**
+	 * Creates a hash from its two halves, e.g. as stored by getHigh and getLow
+	 *
+	 * @param high		first 64 bits
+	 * @param low		last 64 bits
+	 */
+	public ContentHash(long high, long low){
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Hashes the contents of a file
+	 *
+	 * @param data		file contents
+	 * @return 			the hash
+	 */
+	public static ContentHash of(byte[] data){
+		return of(ByteBuffer.wrap(data), 0, 0);
+	}
+
+	/**
+	 * Hashes the contents of a file held in a buffer, such as a file mapped into memory. The hash is
+	 * the same as for the contents read into an array.
+	 *
+	 * @param data		file contents, from the position to the limit of the buffer
+	 * @return 			the hash
+	 */
+	public static ContentHash of(ByteBuffer data){
+		return of(data, 0, 0);
+	}
+
+	/**
+	 * Hashes the pixels of an image. Images with the same pixels have the same hash whatever file
+	 * format or metadata they were stored with.
+	 *
+	 * @param image		channel planes of the image
+	 * @return 			the hash
+	 */
+	public static ContentHash of(ChannelPlanes image){
+		ContentHash hash = new ContentHash(image.getWidth(), image.getHeight());
+		hash = of(ByteBuffer.wrap(image.getRed()), hash.high, hash.low);
+		hash = of(ByteBuffer.wrap(image.getGreen()), hash.high, hash.low);
+		return of(ByteBuffer.wrap(image.getBlue()), hash.high, hash.low);
+	}
+
+	/*
+	 * MurmurHash3 with both halves of the state seeded, so that several arrays can be chained
+	 */
+	private static ContentHash of(ByteBuffer buffer, long h1, long h2){
+		ByteBuffer data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int length = data.limit();
+		int blocks = length >>> 4;
+		for(int i=0; i<blocks; i++){
+			long k1 = data.getLong(i << 4);
+			long k2 = data.getLong((i << 4) + 8);
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1*5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2*5 + 0x38495ab5;
+		}
+
+		//remaining bytes
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks << 4;
+		for(int i=length-1; i>=tail; i--){
+			int shift = ((i - tail) & 7) << 3;
+			if(i - tail >= 8)
+				k2 |= (data.get(i) & 0xffL) << shift;
+			else
+				k1 |= (data.get(i) & 0xffL) << shift;
+		}
+		h1 ^= mixK1(k1);
+		h2 ^= mixK2(k2);
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new ContentHash(h1, h2);
+	}
+
+	private static long mixK1(long k1){
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1*C2;
+	}
+
+	private static long mixK2(long k2){
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2*C1;
+	}
+
+	private static long fmix(long k){
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb3fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	public long getHigh(){
+		return high;
+	}
+
+	public long getLow(){
+		return low;
+	}
+
+	public boolean equals(Object other){
+		if(!(other instanceof ContentHash))
+			return false;
+		ContentHash hash = (ContentHash)other;
+		return high == hash.high && low == hash.low;
+	}
+
+	public int hashCode(){
+		return (int)(high ^ (high >>> 32));
+	}
+}
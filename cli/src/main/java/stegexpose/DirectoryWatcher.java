@@ -0,0 +1,424 @@
+package stegexpose;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * DirectoryWatcher
+ *
+ * Watches a directory tree, e.g. a drop folder, and hands every new or modified file to a running
+ * pipeline, so that files are steganalysed seconds after they arrive. The files already in the tree
+ * are handed over first; after that a file is only handed over again when its size or modification
+ * time changes. The tree is watched with a WatchService, which costs no CPU while nothing happens.
+ * Network file systems (NFS, SMB and the like) do not report changes made by other machines, so they
+ * are polled instead, walking the tree once every poll interval; polling can also be asked for. A
+ * tree which can no longer be watched, e.g. once the system allows no more watches, is polled from
+ * then on.
+ *
+ * A file still being written must not be scanned, so a file is only handed over once its size and
+ * modification time have not changed for the settle time. A file whose modification time is older than
+ * the settle time, e.g. one moved into the tree, is handed over straight away.
+ *
+ * The files listed are those the walker of the tree lists: its patterns, maximum depth and shard are
+ * applied to every file found.
+ *
+ * @version 0.1
+ */
+public class DirectoryWatcher {
+
+	//types of file systems which are polled
+	private static final Set<String> NETWORK_FILE_SYSTEMS = new HashSet<String>(Arrays.asList(
+		"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "afpfs", "fuse.sshfs", "9p", "davfs", "fuse.s3fs", "gpfs", "lustre", "ceph"));
+
+	private final FileWalker files;
+	private final ScanPipeline pipeline;
+	private final long settleNanos;
+	private final long pollNanos;
+	private boolean polling;
+
+	//used by the watching thread only: size and modification time of the files handed over, files
+	//changed since which have not settled yet, and the directories watched
+	private final HashMap<Path, Stamp> known = new HashMap<Path, Stamp>();
+	private final LinkedHashMap<Path, Pending> pending = new LinkedHashMap<Path, Pending>();
+	private final HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	//file keys (or paths if there are none) of the directories watched, so that linked directories are watched once
+	private final HashMap<Object, WatchKey> watched = new HashMap<Object, WatchKey>();
+	private final HashMap<WatchKey, Object> identities = new HashMap<WatchKey, Object>();
+	private WatchService service;
+	private long handed = 0;
+
+	private volatile boolean stopped = false;
+	private volatile Thread thread;
+
+
+	/**
+	 * Creates a watcher
+	 *
+	 * @param files			walker of the tree to be watched
+	 * @param pipeline		started pipeline the files are handed to
+	 * @param settleMillis	milliseconds the size and modification time of a file must stay the same before it is handed over
+	 * @param pollMillis	milliseconds between two walks of a polled tree
+	 * @param poll			true to poll the tree even if it could be watched
+	 */
+	public DirectoryWatcher(FileWalker files, ScanPipeline pipeline, long settleMillis, long pollMillis, boolean poll){
+		this.files = files;
+		this.pipeline = pipeline;
+		this.settleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(settleMillis, 0));
+		this.pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(pollMillis, 1));
+		this.polling = poll || isNetwork(files.getRoot());
+	}
+
+	/*
+	 * Checks if a path is on a network file system, whose changes by other machines are not reported
+	 */
+	private static boolean isNetwork(Path path){
+		try{
+			return NETWORK_FILE_SYSTEMS.contains(Files.getFileStore(path).type().toLowerCase(Locale.ROOT));
+		}
+		catch(IOException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if the tree is polled rather than watched
+	 *
+	 * @return 		true if it is polled
+	 */
+	public boolean isPolling(){
+		return polling;
+	}
+
+	/**
+	 * Gets the number of files handed to the pipeline so far
+	 *
+	 * @return 		number of files
+	 */
+	public long getHanded(){
+		return handed;
+	}
+
+	/**
+	 * Watches the tree until stop is called. The thread calling this method is the one adding files to
+	 * the pipeline.
+	 */
+	public void run(){
+		thread = Thread.currentThread();
+		try{
+			if(!polling){
+				try{
+					service = FileSystems.getDefault().newWatchService();
+					register(files.getRoot(), false);
+				}
+				catch(IOException e){
+					pollInstead(files.getRoot(), e);
+				}
+				//watching is not supported here
+				catch(UnsupportedOperationException e){
+					closeService();
+					polling = true;
+				}
+			}
+			//the files already in the tree
+			scan();
+			long lastPoll = System.nanoTime();
+			while(!stopped){
+				long now = System.nanoTime();
+				settle(now);
+				long wait = nextSettle(now);
+				if(polling){
+					long untilPoll = lastPoll + pollNanos - now;
+					if(untilPoll <= 0){
+						scan();
+						lastPoll = now;
+						continue;
+					}
+					TimeUnit.NANOSECONDS.sleep(Math.min(wait, untilPoll));
+				}
+				else{
+					WatchKey key = wait == Long.MAX_VALUE ? service.take() : service.poll(wait, TimeUnit.NANOSECONDS);
+					for(; key != null; key = polling ? null : service.poll())
+						handle(key);
+				}
+			}
+		}
+		catch(InterruptedException e){}
+		finally{
+			closeService();
+			//an interrupt from stop must not cut the end of the scan short
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Stops watching the tree, from any thread. Files not settled yet are not handed over.
+	 */
+	public void stop(){
+		stopped = true;
+		Thread watching = thread;
+		if(watching != null)
+			watching.interrupt();
+	}
+
+	/*
+	 * Stops watching the tree, which is polled from then on, unless the directory which could not be
+	 * watched is gone
+	 */
+	private void pollInstead(Path directory, IOException e){
+		if(polling || (service != null && !Files.isDirectory(directory)))
+			return;
+		System.err.println("could not watch " + directory + ": " + e.getMessage() + ", polling every " + TimeUnit.NANOSECONDS.toMillis(pollNanos) + " ms instead");
+		closeService();
+		directories.clear();
+		watched.clear();
+		identities.clear();
+		polling = true;
+	}
+
+	private void closeService(){
+		if(service == null)
+			return;
+		try{
+			service.close();
+		}
+		catch(IOException e){}
+		service = null;
+	}
+
+	/*
+	 * Walks the whole tree, noting the files which are new or have changed and forgetting those gone
+	 */
+	private void scan() throws InterruptedException{
+		long now = System.nanoTime();
+		HashSet<Path> found = new HashSet<Path>();
+		for(Path file : files){
+			found.add(file);
+			changed(file, now);
+		}
+		known.keySet().retainAll(found);
+		pending.keySet().retainAll(found);
+	}
+
+	/*
+	 * Registers a directory and the directories below it which the walker enters. Files found in a
+	 * directory created after the watch started are noted, as they may have been created before the
+	 * directory was registered.
+	 */
+	private void register(Path directory, boolean note) throws IOException{
+		if(polling || !files.entersDirectory(directory))
+			return;
+		Object fileKey = Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+		Object identity = fileKey != null ? fileKey : directory.toAbsolutePath().normalize();
+		if(watched.containsKey(identity))
+			return;
+		WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		directories.put(key, directory);
+		watched.put(identity, key);
+		identities.put(key, identity);
+		long now = System.nanoTime();
+		DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+		try{
+			for(Path path : entries){
+				if(Files.isDirectory(path)){
+					if(files.isFollowLinks() || !Files.isSymbolicLink(path)){
+						try{
+							register(path, note);
+						}
+						catch(IOException e){
+							pollInstead(path, e);
+						}
+					}
+				}
+				else if(note && files.accepts(path))
+					changed(path, now);
+			}
+		}
+		catch(DirectoryIteratorException e){}
+		finally{
+			entries.close();
+		}
+	}
+
+	/*
+	 * Notes the changes reported for a directory
+	 */
+	private void handle(WatchKey key) throws InterruptedException{
+		Path directory = directories.get(key);
+		if(directory == null){
+			key.cancel();
+			return;
+		}
+		long now = System.nanoTime();
+		for(WatchEvent<?> event : key.pollEvents()){
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+				//changes were lost, the whole tree is looked at again
+				watched.clear();
+				identities.clear();
+				try{
+					register(files.getRoot(), false);
+				}
+				catch(IOException e){
+					pollInstead(files.getRoot(), e);
+				}
+				scan();
+				continue;
+			}
+			Path path = directory.resolve((Path)event.context());
+			if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE){
+				known.remove(path);
+				pending.remove(path);
+			}
+			else if(Files.isDirectory(path)){
+				if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && (files.isFollowLinks() || !Files.isSymbolicLink(path))){
+					try{
+						register(path, true);
+					}
+					catch(IOException e){
+						pollInstead(path, e);
+					}
+				}
+			}
+			else if(files.accepts(path))
+				changed(path, now);
+		}
+		if(!key.reset()){
+			directories.remove(key);
+			Object identity = identities.remove(key);
+			if(identity != null && watched.get(identity) == key)
+				watched.remove(identity);
+		}
+	}
+
+	/*
+	 * Notes a file which may be new or have changed. It waits until it has settled unless it was last
+	 * modified longer than the settle time ago.
+	 */
+	private void changed(Path file, long now){
+		Stamp stamp = Stamp.of(file);
+		if(stamp == null){
+			known.remove(file);
+			pending.remove(file);
+			return;
+		}
+		if(stamp.equals(known.get(file))){
+			pending.remove(file);
+			return;
+		}
+		Pending waiting = pending.get(file);
+		if(waiting != null && waiting.stamp.equals(stamp))
+			return;
+		long age = TimeUnit.MILLISECONDS.toNanos(Math.max(System.currentTimeMillis() - stamp.modified, 0));
+		pending.put(file, new Pending(stamp, now - Math.min(age, settleNanos)));
+	}
+
+	/*
+	 * Hands the files which have settled to the pipeline
+	 */
+	private void settle(long now) throws InterruptedException{
+		List<Path> ready = null;
+		for(Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator(); entries.hasNext(); ){
+			Map.Entry<Path, Pending> entry = entries.next();
+			Pending waiting = entry.getValue();
+			if(now - waiting.since < settleNanos)
+				continue;
+			Stamp stamp = Stamp.of(entry.getKey());
+			if(stamp == null){
+				entries.remove();
+				continue;
+			}
+			if(!stamp.equals(waiting.stamp)){
+				entry.setValue(new Pending(stamp, now));
+				continue;
+			}
+			entries.remove();
+			known.put(entry.getKey(), stamp);
+			if(ready == null)
+				ready = new ArrayList<Path>();
+			ready.add(entry.getKey());
+		}
+		if(ready == null)
+			return;
+		for(Path file : ready){
+			pipeline.add(file, files.getName(file));
+			handed++;
+		}
+	}
+
+	/*
+	 * Nanoseconds until the next file may have settled, Long.MAX_VALUE if no file is waiting
+	 */
+	private long nextSettle(long now){
+		long wait = Long.MAX_VALUE;
+		for(Pending waiting : pending.values())
+			wait = Math.min(wait, Math.max(waiting.since + settleNanos - now, 1));
+		return wait;
+	}
+
+	/*
+	 * Size and modification time of a file
+	 */
+	private static class Stamp {
+		final long size;
+		final long modified;
+
+		Stamp(long size, long modified){
+			this.size = size;
+			this.modified = modified;
+		}
+
+		static Stamp of(Path file){
+			try{
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if(!attributes.isRegularFile())
+					return null;
+				return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+			}
+			catch(IOException e){
+				return null;
+			}
+		}
+
+		public boolean equals(Object other){
+			return other instanceof Stamp && ((Stamp)other).size == size && ((Stamp)other).modified == modified;
+		}
+
+		public int hashCode(){
+			return (int)(size*31 + modified);
+		}
+	}
+
+	/*
+	 * A changed file waiting to settle: its size and modification time when it was last seen to change
+	 */
+	private static class Pending {
+		final Stamp stamp;
+		final long since;
+
+		Pending(Stamp stamp, long since){
+			this.stamp = stamp;
+			this.since = since;
+		}
+	}
+}
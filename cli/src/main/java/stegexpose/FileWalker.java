@@ -0,0 +1,367 @@
+package stegexpose;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+
+/**
+ * FileWalker
+ *
+ * Lists the files of a directory tree lazily. Only one directory listing per level of the tree is
+ * open at any time, so memory use does not depend on the number of files and the first file is
+ * available straight away. Directories which cannot be read are skipped.
+ *
+ * Include and exclude patterns use the glob syntax of java.nio.file.PathMatcher. A pattern containing
+ * a '/' is matched against the path relative to the root of the walk, any other pattern against the
+ * file name only. Excluded directories are not entered.
+ *
+ * A walk can be limited to one of several shards of the tree, so that several machines can each scan
+ * a part of the same tree without talking to each other. Files are assigned to shards by a hash of
+ * their path relative to the root, with '/' as separator, which is the same on every machine and
+ * every walk whatever the root is mounted as; every file is in exactly one shard.
+ *
+ * @version 0.1
+ */
+public class FileWalker implements Iterable<Path> {
+
+	private final Path root;
+	private int maxDepth = Integer.MAX_VALUE;
+	private boolean followLinks = false;
+	private final List<String> includePatterns = new ArrayList<String>();
+	private final List<String> excludePatterns = new ArrayList<String>();
+	private final List<PathMatcher> includes = new ArrayList<PathMatcher>();
+	private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+	//shard listed, counting from 1, and number of shards
+	private int shard = 1;
+	private int shards = 1;
+
+
+	/**
+	 * Creates a walker for a directory tree, or for a single file
+	 *
+	 * @param root		directory (or file) to be walked
+	 */
+	public FileWalker(Path root){
+		this.root = root;
+	}
+
+	/**
+	 * Limits how deep the walk goes
+	 *
+	 * @param maxDepth		1 for the files in the root directory only, 2 to include their subdirectories and so on
+	 * @return 				this walker
+	 */
+	public FileWalker setMaxDepth(int maxDepth){
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * Sets whether symbolic links to directories are walked. Symbolic links to files are always listed.
+	 *
+	 * @param followLinks	true if linked directories should be walked
+	 * @return 				this walker
+	 */
+	public FileWalker setFollowLinks(boolean followLinks){
+		this.followLinks = followLinks;
+		return this;
+	}
+
+	/**
+	 * Only lists files matching one of the include patterns
+	 *
+	 * @param glob		glob pattern
+	 * @return 			this walker
+	 */
+	public FileWalker include(String glob){
+		includePatterns.add(glob);
+		includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+
+	/**
+	 * Skips files and directories matching the pattern
+	 *
+	 * @param glob		glob pattern
+	 * @return 			this walker
+	 */
+	public FileWalker exclude(String glob){
+		excludePatterns.add(glob);
+		excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+
+	/**
+	 * Only lists the files of one shard of the tree
+	 *
+	 * @param shard		the shard, from 1 to shards
+	 * @param shards	number of shards the tree is split into
+	 * @return 			this walker
+	 * @throws IllegalArgumentException 	if the shard is not between 1 and shards
+	 */
+	public FileWalker setShard(int shard, int shards){
+		if(shards < 1 || shard < 1 || shard > shards)
+			throw new IllegalArgumentException("shard " + shard + "/" + shards + " does not exist");
+		this.shard = shard;
+		this.shards = shards;
+		return this;
+	}
+
+	/**
+	 * Reads a shard given as i/n, e.g. 2/8 for the second of eight shards
+	 *
+	 * @param text		the shard
+	 * @return 			the shard and the number of shards
+	 * @throws IllegalArgumentException 	if the text is not a shard
+	 */
+	public static int[] parseShard(String text){
+		int slash = text.indexOf('/');
+		try{
+			int[] shard = {Integer.parseInt(text.substring(0, slash).trim()), Integer.parseInt(text.substring(slash + 1).trim())};
+			if(shard[1] >= 1 && shard[0] >= 1 && shard[0] <= shard[1])
+				return shard;
+		}
+		catch(RuntimeException e){}
+		throw new IllegalArgumentException("not a shard i/n with 1 <= i <= n: " + text);
+	}
+
+	/**
+	 * Works out the shard a file is in
+	 *
+	 * @param name		path of the file relative to the root of the walk, with '/' as separator
+	 * @param shards	number of shards
+	 * @return 			the shard, from 1 to shards
+	 */
+	public static int shardOf(String name, int shards){
+		//64 bit FNV-1a of the UTF-8 bytes of the path
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : name.getBytes(StandardCharsets.UTF_8)){
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return (int)Long.remainderUnsigned(hash, shards) + 1;
+	}
+
+	public Path getRoot(){
+		return root;
+	}
+
+	/**
+	 * Gets the name a file is reported under: its path relative to the root of the walk
+	 *
+	 * @param file		file listed by this walker
+	 * @return 			relative path, or the file name if the root is the file itself
+	 */
+	public String getName(Path file){
+		if(file.equals(root))
+			return file.getFileName().toString();
+		return root.relativize(file).toString();
+	}
+
+	/**
+	 * Checks if symbolic links to directories are followed
+	 *
+	 * @return 		true if they are
+	 */
+	public boolean isFollowLinks(){
+		return followLinks;
+	}
+
+	/**
+	 * Checks if a directory found outside a walk, e.g. by a watch on the tree, would be entered by this
+	 * walker: it is the root, or neither it nor a directory above it is excluded or at the maximum depth
+	 *
+	 * @param directory		directory in the tree
+	 * @return 				true if it would be entered
+	 */
+	public boolean entersDirectory(Path directory){
+		if(directory.equals(root))
+			return true;
+		if(!directory.startsWith(root) || root.relativize(directory).getNameCount() >= maxDepth)
+			return false;
+		for(Path path = directory; path != null && !path.equals(root); path = path.getParent())
+			if(matches(excludePatterns, excludes, path))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Checks if a file found outside a walk, e.g. by a watch on the tree, would be listed by this walker
+	 *
+	 * @param file		regular file in the tree
+	 * @return 			true if its directory is entered and the patterns and the shard let it through
+	 */
+	public boolean accepts(Path file){
+		if(file.equals(root))
+			return inShard(file);
+		Path directory = file.getParent();
+		return directory != null && entersDirectory(directory) && accept(file);
+	}
+
+	public Iterator<Path> iterator(){
+		return new Walk();
+	}
+
+	/*
+	 * Checks a path against a list of patterns
+	 */
+	private boolean matches(List<String> patterns, List<PathMatcher> matchers, Path path){
+		Path relative = root.relativize(path);
+		for(int i=0; i<matchers.size(); i++){
+			Path subject = patterns.get(i).indexOf('/') >= 0 ? relative : path.getFileName();
+			if(subject != null && matchers.get(i).matches(subject))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean accept(Path file){
+		if(matches(excludePatterns, excludes, file))
+			return false;
+		return inShard(file) && (includes.isEmpty() || matches(includePatterns, includes, file));
+	}
+
+	private boolean inShard(Path file){
+		if(shards == 1)
+			return true;
+		String separator = file.getFileSystem().getSeparator();
+		String name = getName(file);
+		return shardOf(separator.equals("/") ? name : name.replace(separator, "/"), shards) == shard;
+	}
+
+	/*
+	 * An open directory listing
+	 */
+	private static class Level {
+		final DirectoryStream<Path> stream;
+		final Iterator<Path> entries;
+		final Object key;
+		final Path directory;
+		final int depth;
+
+		Level(Path directory, Object key, int depth) throws IOException{
+			this.directory = directory;
+			this.key = key;
+			this.depth = depth;
+			stream = Files.newDirectoryStream(directory);
+			entries = stream.iterator();
+		}
+
+		void close(){
+			try{
+				stream.close();
+			}
+			catch(IOException e){}
+		}
+	}
+
+	/*
+	 * Depth-first walk keeping one directory listing open per level
+	 */
+	private class Walk implements Iterator<Path> {
+		private final ArrayDeque<Level> stack = new ArrayDeque<Level>();
+		private Path next;
+
+		Walk(){
+			try{
+				BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+				if(attributes.isDirectory())
+					stack.push(new Level(root, attributes.fileKey(), 0));
+				else if(attributes.isRegularFile() && inShard(root))
+					next = root;
+			}
+			catch(IOException e){}
+			if(next == null)
+				advance();
+		}
+
+		public boolean hasNext(){
+			return next != null;
+		}
+
+		public Path next(){
+			if(next == null)
+				throw new NoSuchElementException();
+			Path file = next;
+			next = null;
+			advance();
+			return file;
+		}
+
+		private void advance(){
+			while(!stack.isEmpty()){
+				Level level = stack.peek();
+				Path path;
+				try{
+					if(!level.entries.hasNext()){
+						level.close();
+						stack.pop();
+						continue;
+					}
+					path = level.entries.next();
+				}
+				catch(DirectoryIteratorException e){
+					level.close();
+					stack.pop();
+					continue;
+				}
+
+				BasicFileAttributes attributes;
+				try{
+					attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					if(attributes.isSymbolicLink())
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				}
+				catch(IOException e){
+					continue;
+				}
+				int depth = level.depth + 1;
+
+				if(attributes.isDirectory()){
+					if(depth >= maxDepth || matches(excludePatterns, excludes, path))
+						continue;
+					if(Files.isSymbolicLink(path) && (!followLinks || isLoop(path, attributes.fileKey())))
+						continue;
+					try{
+						stack.push(new Level(path, attributes.fileKey(), depth));
+					}
+					catch(IOException e){}
+				}
+				else if(attributes.isRegularFile() && depth <= maxDepth && accept(path)){
+					next = path;
+					return;
+				}
+			}
+		}
+
+		/*
+		 * Checks if a linked directory is one of the directories currently being walked
+		 */
+		private boolean isLoop(Path directory, Object key){
+			for(Level level : stack){
+				try{
+					if(key != null && level.key != null ? key.equals(level.key) : Files.isSameFile(directory, level.directory))
+						return true;
+				}
+				catch(IOException e){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package stegexpose;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * LatencyHistogram
+ *
+ * Counts latencies in buckets doubling in width, from 1 microsecond up to about a minute. Recording a
+ * latency only increments two counters, so a histogram can be updated by many threads at once and left
+ * switched on for every scan.
+ *
+ * @version 0.1
+ */
+public class LatencyHistogram {
+
+	//bucket 0 holds latencies below 2^MIN_SHIFT nanoseconds, each further bucket doubles the bound
+	private static final int MIN_SHIFT = 10;
+	//number of buckets, the last one holds everything above 2^(MIN_SHIFT+BUCKETS-2) nanoseconds
+	public static final int BUCKETS = 28;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final LongAdder count = new LongAdder();
+
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos		latency in nanoseconds, negative values are ignored
+	 */
+	public void record(long nanos){
+		if(nanos < 0)
+			return;
+		int bucket = 64 - Long.numberOfLeadingZeros(nanos >> MIN_SHIFT);
+		if(bucket >= BUCKETS)
+			bucket = BUCKETS - 1;
+		counts.incrementAndGet(bucket);
+		sum.add(nanos);
+		count.increment();
+	}
+
+	/**
+	 * Gets the upper bound of a bucket
+	 *
+	 * @param bucket	bucket index
+	 * @return 			bound in seconds, infinity for the last bucket
+	 */
+	public static double upperBound(int bucket){
+		if(bucket >= BUCKETS - 1)
+			return Double.POSITIVE_INFINITY;
+		return (1L << (MIN_SHIFT + bucket)) / 1e9;
+	}
+
+	/**
+	 * Takes a copy of the bucket counts. Counts recorded while copying may or may not be included.
+	 *
+	 * @return 		number of latencies in each bucket
+	 */
+	public long[] getCounts(){
+		long[] copy = new long[BUCKETS];
+		for(int i=0; i<BUCKETS; i++)
+			copy[i] = counts.get(i);
+		return copy;
+	}
+
+	public long getCount(){
+		return count.sum();
+	}
+
+	/**
+	 * Gets the sum of all recorded latencies
+	 *
+	 * @return 		sum in seconds
+	 */
+	public double getSum(){
+		return sum.sum() / 1e9;
+	}
+
+	/**
+	 * Estimates a quantile of the recorded latencies as the upper bound of the bucket it falls into
+	 *
+	 * @param counts	bucket counts as returned by getCounts
+	 * @param q			quantile between 0 and 1
+	 * @return 			latency in seconds, 0 if nothing was recorded
+	 */
+	public static double quantile(long[] counts, double q){
+		long total = 0;
+		for(long c : counts)
+			total += c;
+		if(total == 0)
+			return 0;
+		long rank = (long)Math.ceil(q*total);
+		long seen = 0;
+		for(int i=0; i<counts.length; i++){
+			seen += counts[i];
+			if(seen >= rank && counts[i] > 0)
+				return upperBound(i);
+		}
+		return upperBound(counts.length - 1);
+	}
+}
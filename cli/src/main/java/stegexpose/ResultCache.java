@@ -0,0 +1,532 @@
+package stegexpose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+/**
+ * ResultCache
+ *
+ * Remembers the detector outputs of files between scans so that unchanged files are not decoded and
+ * steganalysed again. Results are stored by a hash of the file contents together with the detector
+ * version, and the size and modification time of every path are stored with the hash of its contents,
+ * so an unchanged file is not even read. A file in an archive is stored under the path of the archive,
+ * "!/" and its path in the archive, with the modification time of the archive; a file with no path,
+ * e.g. read from a stream, is stored by its contents only. Only the detector outputs are stored; the
+ * threshold and speed of a scan are applied to them afresh (see FileAnalysis.restore), as is the
+ * choice of detectors.
+ *
+ * The cache is a single file to which records are only ever appended. Later records replace earlier
+ * ones when the file is loaded. When the cache is closed, the path of a file deleted or changed since
+ * it was stored is dropped unless the scan looked at it, and so is a result which no path refers to and
+ * the scan did not use; the cache thus follows the files that still exist rather than growing with
+ * every scan. Once most of the records are replaced or dropped ones the file is rewritten with the
+ * current records only.
+ *
+ * @version 0.1
+ */
+public class ResultCache {
+
+	private static final int MAGIC = 0x53584331; //"SXC1"
+	private static final byte PATH_RECORD = 1;
+	private static final byte RESULT_RECORD = 2;
+	//rewrite the cache file once it holds this many replaced records and more replaced than current ones
+	private static final int MIN_GARBAGE = 1024;
+
+	private final Path file;
+	private final Map<String, PathEntry> paths = new ConcurrentHashMap<String, PathEntry>();
+	private final Map<ContentHash, Entry> results = new ConcurrentHashMap<ContentHash, Entry>();
+	//paths looked up or stored and results used during this scan, which stay in the cache
+	private final Set<String> touched = ConcurrentHashMap.newKeySet();
+	private final Set<ContentHash> used = ConcurrentHashMap.newKeySet();
+	private DataOutputStream out;
+	//number of records in the cache file
+	private long records = 0;
+
+
+	/*
+	 * Creates a cache stored in a file, see open
+	 */
+	private ResultCache(Path file){
+		this.file = file;
+	}
+
+	/**
+	 * Loads a cache file, or creates it if it does not exist yet. A record cut short by a crash at the
+	 * end of the file is dropped.
+	 *
+	 * @param file		cache file
+	 * @return 			the cache
+	 * @throws IOException 	if the cache file cannot be read or written, or is not a cache file
+	 */
+	public static ResultCache open(Path file) throws IOException{
+		ResultCache cache = new ResultCache(file);
+		long valid = 0;
+		if(Files.exists(file)){
+			InputStream stream = new BufferedInputStream(Files.newInputStream(file));
+			try{
+				valid = cache.load(new DataInputStream(stream));
+			}
+			finally{
+				stream.close();
+			}
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(valid);
+		channel.position(valid);
+		cache.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+		if(valid == 0)
+			cache.out.writeInt(MAGIC);
+		return cache;
+	}
+
+	/*
+	 * Reads all records, returns the length of the file up to the last complete record
+	 */
+	private long load(DataInputStream in) throws IOException{
+		long valid;
+		try{
+			if(in.readInt() != MAGIC)
+				throw new IOException(file + " is not a StegExpose cache file");
+			valid = 4;
+		}
+		catch(EOFException e){
+			return 0;
+		}
+		CountingInput counter = new CountingInput(in);
+		DataInputStream records = new DataInputStream(counter);
+		try{
+			while(true){
+				byte type = records.readByte();
+				if(type == PATH_RECORD){
+					String path = records.readUTF();
+					PathEntry entry = new PathEntry(records.readLong(), records.readLong(), readKey(records));
+					paths.put(path, entry);
+				}
+				else if(type == RESULT_RECORD){
+					ContentHash key = readKey(records);
+					int version = records.readInt();
+					Entry entry = readEntry(records);
+					if(version == FileAnalysis.DETECTOR_VERSION)
+						results.put(key, entry);
+				}
+				else
+					break;
+				this.records++;
+				valid = 4 + counter.count;
+			}
+		}
+		catch(EOFException e){}
+		return valid;
+	}
+
+	/**
+	 * Looks up the result of a file by its size and modification time, without reading it
+	 *
+	 * @param path			file
+	 * @param size			size of the file in bytes
+	 * @param modified		modification time of the file in milliseconds
+	 * @return 				stored result, null if the file is new or has changed
+	 */
+	public Entry get(Path path, long size, long modified){
+		String name = name(path);
+		touched.add(name);
+		PathEntry entry = paths.get(name);
+		if(entry == null || entry.size != size || entry.modified != modified)
+			return null;
+		return get(entry.key);
+	}
+
+	/**
+	 * Looks up the result of a file by its contents
+	 *
+	 * @param key		hash of the file contents
+	 * @return 			stored result, null if no file with these contents was steganalysed before
+	 */
+	public Entry get(ContentHash key){
+		Entry entry = results.get(key);
+		if(entry != null)
+			used.add(key);
+		return entry;
+	}
+
+	/**
+	 * Remembers the size, modification time and contents of a file whose result is already stored
+	 *
+	 * @param path			file
+	 * @param size			size of the file in bytes
+	 * @param modified		modification time of the file in milliseconds
+	 * @param key			hash of the file contents
+	 */
+	public void put(Path path, long size, long modified, ContentHash key){
+		put(name(path), size, modified, key);
+	}
+
+	/**
+	 * Remembers the size and contents of a file in an archive whose result is already stored
+	 *
+	 * @param archive		archive file on disk
+	 * @param path			path of the file in the archive, e.g. photos/1.png or inner.zip!/1.png
+	 * @param size			size of the file in bytes
+	 * @param modified		modification time of the archive in milliseconds
+	 * @param key			hash of the file contents
+	 */
+	public void putEntry(Path archive, String path, long size, long modified, ContentHash key){
+		put(name(archive) + "!/" + path, size, modified, key);
+	}
+
+	private void put(String name, long size, long modified, ContentHash key){
+		touched.add(name);
+		PathEntry entry = new PathEntry(size, modified, key);
+		synchronized(this){
+			PathEntry old = paths.get(name);
+			if(old != null && old.size == size && old.modified == modified && old.key.equals(key))
+				return;
+			paths.put(name, entry);
+			append(name, entry);
+		}
+	}
+
+	/**
+	 * Stores the result of a file
+	 *
+	 * @param path			file
+	 * @param size			size of the file in bytes
+	 * @param modified		modification time of the file in milliseconds
+	 * @param key			hash of the file contents
+	 * @param analysis		analysis of the file, null if the file is not an image
+	 */
+	public void put(Path path, long size, long modified, ContentHash key, FileAnalysis analysis){
+		put(key, analysis);
+		put(path, size, modified, key);
+	}
+
+	/**
+	 * Stores the result of a file in an archive
+	 *
+	 * @param archive		archive file on disk
+	 * @param path			path of the file in the archive
+	 * @param size			size of the file in bytes
+	 * @param modified		modification time of the archive in milliseconds
+	 * @param key			hash of the file contents
+	 * @param analysis		analysis of the file, null if the file is not an image
+	 */
+	public void putEntry(Path archive, String path, long size, long modified, ContentHash key, FileAnalysis analysis){
+		put(key, analysis);
+		putEntry(archive, path, size, modified, key);
+	}
+
+	/**
+	 * Stores the result of a file by its contents only, e.g. of a file read from a stream, which has no
+	 * path
+	 *
+	 * @param key			hash of the file contents
+	 * @param analysis		analysis of the file, null if the file is not an image
+	 */
+	public void put(ContentHash key, FileAnalysis analysis){
+		Entry entry = analysis == null ? Entry.NOT_IMAGE : new Entry(analysis);
+		used.add(key);
+		synchronized(this){
+			results.put(key, entry);
+			append(key, entry);
+		}
+	}
+
+	/**
+	 * Writes out the records added during the scan and closes the cache file. Paths of files deleted or
+	 * changed since, which the scan did not look at, and results no path refers to which the scan did
+	 * not use are dropped. The file is rewritten if most of its records have been replaced or dropped.
+	 *
+	 * @throws IOException 	if the cache file cannot be written
+	 */
+	public synchronized void close() throws IOException{
+		out.close();
+		Set<ContentHash> live = new HashSet<ContentHash>(used);
+		for(Iterator<Map.Entry<String, PathEntry>> entries = paths.entrySet().iterator(); entries.hasNext(); ){
+			Map.Entry<String, PathEntry> path = entries.next();
+			if(!touched.contains(path.getKey()) && !isCurrent(path.getKey(), path.getValue()))
+				entries.remove();
+			else
+				live.add(path.getValue().key);
+		}
+		results.keySet().retainAll(live);
+		long garbage = records - paths.size() - results.size();
+		if(garbage >= MIN_GARBAGE && garbage > paths.size() + results.size())
+			compact();
+	}
+
+	/*
+	 * Rewrites the cache file with the current records of paths and all results, those referred to by a
+	 * path followed by their paths, then those stored by their contents only
+	 */
+	private void compact() throws IOException{
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+		try{
+			compacted.writeInt(MAGIC);
+			Set<ContentHash> written = new HashSet<ContentHash>();
+			for(Map.Entry<String, PathEntry> path : paths.entrySet()){
+				ContentHash key = path.getValue().key;
+				Entry result = results.get(key);
+				if(result == null)
+					continue;
+				if(written.add(key))
+					writeResult(compacted, key, result);
+				writePath(compacted, path.getKey(), path.getValue());
+			}
+			for(Map.Entry<ContentHash, Entry> result : results.entrySet())
+				if(written.add(result.getKey()))
+					writeResult(compacted, result.getKey(), result.getValue());
+		}
+		finally{
+			compacted.close();
+		}
+		try{
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e){
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*
+	 * Checks if the file of a path record still exists unchanged; for a file in an archive, if the
+	 * archive does
+	 */
+	private static boolean isCurrent(String name, PathEntry entry){
+		int archive = name.indexOf("!/");
+		try{
+			BasicFileAttributes attributes = Files.readAttributes(Paths.get(archive < 0 ? name : name.substring(0, archive)), BasicFileAttributes.class);
+			return attributes.lastModifiedTime().toMillis() == entry.modified && (archive >= 0 || attributes.size() == entry.size);
+		}
+		catch(IOException e){
+			return false;
+		}
+		catch(InvalidPathException e){
+			return false;
+		}
+	}
+
+	private void append(String name, PathEntry entry){
+		try{
+			writePath(out, name, entry);
+			records++;
+		}
+		catch(IOException e){
+			System.err.println("could not write to cache "+file);
+		}
+	}
+
+	private void append(ContentHash key, Entry entry){
+		try{
+			writeResult(out, key, entry);
+			records++;
+		}
+		catch(IOException e){
+			System.err.println("could not write to cache "+file);
+		}
+	}
+
+	private static String name(Path path){
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	private static void writePath(DataOutputStream out, String name, PathEntry entry) throws IOException{
+		out.writeByte(PATH_RECORD);
+		out.writeUTF(name);
+		out.writeLong(entry.size);
+		out.writeLong(entry.modified);
+		writeKey(out, entry.key);
+	}
+
+	private static void writeResult(DataOutputStream out, ContentHash key, Entry entry) throws IOException{
+		out.writeByte(RESULT_RECORD);
+		writeKey(out, key);
+		out.writeInt(FileAnalysis.DETECTOR_VERSION);
+		out.writeBoolean(entry.image);
+		if(!entry.image)
+			return;
+		out.writeLong(entry.fileSize);
+		out.writeByte(entry.detectorsRun);
+		writeDouble(out, entry.ps);
+		writeDouble(out, entry.sp);
+		writeDouble(out, entry.cs);
+		writeDouble(out, entry.rs);
+		writeDouble(out, entry.fusion);
+		out.writeBoolean(entry.rsResults != null);
+		if(entry.rsResults != null)
+			for(double[][] colour : entry.rsResults)
+				for(double[] results : colour)
+					for(double result : results)
+						out.writeDouble(result);
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException{
+		if(!in.readBoolean())
+			return Entry.NOT_IMAGE;
+		Entry entry = new Entry();
+		entry.image = true;
+		entry.fileSize = in.readLong();
+		entry.detectorsRun = in.readByte();
+		entry.ps = readDouble(in);
+		entry.sp = readDouble(in);
+		entry.cs = readDouble(in);
+		entry.rs = readDouble(in);
+		entry.fusion = readDouble(in);
+		if(in.readBoolean()){
+			entry.rsResults = new double[3][2][28];
+			for(double[][] colour : entry.rsResults)
+				for(double[] results : colour)
+					for(int i=0; i<results.length; i++)
+						results[i] = in.readDouble();
+		}
+		return entry;
+	}
+
+	private static void writeDouble(DataOutputStream out, Double value) throws IOException{
+		out.writeBoolean(value != null);
+		if(value != null)
+			out.writeDouble(value);
+	}
+
+	private static Double readDouble(DataInputStream in) throws IOException{
+		if(!in.readBoolean())
+			return null;
+		return in.readDouble();
+	}
+
+	private static void writeKey(DataOutputStream out, ContentHash key) throws IOException{
+		out.writeLong(key.getHigh());
+		out.writeLong(key.getLow());
+	}
+
+	private static ContentHash readKey(DataInputStream in) throws IOException{
+		return new ContentHash(in.readLong(), in.readLong());
+	}
+
+	/*
+	 * Size, modification time and content hash of a path
+	 */
+	private static class PathEntry {
+		final long size;
+		final long modified;
+		final ContentHash key;
+
+		PathEntry(long size, long modified, ContentHash key){
+			this.size = size;
+			this.modified = modified;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Stored detector outputs of a file
+	 */
+	public static class Entry {
+		//result of a file which is not an image that could be decoded
+		private static final Entry NOT_IMAGE = new Entry();
+
+		private boolean image;
+		private long fileSize;
+		private int detectorsRun;
+		private Double ps;
+		private Double sp;
+		private Double cs;
+		private Double rs;
+		private Double fusion;
+		private double[][][] rsResults;
+
+		private Entry(){
+		}
+
+		private Entry(FileAnalysis analysis){
+			image = true;
+			fileSize = analysis.getFileSize();
+			detectorsRun = analysis.getDetectorsRun();
+			//a sample only settles RS analysis at the threshold it was taken for, so it is worked out again
+			if(analysis.isRSSampled())
+				detectorsRun &= ~(1 << FileAnalysis.RS_ANALYSIS);
+			ps = analysis.getPrimarySets();
+			sp = analysis.getSamplePairs();
+			cs = analysis.getChiSquare();
+			rs = analysis.getRSAnalysis();
+			fusion = analysis.getFusion();
+			rsResults = analysis.getRSResults();
+		}
+
+		/**
+		 * Checks if the file could be decoded as an image
+		 *
+		 * @return 		false if the file is not an image, in which case it was not steganalysed
+		 */
+		public boolean isImage(){
+			return image;
+		}
+
+		/**
+		 * Sets up an analysis of the file from the stored detector outputs
+		 *
+		 * @param file			file
+		 * @param fileName		name the file is reported under
+		 * @param schedule		detectors to be run, their order and the speed mode
+		 * @param threshold		threshold applied to the stegexpose indicator
+		 * @return 				the analysis, null if the earlier scan skipped a detector this scan needs
+		 */
+		public FileAnalysis restore(File file, String fileName, DetectorSchedule schedule, double threshold){
+			if(!image)
+				return null;
+			FileAnalysis analysis = new FileAnalysis(file, fileName);
+			if(analysis.restore(fileSize, ps, sp, cs, rs, rsResults, detectorsRun, schedule, threshold))
+				return analysis;
+			return null;
+		}
+	}
+
+	/*
+	 * Counts the bytes read, so that the end of the last complete record is known
+	 */
+	static class CountingInput extends InputStream {
+		private final InputStream in;
+		long count = 0;
+
+		CountingInput(InputStream in){
+			this.in = in;
+		}
+
+		public int read() throws IOException{
+			int b = in.read();
+			if(b >= 0)
+				count++;
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			int n = in.read(b, off, len);
+			if(n > 0)
+				count += n;
+			return n;
+		}
+	}
+}
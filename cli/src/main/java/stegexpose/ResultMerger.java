@@ -0,0 +1,269 @@
+package stegexpose;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+
+
+/**
+ * ResultMerger
+ *
+ * Merges the csv or JSON lines reports of several scans, e.g. of the shards of a tree scanned on
+ * several machines, into one report. The reports are read one after the other and their rows are
+ * copied as they are, so the merged report is in the format of the reports merged; a file reported
+ * more than once, e.g. because a shard was scanned again, is only kept the first time. Summary
+ * statistics of the merged rows are gathered along the way.
+ *
+ * Only the names of the files are held in memory, not the rows.
+ *
+ * @version 0.1
+ */
+public class ResultMerger {
+
+	//detector columns in the order of the csv report, and their names in the JSON lines report
+	private static final String[] DETECTORS = {"primary_sets", "chi_square", "sample_pairs", "rs_analysis", "fusion"};
+	//number of fields of a csv row: file name, stego, size estimate and the detector columns
+	private static final int CSV_FIELDS = 3 + DETECTORS.length;
+	private static final String CSV_HEADER = "File name,";
+
+	//format of the merged report, ResultWriter.CSV or ResultWriter.JSON_LINES (-1 until the first report is read)
+	private int format = -1;
+	private final HashSet<String> names = new HashSet<String>();
+	private int reports = 0;
+	private long rows = 0;
+	private long duplicates = 0;
+	private long stego = 0;
+	private long hiddenBytes = 0;
+	//number of files each detector gave a number for, and the sum of the numbers
+	private final long[] detectorFiles = new long[DETECTORS.length];
+	private final double[] detectorSums = new double[DETECTORS.length];
+
+
+	/**
+	 * Merges reports into one
+	 *
+	 * @param inputs		reports to be merged, all csv or all JSON lines
+	 * @param output		merged report to be written
+	 * @throws IOException 	if a report cannot be read, is not in the format of the first report, or the merged report cannot be written
+	 */
+	public void merge(List<Path> inputs, Path output) throws IOException{
+		BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+		try{
+			for(Path input : inputs)
+				merge(input, writer);
+		}
+		finally{
+			writer.close();
+		}
+	}
+
+	/*
+	 * Copies the rows of a report not merged before
+	 */
+	private void merge(Path input, BufferedWriter writer) throws IOException{
+		BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+		try{
+			String line;
+			boolean first = true;
+			while((line = reader.readLine()) != null){
+				if(line.trim().isEmpty())
+					continue;
+				int lineFormat = line.trim().startsWith("{") ? ResultWriter.JSON_LINES : ResultWriter.CSV;
+				if(first){
+					//the merged report starts like the first report
+					if(format < 0){
+						format = lineFormat;
+						if(format == ResultWriter.CSV){
+							if(!line.startsWith(CSV_HEADER))
+								throw new IOException(input + " is not a StegExpose report");
+							writer.newLine();
+							writer.write(line);
+							writer.newLine();
+						}
+					}
+					else if(lineFormat != format)
+						throw new IOException(input + " is not in the format of " + (format == ResultWriter.CSV ? "csv" : "JSON lines") + " as the reports before it");
+					first = false;
+					if(line.startsWith(CSV_HEADER))
+						continue;
+				}
+				if(format == ResultWriter.CSV ? addCsv(line) : addJson(line)){
+					writer.write(line);
+					if(format == ResultWriter.CSV)
+						writer.newLine();
+					else
+						writer.write('\n');
+				}
+			}
+		}
+		catch(IllegalArgumentException e){
+			throw new IOException(input + ": " + e.getMessage());
+		}
+		finally{
+			reader.close();
+		}
+		reports++;
+	}
+
+	/*
+	 * Reads a csv row into the summary, returning false if the file has been merged before. The file
+	 * name is not quoted and may hold commas, so the fields are counted from the end.
+	 */
+	private boolean addCsv(String line){
+		String[] fields = new String[CSV_FIELDS];
+		int end = line.length();
+		for(int i=CSV_FIELDS-1; i>0; i--){
+			int comma = line.lastIndexOf(',', end - 1);
+			if(comma < 0)
+				throw new IllegalArgumentException("not a row of a report: " + line);
+			fields[i] = line.substring(comma + 1, end);
+			end = comma;
+		}
+		fields[0] = line.substring(0, end);
+		String[] detectors = new String[DETECTORS.length];
+		System.arraycopy(fields, 3, detectors, 0, detectors.length);
+		return add(fields[0], fields[1], fields[2], detectors);
+	}
+
+	/*
+	 * Reads a JSON lines row into the summary, returning false if the file has been merged before
+	 */
+	private boolean addJson(String line){
+		HashMap<String, String> fields = parseObject(line);
+		String[] detectors = new String[DETECTORS.length];
+		for(int i=0; i<detectors.length; i++)
+			detectors[i] = fields.get(DETECTORS[i]);
+		String file = fields.get("file");
+		if(file == null)
+			throw new IllegalArgumentException("no file in " + line);
+		return add(file, fields.get("stego"), fields.get("size_estimate"), detectors);
+	}
+
+	private boolean add(String file, String isStego, String sizeEstimate, String[] detectors){
+		if(!names.add(file)){
+			duplicates++;
+			return false;
+		}
+		rows++;
+		if("true".equals(isStego)){
+			stego++;
+			try{
+				hiddenBytes += Long.parseLong(sizeEstimate.trim());
+			}
+			catch(RuntimeException e){}
+		}
+		for(int i=0; i<detectors.length; i++){
+			try{
+				double value = Double.parseDouble(detectors[i].trim());
+				if(!Double.isNaN(value) && !Double.isInfinite(value)){
+					detectorFiles[i]++;
+					detectorSums[i] += value;
+				}
+			}
+			//null or missing, the detector did not run or gave no number
+			catch(RuntimeException e){}
+		}
+		return true;
+	}
+
+	/*
+	 * Reads a flat JSON object as written by ResultWriter: string values are unquoted, other values
+	 * are kept as they are
+	 */
+	private static HashMap<String, String> parseObject(String line){
+		HashMap<String, String> fields = new HashMap<String, String>();
+		int[] at = {line.indexOf('{') + 1};
+		while(true){
+			skipSpace(line, at);
+			if(at[0] >= line.length() || line.charAt(at[0]) == '}')
+				return fields;
+			String key = parseString(line, at);
+			skipSpace(line, at);
+			if(at[0] >= line.length() || line.charAt(at[0]) != ':')
+				throw new IllegalArgumentException("not a JSON object: " + line);
+			at[0]++;
+			skipSpace(line, at);
+			String value;
+			if(at[0] < line.length() && line.charAt(at[0]) == '"')
+				value = parseString(line, at);
+			else{
+				int start = at[0];
+				while(at[0] < line.length() && line.charAt(at[0]) != ',' && line.charAt(at[0]) != '}')
+					at[0]++;
+				value = line.substring(start, at[0]).trim();
+			}
+			fields.put(key, value);
+			skipSpace(line, at);
+			if(at[0] < line.length() && line.charAt(at[0]) == ',')
+				at[0]++;
+		}
+	}
+
+	private static void skipSpace(String line, int[] at){
+		while(at[0] < line.length() && Character.isWhitespace(line.charAt(at[0])))
+			at[0]++;
+	}
+
+	private static String parseString(String line, int[] at){
+		if(at[0] >= line.length() || line.charAt(at[0]) != '"')
+			throw new IllegalArgumentException("not a JSON object: " + line);
+		StringBuilder text = new StringBuilder();
+		for(int i=at[0]+1; i<line.length(); i++){
+			char c = line.charAt(i);
+			if(c == '"'){
+				at[0] = i + 1;
+				return text.toString();
+			}
+			if(c == '\\' && i+1 < line.length()){
+				char escaped = line.charAt(++i);
+				if(escaped == 'u' && i+4 < line.length()){
+					text.append((char)Integer.parseInt(line.substring(i+1, i+5), 16));
+					i += 4;
+				}
+				else if(escaped == 'n')
+					text.append('\n');
+				else if(escaped == 't')
+					text.append('\t');
+				else if(escaped == 'r')
+					text.append('\r');
+				else
+					text.append(escaped);
+			}
+			else
+				text.append(c);
+		}
+		throw new IllegalArgumentException("not a JSON object: " + line);
+	}
+
+	/**
+	 * Gets the summary statistics of the merged rows
+	 *
+	 * @return 		lines of text: the number of files, how many are above the stego threshold and the mean of every detector
+	 */
+	public String getSummary(){
+		String newline = System.getProperty("line.separator");
+		StringBuilder summary = new StringBuilder();
+		summary.append(rows).append(" files from ").append(reports).append(" reports");
+		if(duplicates > 0)
+			summary.append(", ").append(duplicates).append(" duplicate rows left out");
+		summary.append(newline);
+		summary.append(stego).append(" files above the stego threshold, approximate amount of hidden data ").append(hiddenBytes).append(" bytes").append(newline);
+		for(int i=0; i<DETECTORS.length; i++){
+			summary.append(DETECTORS[i]).append(": ");
+			if(detectorFiles[i] == 0)
+				summary.append("no results");
+			else
+				summary.append("mean ").append(String.format(Locale.ROOT, "%.4f", detectorSums[i]/detectorFiles[i])).append(" over ").append(detectorFiles[i]).append(" files");
+			summary.append(newline);
+		}
+		return summary.toString();
+	}
+}
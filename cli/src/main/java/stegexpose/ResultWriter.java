@@ -0,0 +1,417 @@
+package stegexpose;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+
+/**
+ * ResultWriter
+ *
+ * Writes the results of a scan from a thread of its own, so that formatting and writing them never
+ * holds up the scan. Results are handed over through a lock-free queue, which the writer thread drains
+ * in batches into buffered outputs; the outputs are flushed once every flush interval and at the end of
+ * the scan instead of after every file.
+ *
+ * Results are written as they complete, or in the order the files were found. Every file is given a
+ * sequence number when it is found, and in that order a result is held back until the files found
+ * before it have all been written or skipped.
+ *
+ * With a journal (see ScanJournal), every flush also forces the output files to disk and records the
+ * files written since the last flush in the journal, followed by a checkpoint of the output lengths.
+ *
+ * Each output is in one of these formats:
+ * - CONSOLE, a line for every file above the threshold, as StegExpose prints them
+ * - CSV, the full steganalytic report of every file
+ * - JSON_LINES, a JSON object with the detector outputs of every file on a line of its own
+ *
+ * @version 0.1
+ */
+public class ResultWriter {
+
+	//output formats
+	public static final int CONSOLE = 0;
+	public static final int CSV = 1;
+	public static final int JSON_LINES = 2;
+
+	//time the writer thread waits for more results before it looks at the queue again
+	private static final long DRAIN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	private final double threshold;
+	private final boolean ordered;
+	private final long flushNanos;
+	private final List<Writer> outputs = new ArrayList<Writer>();
+	private final List<Integer> formats = new ArrayList<Integer>();
+	//outputs to be closed at the end, the console is only flushed
+	private final List<Boolean> owned = new ArrayList<Boolean>();
+	//output files and their channels, forced to disk at every flush when there is a journal
+	private final List<Path> files = new ArrayList<Path>();
+	private final List<FileChannel> channels = new ArrayList<FileChannel>();
+	//progress journal (null if not used)
+	private ScanJournal journal = null;
+
+	private final ConcurrentLinkedQueue<Result> queue = new ConcurrentLinkedQueue<Result>();
+	private final Thread thread;
+	private volatile boolean closing = false;
+	//true while the writer thread waits for results with nothing left to flush, until a result wakes it up
+	private volatile boolean idle = false;
+	//first error writing an output (null if none)
+	private volatile IOException error = null;
+
+	//used by the writer thread only: results held back in ordered mode and the next sequence number to be written
+	private final HashMap<Long, Result> held = new HashMap<Long, Result>();
+	private long next = 0;
+	private final StringBuilder line = new StringBuilder(256);
+	//used by the writer thread only: files written or skipped since the last checkpoint of the journal
+	private final List<String> journaled = new ArrayList<String>();
+
+
+	/**
+	 * Creates a writer without any outputs yet
+	 *
+	 * @param threshold			threshold applied to the stegexpose indicator
+	 * @param ordered			true to write results in the order the files were found, false as they complete
+	 * @param flushMillis		milliseconds between two flushes of the outputs, 0 to flush every batch of results
+	 */
+	public ResultWriter(double threshold, boolean ordered, long flushMillis){
+		this.threshold = threshold;
+		this.ordered = ordered;
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushMillis, 0));
+		thread = new Thread(new Runnable(){
+			public void run(){
+				write();
+			}
+		}, "stegexpose-writer");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Adds an output and writes its header. Outputs are added before the writer is started.
+	 *
+	 * @param output		buffered output to be written to
+	 * @param format		CONSOLE, CSV or JSON_LINES
+	 * @param fast			true if fast mode is used, which the CSV header mentions
+	 * @param close			true if the output is closed at the end, false if it is only flushed
+	 * @throws IOException 	if the header cannot be written
+	 */
+	public void addOutput(Writer output, int format, boolean fast, boolean close) throws IOException{
+		writeHeader(output, format, fast);
+		outputs.add(output);
+		formats.add(format);
+		owned.add(close);
+	}
+
+	/**
+	 * Adds an output file, written in UTF-8 and closed at the end. A file resumed from a checkpoint is
+	 * cut back to its length at the checkpoint and appended to; its header is only written if it is
+	 * empty. Outputs are added before the writer is started.
+	 *
+	 * @param file			output file
+	 * @param format		CSV or JSON_LINES
+	 * @param fast			true if fast mode is used, which the CSV header mentions
+	 * @param resumeFrom	length of the file at the checkpoint resumed from, -1 to start the file afresh
+	 * @throws IOException 	if the file cannot be created or the header cannot be written
+	 */
+	public void addOutput(Path file, int format, boolean fast, long resumeFrom) throws IOException{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try{
+			channel.truncate(Math.max(resumeFrom, 0));
+			channel.position(channel.size());
+		}
+		catch(IOException e){
+			channel.close();
+			throw e;
+		}
+		Writer output = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+		if(channel.size() == 0)
+			writeHeader(output, format, fast);
+		outputs.add(output);
+		formats.add(format);
+		owned.add(true);
+		files.add(file);
+		channels.add(channel);
+	}
+
+	private static void writeHeader(Writer output, int format, boolean fast) throws IOException{
+		if(format != CSV)
+			return;
+		output.write(NEWLINE);
+		if(fast)
+			output.write("File name,Above stego threshold?,Secret message size in bytes (ignore for clean files),Primary Sets,Chi Square,Sample Pairs,RS analysis,Fusion (mean & fast)" + NEWLINE);
+		else
+			output.write("File name,Above stego threshold?,Secret message size in bytes (ignore for clean files),Primary Sets,Chi Square,Sample Pairs,RS analysis,Fusion (mean)" + NEWLINE);
+	}
+
+	/**
+	 * Records the progress of the scan in a journal, which is written by the writer thread only and
+	 * closed by the caller after the writer. Set before the writer is started.
+	 *
+	 * @param journal		progress journal
+	 */
+	public void setJournal(ScanJournal journal){
+		this.journal = journal;
+	}
+
+	/**
+	 * Starts the writer thread
+	 */
+	public void start(){
+		thread.start();
+	}
+
+	/**
+	 * Hands over the result of a file. Never blocks, and can be called from any thread.
+	 *
+	 * @param sequence		sequence number of the file, counting from 0 in the order the files were found
+	 * @param analysis		completed analysis of the file
+	 */
+	public void submit(long sequence, FileAnalysis analysis){
+		if(error == null){
+			queue.add(new Result(sequence, analysis.getFileName(), analysis));
+			if(idle)
+				LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Tells the writer that a file has no result, e.g. because it is not an image, so that the results
+	 * after it are not held back for it and the journal records it as done. Never blocks, and can be
+	 * called from any thread.
+	 *
+	 * @param sequence		sequence number of the file
+	 * @param name			name of the file as reported
+	 */
+	public void skip(long sequence, String name){
+		if((ordered || journal != null) && error == null){
+			queue.add(new Result(sequence, name, null));
+			if(idle)
+				LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Writes the results still waiting, flushes the outputs and closes those to be closed. Results
+	 * held back for files never reported are written in order of their sequence numbers. A writer
+	 * which was never started, e.g. because an output could not be added, closes the outputs added.
+	 *
+	 * @throws IOException 	if an output could not be written
+	 */
+	public void close() throws IOException{
+		if(thread.getState() == Thread.State.NEW){
+			closeOutputs();
+			if(error != null)
+				throw error;
+			return;
+		}
+		closing = true;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while(thread.isAlive()){
+			try{
+				thread.join();
+			}
+			catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(error != null)
+			throw error;
+	}
+
+	/*
+	 * Work of the writer thread: drains the queue in batches until the writer is closed
+	 */
+	private void write(){
+		long lastFlush = System.nanoTime();
+		boolean unflushed = false;
+		try{
+			while(true){
+				boolean last = closing;
+				Result result;
+				while((result = queue.poll()) != null){
+					if(!ordered)
+						write(result);
+					else{
+						held.put(result.sequence, result);
+						for(Result ready = held.remove(next); ready != null; ready = held.remove(next)){
+							write(ready);
+							next++;
+						}
+					}
+					unflushed = true;
+				}
+				if(last)
+					break;
+				long now = System.nanoTime();
+				if(unflushed && now - lastFlush >= flushNanos){
+					flush();
+					lastFlush = now;
+					unflushed = false;
+				}
+				//results not flushed yet wait at most until the next flush is due, with nothing to flush the
+				//thread sleeps until the next result arrives, e.g. while a watched directory is quiet
+				if(unflushed)
+					LockSupport.parkNanos(this, Math.min(DRAIN_NANOS, Math.max(flushNanos - (now - lastFlush), 1)));
+				else{
+					idle = true;
+					if(queue.isEmpty() && !closing)
+						LockSupport.park(this);
+					idle = false;
+				}
+			}
+			//results of files that were never reported are not held back any longer
+			if(!held.isEmpty()){
+				ArrayList<Long> sequences = new ArrayList<Long>(held.keySet());
+				Collections.sort(sequences);
+				for(Long sequence : sequences)
+					write(held.get(sequence));
+			}
+			flush();
+		}
+		catch(IOException e){
+			error = e;
+			//the scan goes on, results are no longer written
+			queue.clear();
+		}
+		finally{
+			closeOutputs();
+		}
+	}
+
+	private void closeOutputs(){
+		for(int i=0; i<outputs.size(); i++){
+			if(!owned.get(i))
+				continue;
+			try{
+				outputs.get(i).close();
+			}
+			catch(IOException e){
+				if(error == null)
+					error = e;
+			}
+		}
+	}
+
+	/*
+	 * Writes a result to every output
+	 */
+	private void write(Result result) throws IOException{
+		if(journal != null)
+			journaled.add(result.name);
+		if(result.analysis == null)
+			return;
+		FileAnalysis analysis = result.analysis;
+		boolean stego = analysis.isStego(threshold);
+		for(int i=0; i<outputs.size(); i++){
+			int format = formats.get(i);
+			line.setLength(0);
+			if(format == CSV)
+				line.append(analysis.getFileName()).append(',').append(stego).append(',').append(analysis.getFusionQ())
+					.append(',').append(analysis.getPrimarySets()).append(',').append(analysis.getChiSquare())
+					.append(',').append(analysis.getSamplePairs()).append(',').append(analysis.getRSAnalysis())
+					.append(',').append(analysis.getFusion()).append(NEWLINE);
+			else if(format == JSON_LINES)
+				line.append(toJson(analysis, stego)).append('\n');
+			else if(stego)
+				line.append(analysis.getFileName()).append(" is suspicious. Approximate amount of hidden data is ")
+					.append(analysis.getFusionQ()).append(" bytes.").append(NEWLINE);
+			if(line.length() > 0)
+				outputs.get(i).append(line);
+		}
+	}
+
+	private void flush() throws IOException{
+		for(Writer output : outputs)
+			output.flush();
+		if(journal == null)
+			return;
+		//the rows must be on disk before the journal says they are
+		LinkedHashMap<Path, Long> lengths = new LinkedHashMap<Path, Long>();
+		for(int i=0; i<files.size(); i++){
+			channels.get(i).force(false);
+			lengths.put(files.get(i), channels.get(i).position());
+		}
+		for(String name : journaled)
+			journal.add(name);
+		journaled.clear();
+		journal.checkpoint(lengths);
+	}
+
+	/**
+	 * Formats the detector outputs of a file as a JSON object. Detectors which did not run, failed or
+	 * gave no number are null.
+	 *
+	 * @param analysis		completed analysis of a file
+	 * @param stego			true if the file is above the stego threshold
+	 * @return 				JSON text
+	 */
+	static String toJson(FileAnalysis analysis, boolean stego){
+		StringBuilder json = new StringBuilder();
+		json.append("{\"file\": ").append(quote(analysis.getFileName()));
+		json.append(", \"stego\": ").append(stego);
+		json.append(", \"size_estimate\": ").append(analysis.getFusionQ());
+		json.append(", \"primary_sets\": ").append(number(analysis.getPrimarySets()));
+		json.append(", \"chi_square\": ").append(number(analysis.getChiSquare()));
+		json.append(", \"sample_pairs\": ").append(number(analysis.getSamplePairs()));
+		json.append(", \"rs_analysis\": ").append(number(analysis.getRSAnalysis()));
+		json.append(", \"fusion\": ").append(number(analysis.getFusion()));
+		int exit = analysis.getFastExit();
+		json.append(", \"fast_exit\": ").append(exit < 0 ? "null" : quote(FileAnalysis.STEP_NAMES[exit]));
+		json.append("}");
+		return json.toString();
+	}
+
+	private static String number(Double value){
+		if(value == null || value.isNaN() || value.isInfinite())
+			return "null";
+		return value.toString();
+	}
+
+	static String quote(String text){
+		StringBuilder quoted = new StringBuilder(text.length() + 2);
+		quoted.append('"');
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			if(c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if(c < 0x20)
+				quoted.append(String.format("\\u%04x", (int)c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	/*
+	 * Result of a file on its way to the writer thread (analysis null if the file is skipped)
+	 */
+	private static class Result {
+		final long sequence;
+		final String name;
+		final FileAnalysis analysis;
+
+		Result(long sequence, String name, FileAnalysis analysis){
+			this.sequence = sequence;
+			this.name = name;
+			this.analysis = analysis;
+		}
+	}
+}
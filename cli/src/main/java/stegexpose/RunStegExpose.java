@@ -0,0 +1,615 @@
+package stegexpose;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+
+
+
+
+/**
+ * RunStegExpose
+ * 
+ * Implements program for scanning multiple files for steganography
+ * 
+ * @author Benedikt Boehm
+ * @version 0.1
+ */
+
+
+public class RunStegExpose {
+	
+	//threshold to be applied to stegexpose indicator
+	private static double threshold = 0.2;
+	private static boolean fast = false;
+	private static double minProb = 0;
+	private static double maxProb = 1;
+	//number of files steganalysed at the same time
+	private static int threads = 1;
+	//number of files read and decoded at the same time (0 to follow threads)
+	private static int readers = 1;
+	private static int decoders = 0;
+	//number of files each stage of the scan can hold in its queue (0 to follow threads)
+	private static int queueSize = 0;
+	//how the directory tree is walked
+	private static int maxDepth = Integer.MAX_VALUE;
+	private static boolean followLinks = false;
+	private static ArrayList<String> includes = new ArrayList<String>();
+	private static ArrayList<String> excludes = new ArrayList<String>();
+	//files the scan metrics are written to (null if not wanted) and seconds between two writes
+	private static Path metricsJson = null;
+	private static Path metricsPrometheus = null;
+	private static int metricsInterval = 10;
+	//file keeping the results of earlier scans (null if not used)
+	private static Path cacheFile = null;
+	//analyse only one of several copies of a file or image
+	private static boolean deduplicate = true;
+	//levels of archives within archives whose files are scanned (0 to scan archives as any other file)
+	private static int archiveDepth = 1;
+	//files in archives larger than this many megabytes are skipped rather than read into memory, and
+	//larger frames on stdin are refused
+	private static int maxEntryMegabytes = 256;
+	//images above this size are analysed a strip of rows at a time
+	private static int tileMegapixels = 64;
+	//port to serve scans over HTTP on instead of scanning a directory (0 if not wanted) and address to listen on
+	private static int servePort = 0;
+	private static String bindAddress = "127.0.0.1";
+	//detectors to be run (all if left blank)
+	private static int[] detectors = DetectorSchedule.ALL_DETECTORS;
+	//estimate RS analysis from a sample of the rows of each image and the seed of the samples
+	private static boolean sampled = false;
+	private static long seed = 0;
+	//file the results are also written to as JSON lines (null if not wanted)
+	private static Path jsonLines = null;
+	//write results in the order the files are found rather than as they complete
+	private static boolean ordered = false;
+	//milliseconds between two flushes of the results (0 for every batch of results, -1 if left blank)
+	private static int flushInterval = -1;
+	//format of the files or paths read from stdin when the directory is -
+	private static String stdinFormat = "lines";
+	//keep watching the directory for new and modified files, milliseconds a file must be unchanged before
+	//it is scanned, and milliseconds between two walks of a polled directory (0 to watch it if possible)
+	private static boolean watch = false;
+	private static int watchSettle = 2000;
+	private static int watchPoll = 0;
+	//milliseconds between two walks of a directory which cannot be watched, if no other interval is given
+	private static final int DEFAULT_POLL = 10000;
+	//shard of the directory tree to be scanned as i/n (null to scan the whole tree)
+	private static String shard = null;
+	//merged report to be written from the reports given instead of scanning (null if not wanted)
+	private static Path mergeOutput = null;
+	//journal of the progress of the scan (null for the csv file name with .journal added), whether
+	//one is kept and whether the scan resumes from it
+	private static Path journalFile = null;
+	private static boolean journaled = true;
+	private static boolean resume = false;
+	
+	
+	/**
+	 * Main method to run the program
+	 * 
+	 * @param args	Stegexpoe arguments in the following format [directory] [speed (optional)] [threshold (optional)] [csv file (optional)] [--option value (optional)]
+	 */
+	public static void main(String[] args){
+		
+		//separating options from the positional arguments
+		args = parseOptions(args);
+		
+		//merging the reports of several scans instead of scanning
+		if(mergeOutput != null){
+			merge(args);
+			return;
+		}
+		
+		//running as a service, speed and threshold are the defaults for requests
+		if(servePort > 0){
+			serve(args);
+			return;
+		}
+		
+		//obtaining all files to be steganalysed, the directory tree is walked as the scan goes along, or
+		//the files are read from stdin as they come if the directory is -
+		FileWalker listOfFiles = null;
+		StdinInput stdin = null;
+		if(args.length>0 && args[0].equals("-")){
+			try{
+				stdin = new StdinInput(System.in, StdinInput.parseFormat(stdinFormat), maxEntryMegabytes*(1L << 20));
+			}
+			catch(IllegalArgumentException e){
+				System.err.println(e.getMessage());
+				return;
+			}
+		}
+		else if(args.length>0){
+			Path folder = Paths.get(args[0]);
+			if(!Files.exists(folder)){
+				System.err.println(args[0]+" does not exist");
+				return;
+			}
+			listOfFiles = new FileWalker(folder).setMaxDepth(maxDepth).setFollowLinks(followLinks);
+			//a shard which cannot be read would scan the whole tree, so nothing is scanned
+			if(shard != null){
+				try{
+					int[] parsed = FileWalker.parseShard(shard);
+					listOfFiles.setShard(parsed[0], parsed[1]);
+				}
+				catch(IllegalArgumentException e){
+					System.err.println(e.getMessage());
+					return;
+				}
+			}
+			for(String glob : includes)
+				listOfFiles.include(glob);
+			for(String glob : excludes)
+				listOfFiles.exclude(glob);
+		}
+		else{
+			System.err.println("please provide StegExpose with directory of files to be scanned");
+			return;
+		}
+		
+		//setting speed mode (optional parameter)
+		if(args.length>1)
+			if(args[1].equals("fast"))
+				fast = true;
+		
+		
+		//setting user defined threshold threshold (optional parameter)
+		if(args.length>2){
+			try{
+				double userDefinedThreshold = Double.valueOf(args[2]);
+				if(userDefinedThreshold>=minProb&&userDefinedThreshold<=maxProb)
+					threshold = userDefinedThreshold;
+			}
+			catch(Exception e){}
+			
+		}
+		
+		//keeping a journal of the progress of a scan written to a csv file (or to the journal given), so
+		//that it can be resumed after a crash
+		String output = args.length>3 ? args[3] : null;
+		if(journalFile == null && output != null)
+			journalFile = Paths.get(output + ".journal");
+		if(!journaled)
+			journalFile = null;
+		if(resume && journalFile == null){
+			System.err.println("--resume needs a csv file or --journal");
+			return;
+		}
+		ScanJournal journal = null;
+		if(journalFile != null){
+			try{
+				journal = ScanJournal.open(journalFile, resume);
+			}
+			catch(IOException e){
+				System.err.println("could not open journal "+journalFile+": "+e.getMessage());
+				return;
+			}
+			if(resume)
+				System.err.println("resuming scan, "+journal.getDone()+" files done before");
+		}
+		
+		//creating a file for csv output providing full steganalytic report (optional parameter), otherwise
+		//suspicious files are printed to the console; a resumed scan appends to the files
+		if(watch && listOfFiles == null){
+			System.err.println("--watch needs a directory");
+			return;
+		}
+		
+		//files read from stdin are streamed to stdout as JSON lines as soon as each is done, as are the
+		//results of a watched directory to its outputs
+		if(flushInterval < 0)
+			flushInterval = stdin != null || watch ? 0 : 1000;
+		ResultWriter results = new ResultWriter(threshold, ordered, flushInterval);
+		Path opening = output != null ? Paths.get(output) : null;
+		try{
+			if(output != null)
+				results.addOutput(Paths.get(output), ResultWriter.CSV, fast, resume ? journal.getLength(Paths.get(output)) : -1);
+			if(stdin != null)
+				results.addOutput(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")), ResultWriter.JSON_LINES, fast, false);
+			else if(output == null)
+				results.addOutput(new BufferedWriter(new OutputStreamWriter(System.out)), ResultWriter.CONSOLE, fast, false);
+			if(jsonLines != null){
+				opening = jsonLines;
+				results.addOutput(jsonLines, ResultWriter.JSON_LINES, fast, resume ? journal.getLength(jsonLines) : -1);
+			}
+		}
+		catch(IOException e){
+			System.err.println("could not create "+opening+": "+e.getMessage());
+			//the outputs opened before and the journal are closed, so nothing is left half written, and
+			//a journal with nothing done yet is deleted
+			try{
+				results.close();
+			}
+			catch(IOException f){
+				System.err.println("could not write results: "+f.getMessage());
+			}
+			if(journal != null){
+				try{
+					journal.close();
+					if(!resume)
+						Files.deleteIfExists(journalFile);
+				}
+				catch(IOException f){
+					System.err.println("could not write journal "+journalFile);
+				}
+			}
+			return;
+		}
+		if(journal != null)
+			results.setJournal(journal);
+		results.start();
+
+		//iterating through all files in a given directory tree, reading, decoding and steganalysing them in a pipeline
+		if(decoders == 0)
+			decoders = threads;
+		if(queueSize == 0)
+			queueSize = 4*threads;
+		ScanPipeline pipeline = new ScanPipeline(readers, decoders, threads, queueSize, schedule(fast), threshold);
+		pipeline.setDeduplicate(deduplicate);
+		pipeline.setTilePixels(tileMegapixels*1000000L);
+		pipeline.setArchiveDepth(archiveDepth, maxEntryMegabytes*(1L << 20));
+		//a watched file may be modified after the journal recorded it, so a resumed watch only appends to the outputs
+		if(resume && !watch)
+			pipeline.setJournal(journal);
+		if(metricsJson != null || metricsPrometheus != null)
+			pipeline.getMetrics().startExport(metricsJson, metricsPrometheus, metricsInterval);
+		ResultCache cache = null;
+		if(cacheFile != null){
+			try{
+				cache = ResultCache.open(cacheFile);
+				pipeline.setCache(cache);
+			}
+			catch(IOException e){
+				System.err.println("could not open cache "+cacheFile+", scanning without it");
+			}
+		}
+		//the pipeline and the outputs are closed whatever stops the scan, even an error such as running
+		//out of memory, so that their threads do not keep the program alive. The journal is only needed
+		//to resume a scan that did not finish, so it is deleted once every file has been reported (a
+		//watch keeps it so that it can be resumed after it is stopped)
+		boolean complete = false;
+		try{
+			if(stdin != null){
+				boolean read = false;
+				pipeline.start(results);
+				try{
+					stdin.feed(pipeline);
+					read = true;
+				}
+				catch(IOException e){
+					System.err.println("could not read stdin: "+e.getMessage());
+				}
+				finally{
+					pipeline.finish();
+				}
+				complete = read;
+			}
+			else if(watch)
+				watch(listOfFiles, pipeline, results);
+			else{
+				pipeline.run(listOfFiles, results);
+				complete = true;
+			}
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		finally{
+			try{
+				results.close();
+			}
+			catch(IOException e){
+				System.err.println("could not write results: "+e.getMessage());
+				complete = false;
+			}
+			if(journal != null){
+				try{
+					journal.close();
+					if(complete)
+						Files.deleteIfExists(journalFile);
+				}
+				catch(IOException e){
+					System.err.println("could not write journal "+journalFile);
+				}
+			}
+			pipeline.getMetrics().stopExport();
+			if(cache != null){
+				try{
+					cache.close();
+				}
+				catch(IOException e){
+					System.err.println("could not write cache "+cacheFile);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Scans the files in a directory tree and then every new or modified file as it arrives, until the
+	 * program is stopped. The scan is then finished as if the tree had been scanned to the end.
+	 * 
+	 * @param files		walker of the directory tree
+	 * @param pipeline	pipeline the files are steganalysed in
+	 * @param results	writer the results are handed to
+	 * @throws InterruptedException 	if interrupted while waiting for the pipeline
+	 */
+	private static void watch(FileWalker files, ScanPipeline pipeline, ResultWriter results) throws InterruptedException{
+		final DirectoryWatcher watcher = new DirectoryWatcher(files, pipeline, watchSettle, watchPoll > 0 ? watchPoll : DEFAULT_POLL, watchPoll > 0);
+		final Thread main = Thread.currentThread();
+		//stopping the program (e.g. Ctrl-C) stops the watch and waits for the results to be written
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			public void run(){
+				watcher.stop();
+				try{
+					main.join(60000);
+				}
+				catch(InterruptedException e){}
+			}
+		}, "stegexpose-shutdown"));
+		pipeline.start(results);
+		try{
+			System.err.println((watcher.isPolling() ? "polling " : "watching ")+files.getRoot()+" for new and modified files, stop with Ctrl-C");
+			watcher.run();
+		}
+		finally{
+			pipeline.finish();
+		}
+	}
+	
+	/**
+	 * Serves scans over HTTP until the program is stopped
+	 * 
+	 * @param args	positional arguments, the directory is left out: [speed (optional)] [threshold (optional)]
+	 */
+	private static void serve(String[] args){
+		if(args.length>0 && args[0].equals("fast"))
+			fast = true;
+		if(args.length>1){
+			try{
+				double userDefinedThreshold = Double.valueOf(args[1]);
+				if(userDefinedThreshold>=minProb&&userDefinedThreshold<=maxProb)
+					threshold = userDefinedThreshold;
+			}
+			catch(Exception e){}
+		}
+		if(queueSize == 0)
+			queueSize = 4*threads;
+		//requests can ask for fast mode, so the detectors are always ordered for it
+		DetectorSchedule schedule = DetectorSchedule.byCost(detectors, DetectorSchedule.measureCosts(), true).withFast(fast);
+		if(sampled)
+			schedule = schedule.withSampling(seed);
+		final ScanServer server = new ScanServer(new InetSocketAddress(bindAddress, servePort), threads, queueSize, schedule, threshold, tileMegapixels*1000000L);
+		try{
+			server.start();
+		}
+		catch(IOException e){
+			System.err.println("could not listen on "+bindAddress+":"+servePort+": "+e.getMessage());
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				server.stop();
+			}
+		});
+		System.err.println("serving scans on http://"+bindAddress+":"+server.getAddress().getPort()+"/");
+		try{
+			Thread.currentThread().join();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Merges the csv or JSON lines reports of several scans, e.g. of the shards of a tree, into one
+	 * report and prints summary statistics of the merged report
+	 * 
+	 * @param args	the reports to be merged
+	 */
+	private static void merge(String[] args){
+		if(args.length == 0){
+			System.err.println("please provide StegExpose with the reports to be merged");
+			return;
+		}
+		ArrayList<Path> inputs = new ArrayList<Path>();
+		for(String arg : args)
+			inputs.add(Paths.get(arg));
+		ResultMerger merger = new ResultMerger();
+		try{
+			merger.merge(inputs, mergeOutput);
+		}
+		catch(IOException e){
+			System.err.println("could not merge the reports: "+e.getMessage());
+			return;
+		}
+		System.out.print(merger.getSummary());
+	}
+	
+	/**
+	 * Sets up the detectors to be run. Fast mode runs the cheapest first, by their typical costs,
+	 * otherwise they run in the order given.
+	 * 
+	 * @param fast	true if fast mode is used
+	 * @return 		schedule of the detectors
+	 */
+	private static DetectorSchedule schedule(boolean fast){
+		DetectorSchedule schedule;
+		if(fast)
+			schedule = DetectorSchedule.byCost(detectors, DetectorSchedule.typicalCosts(), true);
+		else
+			schedule = new DetectorSchedule(detectors, false);
+		return sampled ? schedule.withSampling(seed) : schedule;
+	}
+	
+	/**
+	 * Reads the options (arguments starting with --) and returns the remaining positional arguments
+	 * 
+	 * @param args	all program arguments
+	 * @return 		positional arguments in their original order
+	 */
+	private static String[] parseOptions(String[] args){
+		ArrayList<String> positional = new ArrayList<String>();
+		for(int i=0; i<args.length; i++){
+			String arg = args[i];
+			if(!arg.startsWith("--")){
+				positional.add(arg);
+				continue;
+			}
+			String name = arg;
+			String value = null;
+			int eq = arg.indexOf('=');
+			if(eq>0){
+				name = arg.substring(0, eq);
+				value = arg.substring(eq+1);
+			}
+			
+			//options without a value
+			if(name.equals("--follow-links")){
+				followLinks = true;
+				continue;
+			}
+			if(name.equals("--no-dedup")){
+				deduplicate = false;
+				continue;
+			}
+			if(name.equals("--sample")){
+				sampled = true;
+				continue;
+			}
+			if(name.equals("--ordered")){
+				ordered = true;
+				continue;
+			}
+			if(name.equals("--resume")){
+				resume = true;
+				continue;
+			}
+			if(name.equals("--watch")){
+				watch = true;
+				continue;
+			}
+			if(name.equals("--no-archives")){
+				archiveDepth = 0;
+				continue;
+			}
+			if(name.equals("--no-journal")){
+				journaled = false;
+				continue;
+			}
+			
+			if(value == null && i+1<args.length)
+				value = args[++i];
+			
+			if(name.equals("--threads"))
+				threads = positiveInt(value, threads);
+			else if(name.equals("--readers"))
+				readers = positiveInt(value, readers);
+			else if(name.equals("--decoders"))
+				decoders = positiveInt(value, decoders);
+			else if(name.equals("--queue"))
+				queueSize = positiveInt(value, queueSize);
+			else if(name.equals("--max-depth"))
+				maxDepth = positiveInt(value, maxDepth);
+			else if(name.equals("--include") && value != null)
+				includes.add(value);
+			else if(name.equals("--exclude") && value != null)
+				excludes.add(value);
+			else if(name.equals("--metrics-json") && value != null)
+				metricsJson = Paths.get(value);
+			else if(name.equals("--metrics-prom") && value != null)
+				metricsPrometheus = Paths.get(value);
+			else if(name.equals("--tile-megapixels"))
+				tileMegapixels = positiveInt(value, tileMegapixels);
+			else if(name.equals("--archive-depth"))
+				archiveDepth = positiveInt(value, archiveDepth);
+			else if(name.equals("--max-entry-mb"))
+				maxEntryMegabytes = positiveInt(value, maxEntryMegabytes);
+			else if(name.equals("--cache") && value != null)
+				cacheFile = Paths.get(value);
+			else if(name.equals("--serve"))
+				servePort = positiveInt(value, servePort);
+			else if(name.equals("--detectors") && value != null){
+				try{
+					detectors = DetectorSchedule.parseDetectors(value);
+					new DetectorSchedule(detectors, false);
+				}
+				catch(IllegalArgumentException e){
+					System.err.println("ignoring --detectors "+value+": "+e.getMessage());
+					detectors = DetectorSchedule.ALL_DETECTORS;
+				}
+			}
+			else if(name.equals("--seed")){
+				try{
+					seed = Long.parseLong(value);
+				}
+				catch(Exception e){
+					System.err.println("ignoring --seed "+value);
+				}
+			}
+			else if(name.equals("--bind") && value != null)
+				bindAddress = value;
+			else if(name.equals("--shard") && value != null)
+				shard = value;
+			else if(name.equals("--merge") && value != null)
+				mergeOutput = Paths.get(value);
+			else if(name.equals("--journal") && value != null)
+				journalFile = Paths.get(value);
+			else if(name.equals("--jsonl") && value != null)
+				jsonLines = Paths.get(value);
+			else if(name.equals("--flush-interval"))
+				flushInterval = nonNegativeInt(value, flushInterval);
+			else if(name.equals("--watch-settle"))
+				watchSettle = positiveInt(value, watchSettle);
+			else if(name.equals("--watch-poll"))
+				watchPoll = positiveInt(value, watchPoll);
+			else if(name.equals("--stdin-format") && value != null)
+				stdinFormat = value;
+			else if(name.equals("--metrics-interval"))
+				metricsInterval = positiveInt(value, metricsInterval);
+			else
+				System.err.println("ignoring unknown option "+name);
+		}
+		return positional.toArray(new String[positional.size()]);
+	}
+	
+	/**
+	 * Reads a positive whole number given as an option value
+	 * 
+	 * @param value			option value
+	 * @param otherwise		value to be used if the option value is not a positive whole number
+	 * @return 				the number
+	 */
+	private static int positiveInt(String value, int otherwise){
+		try{
+			int userDefined = Integer.parseInt(value);
+			if(userDefined>0)
+				return userDefined;
+		}
+		catch(Exception e){}
+		return otherwise;
+	}
+	
+	/**
+	 * Reads a whole number of 0 or more given as an option value
+	 * 
+	 * @param value			option value
+	 * @param otherwise		value to be used if the option value is not a whole number of 0 or more
+	 * @return 				the number
+	 */
+	private static int nonNegativeInt(String value, int otherwise){
+		try{
+			int userDefined = Integer.parseInt(value);
+			if(userDefined>=0)
+				return userDefined;
+		}
+		catch(Exception e){}
+		return otherwise;
+	}
+}
@@ -0,0 +1,201 @@
+package stegexpose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * ScanJournal
+ *
+ * Keeps the progress of a scan in a file, so that a scan stopped by a crash or a reboot can be resumed
+ * where it left off. The names of the files whose results have been written are appended to the
+ * journal as they are written, and once every flush of the results a checkpoint records the length of
+ * every output file; the outputs and then the journal are forced to disk before the checkpoint counts.
+ * Only the writer of the results writes to the journal, one fsync per flush interval rather than one
+ * per file.
+ *
+ * When a journal is loaded, only the files up to its last complete checkpoint count as done, and the
+ * outputs are cut back to the lengths of that checkpoint: rows written after it are written again, so
+ * no row is lost and none is written twice.
+ *
+ * @version 0.1
+ */
+public class ScanJournal {
+
+	private static final int MAGIC = 0x53584a31; //"SXJ1"
+	private static final byte FILE_RECORD = 1;
+	private static final byte CHECKPOINT_RECORD = 2;
+
+	private final Path file;
+	//files done and lengths of the outputs at the last checkpoint loaded, not changed during the scan
+	private final Set<String> done = new HashSet<String>();
+	private final Map<String, Long> lengths = new HashMap<String, Long>();
+	private FileChannel channel;
+	private DataOutputStream out;
+
+
+	/*
+	 * Creates a journal stored in a file, see open
+	 */
+	private ScanJournal(Path file){
+		this.file = file;
+	}
+
+	/**
+	 * Opens a journal file, creating it if it does not exist yet
+	 *
+	 * @param file		journal file
+	 * @param resume	true to load the files done so far, false to start a new scan and empty the journal
+	 * @return 			the journal
+	 * @throws IOException 	if the journal file cannot be read or written, or is not a journal file
+	 */
+	public static ScanJournal open(Path file, boolean resume) throws IOException{
+		ScanJournal journal = new ScanJournal(file);
+		long valid = 0;
+		if(resume && Files.exists(file)){
+			InputStream stream = new BufferedInputStream(Files.newInputStream(file));
+			try{
+				valid = journal.load(new DataInputStream(stream));
+			}
+			finally{
+				stream.close();
+			}
+		}
+		journal.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		journal.channel.truncate(valid);
+		journal.channel.position(valid);
+		journal.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journal.channel), 1 << 16));
+		if(valid == 0)
+			journal.out.writeInt(MAGIC);
+		return journal;
+	}
+
+	/*
+	 * Reads all records, returns the length of the file up to the end of the last complete checkpoint
+	 */
+	private long load(DataInputStream in) throws IOException{
+		long valid;
+		try{
+			if(in.readInt() != MAGIC)
+				throw new IOException(file + " is not a StegExpose journal");
+			valid = 4;
+		}
+		catch(EOFException e){
+			return 0;
+		}
+		ResultCache.CountingInput counter = new ResultCache.CountingInput(in);
+		DataInputStream records = new DataInputStream(counter);
+		//files after the last checkpoint may have rows missing from the outputs
+		Set<String> pending = new HashSet<String>();
+		try{
+			while(true){
+				byte type = records.readByte();
+				if(type == FILE_RECORD)
+					pending.add(records.readUTF());
+				else if(type == CHECKPOINT_RECORD){
+					HashMap<String, Long> checkpoint = new HashMap<String, Long>();
+					for(int outputs = records.readInt(); outputs > 0; outputs--){
+						String output = records.readUTF();
+						checkpoint.put(output, records.readLong());
+					}
+					done.addAll(pending);
+					pending.clear();
+					lengths.clear();
+					lengths.putAll(checkpoint);
+					valid = 4 + counter.count;
+				}
+				else
+					break;
+			}
+		}
+		catch(EOFException e){}
+		return valid;
+	}
+
+	/**
+	 * Checks if the result of a file was written before the last checkpoint loaded
+	 *
+	 * @param name		name of the file as reported
+	 * @return 			true if the file does not need to be scanned again
+	 */
+	public boolean isDone(String name){
+		return done.contains(name);
+	}
+
+	/**
+	 * Gets the number of files done before the last checkpoint loaded
+	 *
+	 * @return 		number of files
+	 */
+	public int getDone(){
+		return done.size();
+	}
+
+	/**
+	 * Gets the length of an output file at the last checkpoint loaded
+	 *
+	 * @param output	output file
+	 * @return 			length in bytes, -1 if the output is not in the checkpoint and has to be started afresh
+	 */
+	public long getLength(Path output){
+		Long length = lengths.get(name(output));
+		return length == null ? -1 : length;
+	}
+
+	/**
+	 * Records that the result of a file has been written. It only counts once a checkpoint follows.
+	 *
+	 * @param name		name of the file as reported
+	 * @throws IOException 	if the journal cannot be written
+	 */
+	public void add(String name) throws IOException{
+		out.writeByte(FILE_RECORD);
+		out.writeUTF(name);
+	}
+
+	/**
+	 * Records the lengths of the outputs, which must already be on disk, and forces the journal to disk
+	 * so that the files added before count as done
+	 *
+	 * @param outputs		lengths in bytes of the output files
+	 * @throws IOException 	if the journal cannot be written
+	 */
+	public void checkpoint(Map<Path, Long> outputs) throws IOException{
+		out.writeByte(CHECKPOINT_RECORD);
+		out.writeInt(outputs.size());
+		for(Map.Entry<Path, Long> output : outputs.entrySet()){
+			out.writeUTF(name(output.getKey()));
+			out.writeLong(output.getValue());
+		}
+		out.flush();
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the journal file
+	 *
+	 * @throws IOException 	if the journal cannot be written
+	 */
+	public void close() throws IOException{
+		out.close();
+	}
+
+	private static String name(Path path){
+		return path.toAbsolutePath().normalize().toString();
+	}
+}
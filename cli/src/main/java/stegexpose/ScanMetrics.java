@@ -0,0 +1,434 @@
+package stegexpose;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * ScanMetrics
+ *
+ * Collects performance figures while files are scanned: read, decode and analysis latencies, the
+ * latency of each detector, bytes and pixels per second, how often fast mode stops early and how full
+ * the queues between the stages of the scan are. Everything is kept in counters which threads update
+ * without locking, so the metrics are always collected. They can be written out as JSON and in the
+ * Prometheus text format, periodically and once the scan has finished.
+ *
+ * @version 0.1
+ */
+public class ScanMetrics {
+
+	private final LongAdder files = new LongAdder();
+	private final LongAdder readErrors = new LongAdder();
+	private final LongAdder decodeErrors = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder pixels = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+
+	private final LatencyHistogram read = new LatencyHistogram();
+	private final LatencyHistogram decode = new LatencyHistogram();
+	private final LatencyHistogram analysis = new LatencyHistogram();
+	private final LatencyHistogram[] steps = new LatencyHistogram[FileAnalysis.STEP_NAMES.length];
+
+	//files analysed in fast mode and the step after which fast mode regarded them as clean or as stego
+	private final LongAdder fastFiles = new LongAdder();
+	private final LongAdder[] fastExits = new LongAdder[FileAnalysis.STEP_NAMES.length];
+	private final LongAdder[] stegoExits = new LongAdder[FileAnalysis.STEP_NAMES.length];
+
+	private final List<QueueGauge> queues = new ArrayList<QueueGauge>();
+
+	private volatile long startNanos = System.nanoTime();
+
+	//periodic export, null if the metrics are not exported
+	private ScheduledExecutorService exporter;
+	private Path jsonFile;
+	private Path prometheusFile;
+
+
+	/**
+	 * Creates a new set of metrics, the clock starts straight away
+	 */
+	public ScanMetrics(){
+		for(int i=0; i<steps.length; i++){
+			steps[i] = new LatencyHistogram();
+			fastExits[i] = new LongAdder();
+			stegoExits[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Restarts the clock used for the bytes and pixels per second
+	 */
+	public void start(){
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Records a file that has been read
+	 *
+	 * @param bytes		number of bytes read, -1 if the file could not be read
+	 * @param nanos		time taken
+	 */
+	public void recordRead(long bytes, long nanos){
+		read.record(nanos);
+		if(bytes < 0)
+			readErrors.increment();
+		else
+			bytesRead.add(bytes);
+	}
+
+	/**
+	 * Records an image that has been decoded
+	 *
+	 * @param image		decoded image, null if the file is not an image that could be decoded
+	 * @param nanos		time taken
+	 */
+	public void recordDecode(ChannelPlanes image, long nanos){
+		decode.record(nanos);
+		if(image == null)
+			decodeErrors.increment();
+		else
+			pixels.add((long)image.getWidth()*image.getHeight());
+	}
+
+	/**
+	 * Records the pixels of an image decoded strip by strip during its analysis
+	 *
+	 * @param count		number of pixels
+	 */
+	public void recordPixels(long count){
+		pixels.add(count);
+	}
+
+	/**
+	 * Records a file whose result was taken from the result cache
+	 */
+	public void recordCacheHit(){
+		cacheHits.increment();
+	}
+
+	/**
+	 * Records a file whose result was taken from a copy found earlier in the scan
+	 */
+	public void recordDuplicate(){
+		duplicates.increment();
+	}
+
+	/**
+	 * Records a completed analysis
+	 *
+	 * @param file		analysis of the file
+	 * @param nanos		time taken by the whole analysis
+	 * @param fast		true if fast mode was used
+	 */
+	public void recordAnalysis(FileAnalysis file, long nanos, boolean fast){
+		files.increment();
+		analysis.record(nanos);
+		for(int i=0; i<steps.length; i++)
+			steps[i].record(file.getStepNanos(i));
+		if(fast){
+			fastFiles.increment();
+			if(file.getFastExit() >= 0)
+				(file.isStegoExit() ? stegoExits : fastExits)[file.getFastExit()].increment();
+		}
+	}
+
+	/**
+	 * Adds a queue whose depth is reported
+	 *
+	 * @param name			name the queue is reported under
+	 * @param queue			queue to be watched
+	 * @param capacity		number of items the queue can hold
+	 * @return 				gauge to be told whenever an item is taken from the queue
+	 */
+	public QueueGauge addQueue(String name, BlockingQueue<?> queue, int capacity){
+		QueueGauge gauge = new QueueGauge(name, queue, capacity);
+		synchronized(queues){
+			queues.add(gauge);
+		}
+		return gauge;
+	}
+
+	/**
+	 * Keeps track of how full a queue is. The maximum depth is the largest seen by the consumers.
+	 */
+	public static class QueueGauge {
+		private final String name;
+		private final BlockingQueue<?> queue;
+		private final int capacity;
+		private final AtomicLong maxDepth = new AtomicLong();
+
+		private QueueGauge(String name, BlockingQueue<?> queue, int capacity){
+			this.name = name;
+			this.queue = queue;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Called by a consumer after taking an item, counting the item taken
+		 */
+		public void observe(){
+			long depth = Math.min(queue.size() + 1, capacity);
+			long max = maxDepth.get();
+			while(depth > max && !maxDepth.compareAndSet(max, depth))
+				max = maxDepth.get();
+		}
+	}
+
+	/**
+	 * Writes the metrics to files every few seconds until stopExport is called
+	 *
+	 * @param json				JSON file, null if not wanted
+	 * @param prometheus		Prometheus text format file, null if not wanted
+	 * @param intervalSeconds	seconds between two exports
+	 */
+	public synchronized void startExport(Path json, Path prometheus, long intervalSeconds){
+		jsonFile = json;
+		prometheusFile = prometheus;
+		exporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, "stegexpose-metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		exporter.scheduleAtFixedRate(new Runnable(){
+			public void run(){
+				export();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the periodic export and writes the final metrics
+	 */
+	public void stopExport(){
+		ScheduledExecutorService running;
+		synchronized(this){
+			running = exporter;
+			exporter = null;
+		}
+		if(running == null)
+			return;
+		running.shutdown();
+		try{
+			running.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		export();
+	}
+
+	/*
+	 * Writes the metrics to the export files
+	 */
+	private synchronized void export(){
+		if(jsonFile != null)
+			write(jsonFile, toJson());
+		if(prometheusFile != null)
+			write(prometheusFile, toPrometheus());
+	}
+
+	/*
+	 * Replaces a file in one go so that readers never see half written metrics
+	 */
+	private static void write(Path file, String content){
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try{
+			Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+			try{
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e){
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch(IOException e){
+			System.err.println("could not write metrics to "+file);
+		}
+	}
+
+	private double elapsedSeconds(){
+		return Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+	}
+
+	private List<QueueGauge> queues(){
+		synchronized(queues){
+			return new ArrayList<QueueGauge>(queues);
+		}
+	}
+
+	/**
+	 * Formats the metrics as a JSON object
+	 *
+	 * @return 		JSON text
+	 */
+	public String toJson(){
+		double elapsed = elapsedSeconds();
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"elapsed_seconds\": ").append(number(elapsed)).append(",\n");
+		json.append("  \"files\": ").append(files.sum()).append(",\n");
+		json.append("  \"read_errors\": ").append(readErrors.sum()).append(",\n");
+		json.append("  \"decode_errors\": ").append(decodeErrors.sum()).append(",\n");
+		json.append("  \"cache_hits\": ").append(cacheHits.sum()).append(",\n");
+		json.append("  \"duplicates\": ").append(duplicates.sum()).append(",\n");
+		json.append("  \"bytes_read\": ").append(bytesRead.sum()).append(",\n");
+		json.append("  \"pixels\": ").append(pixels.sum()).append(",\n");
+		json.append("  \"bytes_per_second\": ").append(number(bytesRead.sum()/elapsed)).append(",\n");
+		json.append("  \"pixels_per_second\": ").append(number(pixels.sum()/elapsed)).append(",\n");
+
+		long fast = fastFiles.sum();
+		json.append("  \"fast_mode\": {\n    \"files\": ").append(fast).append(",\n    \"exits\": {");
+		for(int i=FileAnalysis.PRIMARY_SETS; i<=FileAnalysis.RS_ANALYSIS; i++){
+			long clean = fastExits[i].sum();
+			long stego = stegoExits[i].sum();
+			json.append(i == FileAnalysis.PRIMARY_SETS ? "\n" : ",\n");
+			json.append("      \"").append(FileAnalysis.STEP_NAMES[i]).append("\": {\"count\": ").append(clean + stego)
+				.append(", \"rate\": ").append(number(fast == 0 ? 0 : (double)(clean + stego)/fast))
+				.append(", \"clean\": ").append(clean).append(", \"stego\": ").append(stego).append("}");
+		}
+		json.append("\n    }\n  },\n");
+
+		json.append("  \"queues\": {");
+		List<QueueGauge> gauges = queues();
+		for(int i=0; i<gauges.size(); i++){
+			QueueGauge gauge = gauges.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    \"").append(gauge.name).append("\": {\"depth\": ").append(gauge.queue.size())
+				.append(", \"max_depth\": ").append(gauge.maxDepth.get())
+				.append(", \"capacity\": ").append(gauge.capacity).append("}");
+		}
+		json.append(gauges.isEmpty() ? "},\n" : "\n  },\n");
+
+		json.append("  \"latency_seconds\": {\n");
+		json.append("    \"read\": ").append(histogramJson(read)).append(",\n");
+		json.append("    \"decode\": ").append(histogramJson(decode)).append(",\n");
+		json.append("    \"analysis\": ").append(histogramJson(analysis));
+		for(int i=0; i<steps.length; i++)
+			json.append(",\n    \"").append(FileAnalysis.STEP_NAMES[i]).append("\": ").append(histogramJson(steps[i]));
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	private static String histogramJson(LatencyHistogram histogram){
+		long[] counts = histogram.getCounts();
+		long count = 0;
+		for(long c : counts)
+			count += c;
+		double sum = histogram.getSum();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"count\": ").append(count)
+			.append(", \"sum\": ").append(number(sum))
+			.append(", \"mean\": ").append(number(count == 0 ? 0 : sum/count))
+			.append(", \"p50\": ").append(bound(LatencyHistogram.quantile(counts, 0.5)))
+			.append(", \"p90\": ").append(bound(LatencyHistogram.quantile(counts, 0.9)))
+			.append(", \"p99\": ").append(bound(LatencyHistogram.quantile(counts, 0.99)))
+			.append(", \"buckets\": [");
+		boolean first = true;
+		for(int i=0; i<counts.length; i++){
+			if(counts[i] == 0)
+				continue;
+			json.append(first ? "" : ", ").append("{\"le\": ").append(bound(LatencyHistogram.upperBound(i)))
+				.append(", \"count\": ").append(counts[i]).append("}");
+			first = false;
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	/**
+	 * Formats the metrics in the Prometheus text exposition format
+	 *
+	 * @return 		Prometheus text
+	 */
+	public String toPrometheus(){
+		double elapsed = elapsedSeconds();
+		StringBuilder prom = new StringBuilder();
+		metric(prom, "stegexpose_elapsed_seconds", "gauge", "Time since the scan started", number(elapsed));
+		metric(prom, "stegexpose_files_total", "counter", "Files steganalysed", String.valueOf(files.sum()));
+		metric(prom, "stegexpose_read_errors_total", "counter", "Files which could not be read", String.valueOf(readErrors.sum()));
+		metric(prom, "stegexpose_decode_errors_total", "counter", "Files which could not be decoded as images", String.valueOf(decodeErrors.sum()));
+		metric(prom, "stegexpose_cache_hits_total", "counter", "Files whose result was taken from the result cache", String.valueOf(cacheHits.sum()));
+		metric(prom, "stegexpose_duplicates_total", "counter", "Files whose result was taken from a copy found earlier in the scan", String.valueOf(duplicates.sum()));
+		metric(prom, "stegexpose_bytes_read_total", "counter", "Bytes read from files", String.valueOf(bytesRead.sum()));
+		metric(prom, "stegexpose_pixels_total", "counter", "Pixels decoded", String.valueOf(pixels.sum()));
+		metric(prom, "stegexpose_bytes_per_second", "gauge", "Bytes read per second since the scan started", number(bytesRead.sum()/elapsed));
+		metric(prom, "stegexpose_pixels_per_second", "gauge", "Pixels decoded per second since the scan started", number(pixels.sum()/elapsed));
+		metric(prom, "stegexpose_fast_mode_files_total", "counter", "Files analysed in fast mode", String.valueOf(fastFiles.sum()));
+
+		header(prom, "stegexpose_fast_exits_total", "counter", "Files fast mode decided on after a detector, skipping the remaining ones");
+		for(int i=FileAnalysis.PRIMARY_SETS; i<=FileAnalysis.RS_ANALYSIS; i++){
+			prom.append("stegexpose_fast_exits_total{detector=\"").append(FileAnalysis.STEP_NAMES[i]).append("\",decision=\"clean\"} ")
+				.append(fastExits[i].sum()).append('\n');
+			prom.append("stegexpose_fast_exits_total{detector=\"").append(FileAnalysis.STEP_NAMES[i]).append("\",decision=\"stego\"} ")
+				.append(stegoExits[i].sum()).append('\n');
+		}
+
+		List<QueueGauge> gauges = queues();
+		header(prom, "stegexpose_queue_depth", "gauge", "Files waiting in a queue of the scan");
+		for(QueueGauge gauge : gauges)
+			prom.append("stegexpose_queue_depth{queue=\"").append(gauge.name).append("\"} ").append(gauge.queue.size()).append('\n');
+		header(prom, "stegexpose_queue_max_depth", "gauge", "Largest number of files seen waiting in a queue of the scan");
+		for(QueueGauge gauge : gauges)
+			prom.append("stegexpose_queue_max_depth{queue=\"").append(gauge.name).append("\"} ").append(gauge.maxDepth.get()).append('\n');
+		header(prom, "stegexpose_queue_capacity", "gauge", "Number of files a queue of the scan can hold");
+		for(QueueGauge gauge : gauges)
+			prom.append("stegexpose_queue_capacity{queue=\"").append(gauge.name).append("\"} ").append(gauge.capacity).append('\n');
+
+		header(prom, "stegexpose_stage_seconds", "histogram", "Time taken per file by a stage of the scan");
+		histogram(prom, "stegexpose_stage_seconds", "stage=\"read\"", read);
+		histogram(prom, "stegexpose_stage_seconds", "stage=\"decode\"", decode);
+		histogram(prom, "stegexpose_stage_seconds", "stage=\"analysis\"", analysis);
+		header(prom, "stegexpose_detector_seconds", "histogram", "Time taken per file by a detector");
+		for(int i=0; i<steps.length; i++)
+			histogram(prom, "stegexpose_detector_seconds", "detector=\"" + FileAnalysis.STEP_NAMES[i] + "\"", steps[i]);
+		return prom.toString();
+	}
+
+	private static void header(StringBuilder prom, String name, String type, String help){
+		prom.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		prom.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void metric(StringBuilder prom, String name, String type, String help, String value){
+		header(prom, name, type, help);
+		prom.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void histogram(StringBuilder prom, String name, String labels, LatencyHistogram histogram){
+		long[] counts = histogram.getCounts();
+		long cumulative = 0;
+		for(int i=0; i<counts.length; i++){
+			cumulative += counts[i];
+			double bound = LatencyHistogram.upperBound(i);
+			prom.append(name).append("_bucket{").append(labels).append(",le=\"")
+				.append(Double.isInfinite(bound) ? "+Inf" : number(bound)).append("\"} ").append(cumulative).append('\n');
+		}
+		prom.append(name).append("_sum{").append(labels).append("} ").append(number(histogram.getSum())).append('\n');
+		prom.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+	}
+
+	private static String number(double value){
+		return Double.toString(value);
+	}
+
+	private static String bound(double value){
+		return Double.isInfinite(value) ? "\"+Inf\"" : number(value);
+	}
+}
@@ -0,0 +1,672 @@
+package stegexpose;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/**
+ * ScanPipeline
+ *
+ * Steganalyses files in four stages linked by bounded queues: reading the file contents, decoding
+ * them into channel planes, running the detectors and reporting the results. Each stage has its own
+ * number of workers (reporting always has one) and a full queue holds back the stage feeding it, so
+ * files are read ahead while the CPUs are busy without ever holding more than a few files in memory.
+ *
+ * @version 0.1
+ */
+public class ScanPipeline {
+
+	//marks the end of the files in a queue
+	private static final ScanItem END = new ScanItem(null, null, -1);
+	//number of different files and images, the ones seen most recently, whose copies are recognised
+	private static final int MAX_COPIES = 1 << 13;
+
+	private final int readers;
+	private final int decoders;
+	private final int analysers;
+	private final int capacity;
+	private final DetectorSchedule schedule;
+	private final double threshold;
+	private final ScanMetrics metrics = new ScanMetrics();
+	//results of earlier scans (null if not used)
+	private ResultCache cache = null;
+	//journal of an earlier run of the same scan, whose files are not scanned again (null if not resuming)
+	private ScanJournal journal = null;
+	//reader of the archives found, whose files are scanned (null if archives are scanned as any other file)
+	private ArchiveReader archives = null;
+	//sequence number of the next file found, used by the thread adding the files only
+	private long sequence;
+	//queue of the files added and thread of the reporting stage, while the stages are running
+	private BlockingQueue<ScanItem> toRead;
+	private Thread reporter;
+	//writer the results of the current scan are handed to
+	private ResultWriter results;
+	//files and images seen during the scan by their contents and pixels (null if copies are analysed again)
+	private SeenCopies seenFiles = new SeenCopies();
+	private SeenCopies seenImages = new SeenCopies();
+	//images with more pixels than this are decoded and analysed a strip of about this many pixels at a time
+	private long tilePixels = 64L*1000*1000;
+
+
+	/**
+	 * Creates a new pipeline
+	 *
+	 * @param readers		number of threads reading files
+	 * @param decoders		number of threads decoding images
+	 * @param analysers		number of threads running the detectors
+	 * @param capacity		number of files each queue can hold
+	 * @param schedule		detectors to be run, their order and the speed mode
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 */
+	public ScanPipeline(int readers, int decoders, int analysers, int capacity, DetectorSchedule schedule, double threshold){
+		this.readers = readers;
+		this.decoders = decoders;
+		this.analysers = analysers;
+		this.capacity = capacity;
+		this.schedule = schedule;
+		this.threshold = threshold;
+	}
+
+	public ScanMetrics getMetrics(){
+		return metrics;
+	}
+
+	/**
+	 * Takes the results of files which have not changed since an earlier scan from a cache, and
+	 * stores the results of all other files in it
+	 *
+	 * @param cache		result cache
+	 */
+	public void setCache(ResultCache cache){
+		this.cache = cache;
+	}
+
+	/**
+	 * Leaves out the files an earlier run of the same scan has already reported. They are left out
+	 * before they are numbered, so they are neither read nor handed to the result writer.
+	 *
+	 * @param journal		journal of the earlier run
+	 */
+	public void setJournal(ScanJournal journal){
+		this.journal = journal;
+	}
+
+	/**
+	 * Scans the files inside ZIP and TAR archives instead of the archives themselves, see ArchiveReader.
+	 * Files in archives are reported as archive!/path, are always analysed as a whole and are cached by
+	 * their contents only.
+	 *
+	 * @param maxDepth			number of levels of archives within archives opened, 0 to scan archives as any other file
+	 * @param maxEntryBytes		largest file in an archive read into memory, larger files are skipped
+	 */
+	public void setArchiveDepth(int maxDepth, long maxEntryBytes){
+		archives = maxDepth > 0 ? new ArchiveReader(maxDepth, maxEntryBytes) : null;
+	}
+
+	/**
+	 * Sets whether copies of a file are recognised, byte for byte and pixel for pixel, so that the
+	 * detectors only run on one of them. All copies are still reported. On by default.
+	 *
+	 * @param deduplicate		false if every copy should be analysed
+	 */
+	public void setDeduplicate(boolean deduplicate){
+		seenFiles = deduplicate ? new SeenCopies() : null;
+		seenImages = deduplicate ? new SeenCopies() : null;
+	}
+
+	/**
+	 * Sets the size above which images are analysed in strips rather than as a whole, which bounds
+	 * the memory needed for an image. Such images are neither cached nor checked for copies.
+	 *
+	 * @param tilePixels		number of pixels
+	 */
+	public void setTilePixels(long tilePixels){
+		this.tilePixels = tilePixels;
+	}
+
+	/**
+	 * Steganalyses files and hands every result to the result writer, numbered in the order the files
+	 * were found; files without a result are skipped. Files are taken from the walker only as fast as
+	 * the pipeline can accept them. Returns once all files have been handed over, also if walking the
+	 * files fails.
+	 *
+	 * @param files		files to be steganalysed
+	 * @param results	writer the results are handed to
+	 * @throws InterruptedException 	if interrupted while waiting for the stages
+	 */
+	public void run(FileWalker files, ResultWriter results) throws InterruptedException{
+		start(results);
+		try{
+			for(Path file : files)
+				add(file, files.getName(file));
+		}
+		finally{
+			finish();
+		}
+	}
+
+	/**
+	 * Starts the stages, which steganalyse the files added from then on until finish is called. Every
+	 * result is handed to the result writer as soon as it is ready, numbered in the order the files
+	 * were added.
+	 *
+	 * @param results	writer the results are handed to
+	 */
+	public void start(ResultWriter results){
+		this.results = results;
+		toRead = new ArrayBlockingQueue<ScanItem>(capacity);
+		BlockingQueue<ScanItem> toDecode = new ArrayBlockingQueue<ScanItem>(capacity);
+		BlockingQueue<ScanItem> toAnalyse = new ArrayBlockingQueue<ScanItem>(capacity);
+		BlockingQueue<ScanItem> toReport = new ArrayBlockingQueue<ScanItem>(capacity);
+		metrics.start();
+
+		//I/O stage: file contents are read ahead of the decoders
+		start("reader", readers, toRead, metrics.addQueue("read", toRead, capacity), toDecode, decoders, new Stage(){
+			boolean process(ScanItem item){
+				long start = System.nanoTime();
+				try{
+					//a file in an archive is read from the archive, it has no size and modification time of its own
+					if(item.entry != null){
+						item.data = item.entry.read();
+						item.size = item.data.length;
+					}
+					else{
+						//an unchanged file is not read at all
+						if(cache != null){
+							BasicFileAttributes attributes = Files.readAttributes(item.file, BasicFileAttributes.class);
+							item.modified = attributes.lastModifiedTime().toMillis();
+							ResultCache.Entry cached = cache.get(item.file, attributes.size(), item.modified);
+							if(cached != null && restore(item, cached))
+								return item.analysis != null;
+						}
+						//a large image is decoded strip by strip during the analysis
+						Dimension dimension = ImageFileManager.getSize(item.file.toFile());
+						if(dimension != null && (long)dimension.width*dimension.height > tilePixels){
+							item.tiled = true;
+							item.size = Files.size(item.file);
+							return true;
+						}
+						//an uncompressed BMP file is mapped into memory and unpacked from there instead of being read onto the heap
+						item.mapped = BmpStrips.map(item.file.toFile());
+						if(item.mapped != null)
+							item.size = item.mapped.remaining();
+						else{
+							item.data = Files.readAllBytes(item.file);
+							item.size = item.data.length;
+						}
+					}
+					metrics.recordRead(item.size, System.nanoTime() - start);
+					if(cache == null && seenFiles == null)
+						return true;
+
+					//a file which has been touched, copied or moved is not decoded again
+					item.key = item.mapped != null ? ContentHash.of(item.mapped) : ContentHash.of(item.data);
+					if(cache != null){
+						ResultCache.Entry cached = cache.get(item.key);
+						if(cached != null && restore(item, cached)){
+							if(item.entry == null)
+								cache.put(item.file, item.size, item.modified, item.key);
+							else if(item.inArchive != null)
+								cache.putEntry(item.file, item.inArchive, item.size, item.modified, item.key);
+							item.data = null;
+							item.mapped = null;
+							return item.analysis != null;
+						}
+					}
+					return seenFiles == null || claim(seenFiles, item.key, item);
+				}
+				catch(IOException e){
+					metrics.recordRead(-1, System.nanoTime() - start);
+					return false;
+				}
+			}
+		});
+
+		//decode stage
+		start("decoder", decoders, toDecode, metrics.addQueue("decode", toDecode, capacity), toAnalyse, analysers, new Stage(){
+			boolean process(ScanItem item){
+				if(item.analysis != null || item.tiled)
+					return true;
+				long start = System.nanoTime();
+				if(item.mapped != null)
+					item.image = BmpStrips.decode(item.mapped);
+				else
+					item.image = ImageFileManager.loadChannelPlanes(item.data);
+				metrics.recordDecode(item.image, System.nanoTime() - start);
+				item.data = null;
+				item.mapped = null;
+				if(item.image == null){
+					if(cache != null)
+						store(item, null);
+					return false;
+				}
+				return seenImages == null || claim(seenImages, ContentHash.of(item.image), item);
+			}
+		});
+
+		//CPU stage
+		start("analyser", analysers, toAnalyse, metrics.addQueue("analyse", toAnalyse, capacity), toReport, 1, new Stage(){
+			boolean process(ScanItem item){
+				if(item.analysis != null)
+					return true;
+				long start = System.nanoTime();
+				item.analysis = new FileAnalysis(toFile(item), item.name);
+				if(item.tiled){
+					if(!analyseStrips(item))
+						return false;
+				}
+				else
+					item.analysis.run(item.image, item.size, schedule, threshold);
+				metrics.recordAnalysis(item.analysis, System.nanoTime() - start, schedule.isFast());
+				item.image = null;
+				return true;
+			}
+		});
+
+		//reporting stage
+		reporter = new Thread(new Reporter(toReport, metrics.addQueue("report", toReport, capacity)), "stegexpose-reporter");
+		reporter.setDaemon(true);
+		reporter.start();
+		sequence = 0;
+	}
+
+	/**
+	 * Adds a file to be steganalysed, or the files in it if it is an archive. Waits while the pipeline
+	 * is full. Files are added by one thread only.
+	 *
+	 * @param file		file to be steganalysed
+	 * @param name		name the file is reported under
+	 * @throws InterruptedException 	if interrupted while waiting for the pipeline
+	 */
+	public void add(final Path file, String name) throws InterruptedException{
+		if(archives == null || !ArchiveReader.isArchive(name)){
+			add(file, name, null, null, 0);
+			return;
+		}
+		try{
+			//files in the archive are cached under the path of the archive and their path in it
+			final int prefix = name.length() + 2;
+			final long modified = cache != null ? Files.getLastModifiedTime(file).toMillis() : 0;
+			archives.read(file, name, new ArchiveReader.Visitor(){
+				public void visit(ArchiveReader.Entry entry) throws InterruptedException{
+					add(file, entry.getName(), entry, entry.getName().substring(prefix), modified);
+				}
+			});
+		}
+		catch(IOException e){
+			metrics.recordRead(-1, 0);
+		}
+		//a damaged archive which trips up the reader is unreadable as well, the scan goes on
+		catch(RuntimeException e){
+			metrics.recordRead(-1, 0);
+		}
+	}
+
+	/**
+	 * Adds a file held in memory, e.g. received over a stream. It is never opened as an archive, is
+	 * always analysed as a whole and is cached by its contents only. Waits while the pipeline is full.
+	 *
+	 * @param name		name the file is reported under
+	 * @param data		contents of the file
+	 * @throws InterruptedException 	if interrupted while waiting for the pipeline
+	 */
+	public void add(String name, byte[] data) throws InterruptedException{
+		add(null, name, new ArchiveReader.Entry(name, data), null, 0);
+	}
+
+	/**
+	 * Waits until the results of all files added have been handed to the result writer, and stops
+	 * the stages
+	 *
+	 * @throws InterruptedException 	if interrupted while waiting for the stages
+	 */
+	public void finish() throws InterruptedException{
+		for(int i=0; i<readers; i++)
+			toRead.put(END);
+		reporter.join();
+	}
+
+	/*
+	 * Numbers a file and hands it to the readers, unless an earlier run of the scan has reported it
+	 */
+	private void add(Path file, String name, ArchiveReader.Entry entry, String inArchive, long modified) throws InterruptedException{
+		if(journal != null && journal.isDone(name)){
+			if(entry != null)
+				entry.release();
+			return;
+		}
+		ScanItem item = new ScanItem(file, name, sequence++);
+		item.entry = entry;
+		item.inArchive = inArchive;
+		item.modified = modified;
+		toRead.put(item);
+	}
+
+	/**
+	 * Starts the workers of a stage. The last worker to finish passes the end of the files on to
+	 * every worker of the next stage.
+	 */
+	private void start(String name, int workers, final BlockingQueue<ScanItem> in, final ScanMetrics.QueueGauge depth,
+			final BlockingQueue<ScanItem> out, final int nextWorkers, final Stage stage){
+		final AtomicInteger running = new AtomicInteger(workers);
+		for(int i=0; i<workers; i++){
+			Thread worker = new Thread(new Runnable(){
+				public void run(){
+					try{
+						while(true){
+							ScanItem item = in.take();
+							if(item == END)
+								break;
+							depth.observe();
+							boolean forward;
+							try{
+								forward = stage.process(item);
+							}
+							catch(RuntimeException e){
+								forward = false;
+							}
+							if(forward)
+								out.put(item);
+							else if(!item.waiting)
+								drop(item);
+						}
+					}
+					catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+					finally{
+						if(running.decrementAndGet() == 0)
+							for(int i=0; i<nextWorkers; i++)
+								putUninterruptibly(out, END);
+					}
+				}
+			}, "stegexpose-" + name + "-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/*
+	 * Analyses a large image a strip of rows at a time, returns false if it cannot be decoded
+	 */
+	private boolean analyseStrips(ScanItem item){
+		ImageStrips strips = null;
+		try{
+			Dimension dimension = ImageFileManager.getSize(item.file.toFile());
+			if(dimension != null)
+				strips = ImageFileManager.openStrips(item.file.toFile(), (int)Math.max(2, Math.min(tilePixels/dimension.width, Integer.MAX_VALUE - 1)));
+			if(strips == null){
+				metrics.recordDecode(null, 0);
+				return false;
+			}
+			item.analysis.run(strips, item.size, schedule, threshold);
+			metrics.recordPixels((long)strips.getWidth()*strips.getHeight());
+			return true;
+		}
+		catch(IOException e){
+			metrics.recordDecode(null, 0);
+			return false;
+		}
+		finally{
+			if(strips != null){
+				try{
+					strips.close();
+				}
+				catch(IOException e){}
+			}
+		}
+	}
+
+	/*
+	 * Takes the result of a file from the cache, returns false if the cached result cannot be used for this scan
+	 */
+	private boolean restore(ScanItem item, ResultCache.Entry cached){
+		if(cached.isImage()){
+			item.analysis = cached.restore(toFile(item), item.name, schedule, threshold);
+			if(item.analysis == null)
+				return false;
+		}
+		metrics.recordCacheHit();
+		item.cached = true;
+		return true;
+	}
+
+	/*
+	 * Looks for an earlier copy of a file or image. If the copy is still being analysed the item
+	 * leaves the pipeline (returning false) and waits for it, otherwise the result of the copy is
+	 * used. If there is no earlier copy the item is analysed and other copies will wait for it.
+	 */
+	private boolean claim(SeenCopies seen, ContentHash hash, ScanItem item){
+		Copies copies;
+		boolean first = false;
+		synchronized(seen){
+			copies = seen.get(hash);
+			if(copies == null){
+				copies = new Copies();
+				seen.put(hash, copies);
+				first = true;
+			}
+		}
+		if(first){
+			if(item.owned == null)
+				item.owned = new ArrayList<Copies>(2);
+			item.owned.add(copies);
+			return true;
+		}
+		synchronized(copies){
+			if(!copies.done){
+				copies.waiting.add(item);
+				item.waiting = true;
+				item.data = null;
+				item.mapped = null;
+				item.image = null;
+				return false;
+			}
+		}
+		copy(item, copies.result);
+		return item.analysis != null;
+	}
+
+	private static File toFile(ScanItem item){
+		return item.file == null ? null : item.file.toFile();
+	}
+
+	/*
+	 * Stores the result of an item in the cache, a file held in memory by its contents only
+	 */
+	private void store(ScanItem item, FileAnalysis analysis){
+		if(item.inArchive != null)
+			cache.putEntry(item.file, item.inArchive, item.size, item.modified, item.key, analysis);
+		else if(item.entry != null)
+			cache.put(item.key, analysis);
+		else
+			cache.put(item.file, item.size, item.modified, item.key, analysis);
+	}
+
+	/*
+	 * Skips an item without a result, together with all copies waiting for it
+	 */
+	private void drop(ScanItem item){
+		item.analysis = null;
+		release(item, new ArrayList<ScanItem>());
+		results.skip(item.sequence, item.name);
+	}
+
+	/*
+	 * Hands the result of an item to all copies waiting for it. Copies which can be reported are
+	 * added to the list, copies of a file that is not an image are skipped.
+	 */
+	private void release(ScanItem item, List<ScanItem> released){
+		if(item.owned == null)
+			return;
+		for(Copies copies : item.owned){
+			List<ScanItem> waiting;
+			synchronized(copies){
+				copies.done = true;
+				copies.result = item.analysis;
+				waiting = copies.waiting;
+				copies.waiting = null;
+			}
+			for(ScanItem copy : waiting){
+				copy(copy, item.analysis);
+				if(copy.analysis != null)
+					released.add(copy);
+				else
+					results.skip(copy.sequence, copy.name);
+				release(copy, released);
+			}
+		}
+		item.owned = null;
+	}
+
+	/*
+	 * Sets up the analysis of a copy from the analysis of the original
+	 */
+	private void copy(ScanItem item, FileAnalysis original){
+		if(original == null)
+			return;
+		FileAnalysis analysis = new FileAnalysis(toFile(item), item.name);
+		if(analysis.restore(original, item.size, schedule, threshold))
+			item.analysis = analysis;
+		metrics.recordDuplicate();
+	}
+
+	/*
+	 * Makes sure the end of the files reaches the next stage even if a worker was interrupted
+	 */
+	private static void putUninterruptibly(BlockingQueue<ScanItem> queue, ScanItem item){
+		boolean interrupted = false;
+		while(true){
+			try{
+				queue.put(item);
+				break;
+			}
+			catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Work done by a stage on a single file, returns false if the file should be dropped
+	 */
+	private static abstract class Stage {
+		abstract boolean process(ScanItem item);
+	}
+
+	/*
+	 * Hands the results, together with those of any copies waiting for them, to the result writer and
+	 * stores them in the cache
+	 */
+	private class Reporter implements Runnable {
+		private final BlockingQueue<ScanItem> in;
+		private final ScanMetrics.QueueGauge depth;
+
+		Reporter(BlockingQueue<ScanItem> in, ScanMetrics.QueueGauge depth){
+			this.in = in;
+			this.depth = depth;
+		}
+
+		public void run(){
+			try{
+				while(true){
+					ScanItem item = in.take();
+					if(item == END)
+						break;
+					depth.observe();
+					List<ScanItem> copies = new ArrayList<ScanItem>();
+					release(item, copies);
+					report(item);
+					for(ScanItem copy : copies)
+						report(copy);
+				}
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void report(ScanItem item){
+			results.submit(item.sequence, item.analysis);
+			if(cache != null && !item.cached && item.key != null)
+				store(item, item.analysis);
+		}
+	}
+
+	/*
+	 * Files or images seen during a scan, of which only the ones seen most recently are kept so that
+	 * their results do not pile up over a long scan. A copy of a file forgotten here is analysed again
+	 * (or found in the result cache); copies already waiting for it still get its result.
+	 */
+	private static class SeenCopies extends LinkedHashMap<ContentHash, Copies> {
+		SeenCopies(){
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ContentHash, Copies> eldest){
+			return size() > MAX_COPIES;
+		}
+	}
+
+	/*
+	 * Copies of a file or image: the first one is analysed, the others wait for its result
+	 */
+	private static class Copies {
+		boolean done = false;
+		//analysis of the first copy, null if it is not an image
+		FileAnalysis result;
+		List<ScanItem> waiting = new ArrayList<ScanItem>();
+	}
+
+	/*
+	 * A file on its way through the pipeline
+	 */
+	private static class ScanItem {
+		final Path file;
+		final String name;
+		//file in an archive, which is then the file above, or held in memory without a file (null if the file is on disk)
+		ArchiveReader.Entry entry;
+		//path of a file in an archive within the archive on disk (null if it is not in an archive)
+		String inArchive;
+		//position of the file in the order the files were found
+		final long sequence;
+		byte[] data;
+		//contents of a BMP file mapped into memory instead of data (null if it was read)
+		ByteBuffer mapped;
+		long size;
+		long modified;
+		ContentHash key;
+		ChannelPlanes image;
+		FileAnalysis analysis;
+		//true if the image is analysed in strips
+		boolean tiled;
+		//true if the result was taken from the cache
+		boolean cached;
+		//true if the item is waiting for the result of a copy
+		boolean waiting;
+		//copies of this item that wait for its result (null if none)
+		List<Copies> owned;
+
+		ScanItem(Path file, String name, long sequence){
+			this.file = file;
+			this.name = name;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package stegexpose;
+
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+
+/**
+ * ScanServer
+ *
+ * Keeps StegExpose running as a local HTTP service, so that the JVM is started and the detectors are
+ * compiled once instead of for every batch of files. The service has these endpoints:
+ *
+ *   POST /scan              image file contents in the request body
+ *   GET or POST /scan?path=  a file on the machine running the service
+ *   GET /health             {"status": "ok"} once the service is ready
+ *   GET /metrics            scan metrics in the Prometheus text format
+ *   GET /metrics.json       scan metrics as JSON
+ *
+ * /scan takes the optional parameters name (reported file name), fast (true or false) and threshold,
+ * and answers with the detector outputs as JSON. Images are analysed by a fixed number of threads;
+ * requests wait in a bounded queue and are turned away with 503 when it is full, before their body is
+ * read. Bodies larger than MAX_BODY are turned away with 413. Health and metrics are answered by
+ * threads of their own, so that they answer while every scan thread is busy.
+ *
+ * @version 0.1
+ */
+public class ScanServer {
+
+	//largest request body accepted, in bytes
+	public static final int MAX_BODY = 256 << 20;
+	//threads taking the requests, answering health and metrics and handing scans to the scan threads
+	private static final int DISPATCHERS = 2;
+	//size and number of runs of the image the detectors are compiled on before the service starts
+	private static final int WARM_UP_SIZE = 512;
+	private static final int WARM_UP_RUNS = 30;
+
+	private final InetSocketAddress address;
+	private final int threads;
+	private final int queueSize;
+	private final DetectorSchedule schedule;
+	private final double threshold;
+	private final long tilePixels;
+	private final ScanMetrics metrics = new ScanMetrics();
+	private HttpServer server;
+	private ThreadPoolExecutor analysers;
+	private ThreadPoolExecutor connections;
+	private ExecutorService dispatchers;
+
+
+	/**
+	 * Creates a new service, see start
+	 *
+	 * @param address		address and port to listen on
+	 * @param threads		number of images analysed at the same time
+	 * @param queueSize		number of requests waiting for an analysis thread
+	 * @param schedule		detectors to be run, their order and the speed mode unless a request says otherwise
+	 * @param threshold		threshold applied to the stegexpose indicator unless a request says otherwise
+	 * @param tilePixels	images on disk with more pixels than this are analysed a strip at a time
+	 */
+	public ScanServer(InetSocketAddress address, int threads, int queueSize, DetectorSchedule schedule, double threshold, long tilePixels){
+		this.address = address;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.schedule = schedule;
+		this.threshold = threshold;
+		this.tilePixels = tilePixels;
+	}
+
+	/**
+	 * Compiles the detectors and starts listening
+	 *
+	 * @throws IOException 	if the address cannot be listened on
+	 */
+	public void start() throws IOException{
+		warmUp();
+		metrics.start();
+		final ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		final ScanMetrics.QueueGauge depth = metrics.addQueue("requests", queue, queueSize);
+		analysers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, queue, daemons("stegexpose-analyser")){
+			protected void beforeExecute(Thread thread, Runnable task){
+				depth.observe();
+			}
+		};
+		//one scan thread per analysis thread and queued request, so that a request is turned away
+		//before its body is read rather than once it has been read, and analysers never rejects
+		connections = new ThreadPoolExecutor(threads + queueSize, threads + queueSize, 0, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), daemons("stegexpose-scan"));
+		//the dispatchers only answer at once or hand the exchange over, so their queue stays short
+		dispatchers = Executors.newFixedThreadPool(DISPATCHERS, daemons("stegexpose-http"));
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(dispatchers);
+		server.createContext("/scan", new HttpHandler(){
+			public void handle(final HttpExchange exchange) throws IOException{
+				try{
+					connections.execute(new Runnable(){
+						public void run(){
+							try{
+								scan(exchange);
+							}
+							catch(IOException e){
+								exchange.close();
+							}
+						}
+					});
+				}
+				catch(RejectedExecutionException e){
+					error(exchange, 503, "too many requests waiting");
+				}
+			}
+		});
+		server.createContext("/health", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				respond(exchange, 200, "application/json", "{\"status\": \"ok\"}\n");
+			}
+		});
+		server.createContext("/metrics", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				if(exchange.getRequestURI().getPath().equals("/metrics.json"))
+					respond(exchange, 200, "application/json", metrics.toJson());
+				else
+					respond(exchange, 200, "text/plain; version=0.0.4", metrics.toPrometheus());
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Stops listening, letting the requests being answered finish for up to a few seconds
+	 */
+	public void stop(){
+		server.stop(5);
+		analysers.shutdown();
+		connections.shutdown();
+		dispatchers.shutdown();
+	}
+
+	public InetSocketAddress getAddress(){
+		return server.getAddress();
+	}
+
+	/*
+	 * Runs the detectors a few times on a noise image, so that the first requests are not slowed
+	 * down by the JIT compiler
+	 */
+	private void warmUp(){
+		ChannelPlanes image = new ChannelPlanes(WARM_UP_SIZE, WARM_UP_SIZE);
+		Random random = new Random(0);
+		random.nextBytes(image.getRed());
+		random.nextBytes(image.getGreen());
+		random.nextBytes(image.getBlue());
+		for(int i=0; i<WARM_UP_RUNS; i++)
+			new FileAnalysis(new File("warm-up"), "warm-up").run(image, 3L*WARM_UP_SIZE*WARM_UP_SIZE, false, threshold);
+	}
+
+	/*
+	 * Handles /scan
+	 */
+	private void scan(HttpExchange exchange) throws IOException{
+		try{
+			String method = exchange.getRequestMethod();
+			if(!method.equals("POST") && !method.equals("GET")){
+				error(exchange, 405, "use GET or POST");
+				return;
+			}
+			Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+			final DetectorSchedule schedule = parameters.containsKey("fast") ? this.schedule.withFast(Boolean.parseBoolean(parameters.get("fast"))) : this.schedule;
+			double threshold = this.threshold;
+			if(parameters.containsKey("threshold")){
+				try{
+					threshold = Double.parseDouble(parameters.get("threshold"));
+				}
+				catch(NumberFormatException e){
+					error(exchange, 400, "threshold is not a number");
+					return;
+				}
+			}
+			final double scanThreshold = threshold;
+
+			Callable<FileAnalysis> analysis;
+			if(parameters.containsKey("path")){
+				final Path path = Paths.get(parameters.get("path"));
+				if(!Files.isRegularFile(path)){
+					error(exchange, 404, "no such file");
+					return;
+				}
+				final String name = parameters.containsKey("name") ? parameters.get("name") : path.toString();
+				analysis = new Callable<FileAnalysis>(){
+					public FileAnalysis call() throws IOException{
+						return analyse(path, name, schedule, scanThreshold);
+					}
+				};
+			}
+			else{
+				if(!method.equals("POST")){
+					error(exchange, 400, "post an image or give a path");
+					return;
+				}
+				String length = exchange.getRequestHeaders().getFirst("Content-Length");
+				try{
+					if(length != null && Long.parseLong(length.trim()) > MAX_BODY){
+						error(exchange, 413, "request body larger than " + MAX_BODY + " bytes");
+						return;
+					}
+				}
+				catch(NumberFormatException e){
+					error(exchange, 400, "Content-Length is not a number");
+					return;
+				}
+				long start = System.nanoTime();
+				final byte[] data = readBody(exchange.getRequestBody());
+				if(data == null){
+					error(exchange, 413, "request body larger than " + MAX_BODY + " bytes");
+					return;
+				}
+				metrics.recordRead(data.length, System.nanoTime() - start);
+				final String name = parameters.containsKey("name") ? parameters.get("name") : "upload";
+				analysis = new Callable<FileAnalysis>(){
+					public FileAnalysis call(){
+						return analyse(data, name, schedule, scanThreshold);
+					}
+				};
+			}
+
+			Future<FileAnalysis> result;
+			try{
+				result = analysers.submit(analysis);
+			}
+			catch(RejectedExecutionException e){
+				error(exchange, 503, "too many requests waiting");
+				return;
+			}
+			FileAnalysis done = result.get();
+			if(done == null)
+				error(exchange, 422, "not an image that could be decoded");
+			else
+				respond(exchange, 200, "application/json", ResultWriter.toJson(done, done.isStego(scanThreshold)) + "\n");
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			error(exchange, 503, "shutting down");
+		}
+		catch(ExecutionException e){
+			error(exchange, 500, String.valueOf(e.getCause()));
+		}
+		catch(RuntimeException e){
+			error(exchange, 500, String.valueOf(e));
+		}
+	}
+
+	/*
+	 * Analyses an uploaded file, returns null if it is not an image
+	 */
+	private FileAnalysis analyse(byte[] data, String name, DetectorSchedule schedule, double threshold){
+		long start = System.nanoTime();
+		ChannelPlanes image = ImageFileManager.loadChannelPlanes(data);
+		metrics.recordDecode(image, System.nanoTime() - start);
+		if(image == null)
+			return null;
+		start = System.nanoTime();
+		FileAnalysis analysis = new FileAnalysis(new File(name), name);
+		analysis.run(image, data.length, schedule, threshold);
+		metrics.recordAnalysis(analysis, System.nanoTime() - start, schedule.isFast());
+		return analysis;
+	}
+
+	/*
+	 * Analyses a file on disk, a strip at a time if it is large, returns null if it is not an image
+	 */
+	private FileAnalysis analyse(Path path, String name, DetectorSchedule schedule, double threshold) throws IOException{
+		File file = path.toFile();
+		Dimension dimension = ImageFileManager.getSize(file);
+		if(dimension != null && (long)dimension.width*dimension.height > tilePixels){
+			ImageStrips strips = ImageFileManager.openStrips(file, (int)Math.max(2, Math.min(tilePixels/dimension.width, Integer.MAX_VALUE - 1)));
+			if(strips == null)
+				return null;
+			try{
+				long start = System.nanoTime();
+				FileAnalysis analysis = new FileAnalysis(file, name);
+				analysis.run(strips, Files.size(path), schedule, threshold);
+				metrics.recordPixels((long)dimension.width*dimension.height);
+				metrics.recordAnalysis(analysis, System.nanoTime() - start, schedule.isFast());
+				return analysis;
+			}
+			finally{
+				strips.close();
+			}
+		}
+		long start = System.nanoTime();
+		byte[] data = Files.readAllBytes(path);
+		metrics.recordRead(data.length, System.nanoTime() - start);
+		return analyse(data, name, schedule, threshold);
+	}
+
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException{
+		Map<String, String> parameters = new HashMap<String, String>();
+		if(query == null)
+			return parameters;
+		for(String parameter : query.split("&")){
+			int eq = parameter.indexOf('=');
+			if(eq < 0)
+				parameters.put(URLDecoder.decode(parameter, "UTF-8"), "true");
+			else
+				parameters.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"), URLDecoder.decode(parameter.substring(eq+1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	/*
+	 * Reads a request body, returns null once it is larger than MAX_BODY, e.g. a chunked body without
+	 * a Content-Length
+	 */
+	private static byte[] readBody(InputStream in) throws IOException{
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 16);
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while((n = in.read(buffer)) > 0){
+			if(body.size() > MAX_BODY - n)
+				return null;
+			body.write(buffer, 0, n);
+		}
+		return body.toByteArray();
+	}
+
+	private static void error(HttpExchange exchange, int status, String message) throws IOException{
+		respond(exchange, status, "application/json", "{\"error\": " + ResultWriter.quote(message) + "}\n");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try{
+			out.write(bytes);
+		}
+		finally{
+			out.close();
+			exchange.close();
+		}
+	}
+
+	private static ThreadFactory daemons(final String name){
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,153 @@
+package stegexpose;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
+
+
+/**
+ * StdinInput
+ *
+ * Feeds a scan from a stream, normally stdin, so that StegExpose can be put at the end of a pipe, e.g.
+ * find -print0 | java -jar StegExpose.jar - --stdin-format nul. The stream is in one of these formats:
+ * - LINES, paths of files one per line
+ * - NUL, paths of files each ended by a NUL character, as written by find -print0
+ * - FRAMES, the files themselves, each a frame of a 4 byte big-endian length of its name, the name in
+ *   UTF-8, a 4 byte big-endian length of the file and the file contents. The files are decoded from
+ *   memory and never written to disk; a file without a name is reported as frame-n, counting from 1.
+ *   The lengths in a frame are not trusted: a frame larger than the maximum frame size fails the
+ *   stream, and a frame is read into a buffer which grows with the bytes actually read.
+ *
+ * Every file is handed to the pipeline as soon as it has been read from the stream, so results come
+ * out while the stream is still being written; the stream is read only as fast as the pipeline takes
+ * the files.
+ *
+ * @version 0.1
+ */
+public class StdinInput {
+
+	//formats of the stream
+	public static final int LINES = 0;
+	public static final int NUL = 1;
+	public static final int FRAMES = 2;
+	//longest name of a frame
+	private static final int MAX_NAME_BYTES = 1 << 16;
+
+	private final InputStream in;
+	private final int format;
+	private final long maxFrameBytes;
+	//number of files read from the stream
+	private long files = 0;
+
+
+	/**
+	 * Creates an input reading a stream
+	 *
+	 * @param in				stream to be read, e.g. System.in
+	 * @param format			LINES, NUL or FRAMES
+	 * @param maxFrameBytes		largest file in a frame read into memory
+	 */
+	public StdinInput(InputStream in, int format, long maxFrameBytes){
+		this.in = new BufferedInputStream(in, 1 << 16);
+		this.format = format;
+		this.maxFrameBytes = Math.min(maxFrameBytes, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Reads the name of a format
+	 *
+	 * @param name		lines, nul or frames
+	 * @return 			LINES, NUL or FRAMES
+	 * @throws IllegalArgumentException 	if the name is not a format
+	 */
+	public static int parseFormat(String name){
+		if(name.equals("lines"))
+			return LINES;
+		if(name.equals("nul"))
+			return NUL;
+		if(name.equals("frames"))
+			return FRAMES;
+		throw new IllegalArgumentException("unknown stdin format " + name + ", use lines, nul or frames");
+	}
+
+	/**
+	 * Hands every file in the stream to a running pipeline, until the end of the stream
+	 *
+	 * @param pipeline		started pipeline
+	 * @return 				number of files read from the stream
+	 * @throws IOException 	if the stream cannot be read or a frame is cut short or too large; the files read until then have been handed over
+	 * @throws InterruptedException 	if interrupted while waiting for the pipeline
+	 */
+	public long feed(ScanPipeline pipeline) throws IOException, InterruptedException{
+		if(format == FRAMES)
+			feedFrames(pipeline);
+		else
+			feedPaths(pipeline, format == NUL ? 0 : '\n');
+		return files;
+	}
+
+	private void feedPaths(ScanPipeline pipeline, int end) throws IOException, InterruptedException{
+		ByteArrayOutputStream path = new ByteArrayOutputStream(256);
+		while(true){
+			int b = in.read();
+			if(b >= 0 && b != end){
+				path.write(b);
+				continue;
+			}
+			String name = new String(path.toByteArray(), StandardCharsets.UTF_8);
+			path.reset();
+			if(end == '\n' && name.endsWith("\r"))
+				name = name.substring(0, name.length() - 1);
+			if(!name.isEmpty()){
+				files++;
+				//a path which cannot be a path on this system is left out, as a file which cannot be read is
+				try{
+					pipeline.add(Paths.get(name), name);
+				}
+				catch(InvalidPathException e){}
+			}
+			if(b < 0)
+				return;
+		}
+	}
+
+	private void feedFrames(ScanPipeline pipeline) throws IOException, InterruptedException{
+		DataInputStream frames = new DataInputStream(in);
+		while(true){
+			int nameLength;
+			try{
+				nameLength = frames.readInt();
+			}
+			catch(EOFException e){
+				return;
+			}
+			try{
+				byte[] name = ArchiveReader.readFully(frames, length(nameLength, MAX_NAME_BYTES, "name"), MAX_NAME_BYTES);
+				byte[] data = ArchiveReader.readFully(frames, length(frames.readInt(), maxFrameBytes, "file"), maxFrameBytes);
+				files++;
+				pipeline.add(name.length == 0 ? "frame-" + files : new String(name, StandardCharsets.UTF_8), data);
+			}
+			catch(EOFException e){
+				throw new IOException("frame " + (files + 1) + " cut short");
+			}
+		}
+	}
+
+	/*
+	 * Checks a length read from a frame before anything is read or allocated for it
+	 */
+	private int length(int length, long max, String part) throws IOException{
+		if(length < 0)
+			throw new IOException("frame " + (files + 1) + " has a negative length");
+		if(length > max)
+			throw new IOException("frame " + (files + 1) + " has a " + part + " of " + length + " bytes, more than " + max);
+		return length;
+	}
+}
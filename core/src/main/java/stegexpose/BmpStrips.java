@@ -0,0 +1,260 @@
+package stegexpose;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+
+/**
+ * BmpStrips
+ *
+ * Reads uncompressed 24 and 32 bit BMP files straight from a buffer, usually the file mapped into
+ * memory, without going through BufferedImage. The BGR rows are stored bottom-up (or top-down) with
+ * their padding as they are on disk, and each one is unpacked from the buffer into the channel planes
+ * of the strip being filled, so neither the file nor a decoded copy of it is held on the heap.
+ *
+ * Only files with a plain colour space and the usual BGR layout are read, and the values are exactly
+ * those ImageIO gives; every other BMP is left to ImageIO.
+ *
+ * @version 0.1
+ */
+public class BmpStrips implements ImageStrips {
+
+	//sizes of the info headers read (BITMAPINFOHEADER, the two Adobe variants, BITMAPV4HEADER and BITMAPV5HEADER)
+	private static final int[] HEADER_SIZES = {40, 52, 56, 108, 124};
+	private static final int FILE_HEADER = 14;
+	private static final int BI_RGB = 0;
+	private static final int BI_BITFIELDS = 3;
+	//colour spaces of V4 and V5 headers read, all others may be converted by ImageIO
+	private static final int LCS_SRGB = 0x73524742;
+	private static final int LCS_WINDOWS_COLOR_SPACE = 0x57696e20;
+	//rows decoded at a time when the caller does not need more
+	private static final int STRIP_ROWS = 64;
+
+	private final ByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final boolean bottomUp;
+	private final int bytesPerPixel;
+	//offset of the first row in the file and bytes per row including the padding
+	private final int offset;
+	private final int stride;
+	private final int rows;
+
+	private byte[] row;
+	private ChannelPlanes strip;
+	private int nextRow = 0;
+
+
+	/**
+	 * Checks the header of a BMP file held in a buffer
+	 *
+	 * @param buffer		contents of the file, from its position to its limit
+	 * @param rows			largest number of rows in a strip, rounded up to an even number
+	 * @throws IOException 	if it is not a BMP file this class reads
+	 */
+	private BmpStrips(ByteBuffer buffer, int rows) throws IOException{
+		this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer header = this.buffer;
+		if(header.limit() < FILE_HEADER + 40 || header.get(0) != 'B' || header.get(1) != 'M')
+			throw new IOException("not a BMP file");
+		long dataOffset = header.getInt(10) & 0xffffffffL;
+		int headerSize = header.getInt(FILE_HEADER);
+		boolean known = false;
+		for(int size : HEADER_SIZES)
+			known |= headerSize == size;
+		if(!known || header.limit() < FILE_HEADER + headerSize)
+			throw new IOException("unsupported BMP header");
+		width = header.getInt(FILE_HEADER + 4);
+		int signedHeight = header.getInt(FILE_HEADER + 8);
+		int planes = header.getShort(FILE_HEADER + 12);
+		int bitCount = header.getShort(FILE_HEADER + 14);
+		int compression = header.getInt(FILE_HEADER + 16);
+		if(width <= 0 || signedHeight == 0 || signedHeight == Integer.MIN_VALUE || planes != 1)
+			throw new IOException("unsupported BMP");
+		bottomUp = signedHeight > 0;
+		height = Math.abs(signedHeight);
+		if(bitCount == 24 && compression == BI_RGB)
+			bytesPerPixel = 3;
+		else if(bitCount == 32 && (compression == BI_RGB || compression == BI_BITFIELDS))
+			bytesPerPixel = 4;
+		else
+			throw new IOException("unsupported BMP pixel format");
+
+		//colour masks follow a BITMAPINFOHEADER and are part of the larger headers
+		if(compression == BI_BITFIELDS){
+			if(header.limit() < FILE_HEADER + Math.max(headerSize, 52))
+				throw new IOException("no colour masks");
+			int base = FILE_HEADER + 40;
+			if(header.getInt(base) != 0xff0000 || header.getInt(base + 4) != 0xff00 || header.getInt(base + 8) != 0xff)
+				throw new IOException("unusual colour masks");
+			if(headerSize >= 56 && header.getInt(base + 12) != 0 && header.getInt(base + 12) != 0xff000000)
+				throw new IOException("unusual alpha mask");
+		}
+		if(headerSize >= 108){
+			int colourSpace = header.getInt(FILE_HEADER + 56);
+			if(colourSpace != LCS_SRGB && colourSpace != LCS_WINDOWS_COLOR_SPACE)
+				throw new IOException("BMP colour space left to ImageIO");
+		}
+
+		long rowBytes = ((long)width*bitCount + 31)/32*4;
+		if(rowBytes > Integer.MAX_VALUE || dataOffset + rowBytes*height > header.limit())
+			throw new IOException("BMP file too short");
+		stride = (int)rowBytes;
+		offset = (int)dataOffset;
+		this.rows = Math.max(2, Math.min(rows + rows % 2, STRIP_ROWS));
+	}
+
+	/**
+	 * Opens a BMP file held in a buffer, such as a mapped file or the contents of a file in memory
+	 *
+	 * @param buffer	contents of the file, from its position to its limit
+	 * @param rows		largest number of rows in a strip, rounded up to an even number
+	 * @return 			strips of the image, null if it is not a BMP this class reads
+	 */
+	public static BmpStrips open(ByteBuffer buffer, int rows){
+		try{
+			return new BmpStrips(buffer, rows);
+		}
+		catch(IOException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Maps a BMP file into memory and opens it
+	 *
+	 * @param file		the file
+	 * @param rows		largest number of rows in a strip, rounded up to an even number
+	 * @return 			strips of the image, null if it is not a BMP this class reads
+	 */
+	public static BmpStrips open(File file, int rows){
+		ByteBuffer mapped = map(file);
+		return mapped == null ? null : open(mapped, rows);
+	}
+
+	/**
+	 * Maps a file into memory if it is a BMP file this class reads. The mapping is released once the
+	 * buffer is no longer referenced.
+	 *
+	 * @param file		the file
+	 * @return 			the contents of the file, null if it is not a BMP this class reads
+	 */
+	public static ByteBuffer map(File file){
+		try{
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try{
+				//a quick look at the signature, so other files are not mapped
+				if(in.length() < FILE_HEADER + 40 || in.length() > Integer.MAX_VALUE || in.read() != 'B' || in.read() != 'M')
+					return null;
+				ByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+				return open(mapped, 2) == null ? null : mapped;
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Unpacks a BMP file held in a buffer into channel planes
+	 *
+	 * @param buffer	contents of the file, from its position to its limit
+	 * @return 			channel planes of the image, null if it is not a BMP this class reads
+	 */
+	public static ChannelPlanes decode(ByteBuffer buffer){
+		BmpStrips strips = open(buffer, STRIP_ROWS);
+		if(strips == null || (long)strips.width*strips.height > Integer.MAX_VALUE)
+			return null;
+		ChannelPlanes image = new ChannelPlanes(strips.width, strips.height);
+		strips.fill(image, strips.height);
+		return image;
+	}
+
+	/**
+	 * Unpacks a BMP file held in memory into channel planes
+	 *
+	 * @param data		contents of the file
+	 * @return 			channel planes of the image, null if it is not a BMP this class reads
+	 */
+	public static ChannelPlanes decode(byte[] data){
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Maps a BMP file into memory and unpacks it into channel planes
+	 *
+	 * @param file		the file
+	 * @return 			channel planes of the image, null if it is not a BMP this class reads
+	 */
+	public static ChannelPlanes decode(File file){
+		ByteBuffer mapped = map(file);
+		return mapped == null ? null : decode(mapped);
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Unpacks the rows following the previous strip. The planes returned are reused for the next
+	 * strip of the same height, so they must not be kept.
+	 *
+	 * @return 		channel planes of the rows, null once all rows have been delivered
+	 */
+	public ChannelPlanes next(){
+		if(nextRow >= height)
+			return null;
+		int stripRows = Math.min(rows, height - nextRow);
+		if(strip == null || strip.getHeight() != stripRows)
+			strip = new ChannelPlanes(width, stripRows);
+		fill(strip, stripRows);
+		return strip;
+	}
+
+	public void rewind(){
+		nextRow = 0;
+	}
+
+	public void close(){
+		row = null;
+		strip = null;
+	}
+
+	/*
+	 * Unpacks the next rows into the first rows of the planes
+	 */
+	private void fill(ChannelPlanes planes, int count){
+		byte[] red = planes.getRed();
+		byte[] green = planes.getGreen();
+		byte[] blue = planes.getBlue();
+		int rowBytes = width*bytesPerPixel;
+		if(row == null)
+			row = new byte[rowBytes];
+		ByteBuffer rows = buffer.duplicate();
+		int p = 0;
+		for(int y=0; y<count; y++){
+			int fileRow = bottomUp ? height - 1 - nextRow : nextRow;
+			rows.position(offset + fileRow*stride);
+			rows.get(row, 0, rowBytes);
+			for(int i=0; i<rowBytes; i+=bytesPerPixel){
+				blue[p] = row[i];
+				green[p] = row[i+1];
+				red[p] = row[i+2];
+				p++;
+			}
+			nextRow++;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package stegexpose;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+
+
+/**
+ * ChannelPlanes
+ *
+ * The red, green and blue channels of an image, each stored as one contiguous byte array in
+ * row-major order (the value of pixel (x,y) is at index y*width+x). An image is unpacked into
+ * planes once and the planes are then shared by all detectors.
+ *
+ * @version 0.1
+ */
+public class ChannelPlanes {
+
+	//number of rows converted at once when going through BufferedImage.getRGB
+	private static final int STRIP_ROWS = 16;
+
+	private final int width;
+	private final int height;
+	private final byte[] red;
+	private final byte[] green;
+	private final byte[] blue;
+
+
+	/**
+	 * Creates empty planes for an image of the given size
+	 *
+	 * @param width		width of the image
+	 * @param height	height of the image
+	 */
+	public ChannelPlanes(int width, int height){
+		this.width = width;
+		this.height = height;
+		int size = width*height;
+		red = new byte[size];
+		green = new byte[size];
+		blue = new byte[size];
+	}
+
+	/**
+	 * Unpacks an image into channel planes. Rasters holding 8 bit sRGB samples are copied directly,
+	 * every other image type goes through BufferedImage.getRGB a strip of rows at a time so the
+	 * values are exactly the ones getRGB(x,y) would return.
+	 *
+	 * @param image		image to be unpacked
+	 * @return 			channel planes of the image
+	 */
+	public static ChannelPlanes fromImage(BufferedImage image){
+		ChannelPlanes planes = new ChannelPlanes(image.getWidth(), image.getHeight());
+		if(!planes.copyComponentRaster(image) && !planes.copyPackedRaster(image))
+			planes.copyRGB(image);
+		return planes;
+	}
+
+	/**
+	 * Copies images with one byte per sample (e.g. TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR)
+	 *
+	 * @param image		image to be copied
+	 * @return 			false if the image is not stored in a way this method can copy
+	 */
+	private boolean copyComponentRaster(BufferedImage image){
+		if(!(image.getColorModel() instanceof ComponentColorModel))
+			return false;
+		ComponentColorModel cm = (ComponentColorModel) image.getColorModel();
+		Raster raster = image.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		if(!cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied() || cm.getNumColorComponents() != 3
+				|| !(sm instanceof ComponentSampleModel) || !(raster.getDataBuffer() instanceof DataBufferByte)
+				|| raster.getDataBuffer().getNumBanks() != 1)
+			return false;
+		for(int size : cm.getComponentSize())
+			if(size != 8)
+				return false;
+
+		ComponentSampleModel csm = (ComponentSampleModel) sm;
+		DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+		byte[] data = db.getData();
+		int[] bandOffsets = csm.getBandOffsets();
+		int pixelStride = csm.getPixelStride();
+		int scanlineStride = csm.getScanlineStride();
+		int base = db.getOffset() - raster.getSampleModelTranslateY()*scanlineStride
+				- raster.getSampleModelTranslateX()*pixelStride;
+		int r = bandOffsets[0], g = bandOffsets[1], b = bandOffsets[2];
+
+		int p = 0;
+		for(int y=0; y<height; y++){
+			int s = base + y*scanlineStride;
+			for(int x=0; x<width; x++){
+				red[p] = data[s+r];
+				green[p] = data[s+g];
+				blue[p] = data[s+b];
+				s += pixelStride;
+				p++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies images with one int per pixel (e.g. TYPE_INT_RGB, TYPE_INT_ARGB)
+	 *
+	 * @param image		image to be copied
+	 * @return 			false if the image is not stored in a way this method can copy
+	 */
+	private boolean copyPackedRaster(BufferedImage image){
+		if(!(image.getColorModel() instanceof DirectColorModel))
+			return false;
+		DirectColorModel cm = (DirectColorModel) image.getColorModel();
+		Raster raster = image.getRaster();
+		if(!cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied() || cm.getRedMask() != 0xff0000
+				|| cm.getGreenMask() != 0xff00 || cm.getBlueMask() != 0xff
+				|| !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+				|| raster.getDataBuffer().getDataType() != DataBuffer.TYPE_INT
+				|| raster.getDataBuffer().getNumBanks() != 1)
+			return false;
+
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+		int[] data = db.getData();
+		int scanlineStride = sm.getScanlineStride();
+		int base = db.getOffset() - raster.getSampleModelTranslateY()*scanlineStride
+				- raster.getSampleModelTranslateX();
+
+		int p = 0;
+		for(int y=0; y<height; y++){
+			int s = base + y*scanlineStride;
+			for(int x=0; x<width; x++){
+				int pixel = data[s+x];
+				red[p] = (byte) (pixel >> 16);
+				green[p] = (byte) (pixel >> 8);
+				blue[p] = (byte) pixel;
+				p++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies any image through BufferedImage.getRGB
+	 *
+	 * @param image		image to be copied
+	 */
+	private void copyRGB(BufferedImage image){
+		int[] strip = new int[width*Math.min(STRIP_ROWS, height)];
+		int p = 0;
+		for(int y=0; y<height; y+=STRIP_ROWS){
+			int rows = Math.min(STRIP_ROWS, height-y);
+			image.getRGB(0, y, width, rows, strip, 0, width);
+			for(int i=0; i<rows*width; i++){
+				int pixel = strip[i];
+				red[p] = (byte) (pixel >> 16);
+				green[p] = (byte) (pixel >> 8);
+				blue[p] = (byte) pixel;
+				p++;
+			}
+		}
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public byte[] getRed(){
+		return red;
+	}
+
+	public byte[] getGreen(){
+		return green;
+	}
+
+	public byte[] getBlue(){
+		return blue;
+	}
+
+	/**
+	 * Gets the plane of a colour
+	 *
+	 * @param colour	colour code as used by the detectors (0 red, 1 green, 2 blue)
+	 * @return 			plane of the colour, null for an unknown colour code
+	 */
+	public byte[] getChannel(int colour){
+		if(colour == RSAnalysis.ANALYSIS_COLOUR_RED)
+			return red;
+		else if(colour == RSAnalysis.ANALYSIS_COLOUR_GREEN)
+			return green;
+		else if(colour == RSAnalysis.ANALYSIS_COLOUR_BLUE)
+			return blue;
+		return null;
+	}
+}
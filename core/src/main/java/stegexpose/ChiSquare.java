@@ -0,0 +1,248 @@
+/*
+ * The famous Chi-Square attack on PoV, described in :
+ * Attacks on Steganographic Systems
+ * Andreas Westfeld and Andreas Pfitzmann
+ * 
+ * Only works for sequential embedding 
+ * 
+ * More info :
+ * http://www.guillermito2.net/stegano/tools/index.html
+ * http://cuneytcaliskan.blogspot.fr/2011/12/steganalysis-chi-square-attack-lsb.html
+ * 
+ * source: http://code.google.com/p/simple-steganalysis-suite/
+ * author: Bastien Faure
+ */
+
+package stegexpose;
+
+
+
+/**
+ * Chi-square attack on the red, green and blue bytes of an image, read in one of four directions.
+ * The bytes are split into blocks of the given size and chi[k] receives the p-value of the histogram
+ * of all bytes up to the end of block k.
+ */
+public class ChiSquare {
+	
+	public static void chiSquareAttackTopToBottom(ChannelPlanes image, double[] x, double[] chi, int size)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Attack attack = new Attack(image, x, chi, size);
+
+		for(int j=0; j<height; j++)
+		{
+			for(int i=0; i<width; i++)
+			{
+				if(!attack.addPixel(j*width+i))
+					return;
+			}
+		}
+	}
+	
+	public static void chiSquareAttackLeftToRight(ChannelPlanes image, double[] x, double[] chi, int size)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Attack attack = new Attack(image, x, chi, size);
+
+		for(int i=0; i<width; i++)
+		{
+			for(int j=0; j<height; j++)
+			{
+				if(!attack.addPixel(j*width+i))
+					return;
+			}
+		}
+	}
+	
+	public static void chiSquareAttackBottomToTop(ChannelPlanes image, double[] x, double[] chi, int size)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Attack attack = new Attack(image, x, chi, size);
+
+		for(int j=height-1; j>=0; j--)
+		{
+			for(int i=width-1; i>=0; i--)
+			{
+				if(!attack.addPixel(j*width+i))
+					return;
+			}
+		}
+	}
+	
+	public static void chiSquareAttackRightToLeft(ChannelPlanes image, double[] x, double[] chi, int size)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Attack attack = new Attack(image, x, chi, size);
+
+		for(int i=width-1; i>=0; i--)
+		{
+			for(int j=0; j<height; j++)
+			{
+				if(!attack.addPixel(j*width+i))
+					return;
+			}
+		}
+	}
+	
+	/**
+	 * The chi-square attack reading the bytes top to bottom as a detector for DetectorEngine. Its
+	 * output is the average p-value of all blocks but the last, incomplete one. It fails for images
+	 * of fewer than 256 blocks, as chiSquareAttackTopToBottom does.
+	 * 
+	 * @param size		block size in bytes
+	 * @return 			the detector
+	 */
+	public static Detector detector(final int size)
+	{
+		final Detector.AccumulatorType type = new Detector.AccumulatorType()
+		{
+			public Detector.Accumulator newAccumulator(int width, int height)
+			{
+				long blocks = 3L*width*height/size - 1;
+				//too few blocks, nothing is read
+				return new StripAttack(size, blocks < 256 ? 0 : blocks);
+			}
+		};
+		return new Detector()
+		{
+			public String getName()
+			{
+				return "chi_square";
+			}
+			
+			public Detector.AccumulatorType getAccumulatorType()
+			{
+				return type;
+			}
+			
+			public double getResult(Detector.Accumulator counts)
+			{
+				StripAttack attack = (StripAttack)counts;
+				if(attack.blocks == 0)
+					throw new IllegalArgumentException("Chi square needs at least 256 blocks");
+				return attack.getSum()/attack.blocks;
+			}
+		};
+	}
+	
+	/**
+	 * Chi-square attack reading the bytes top to bottom from strips of rows, so that the image does
+	 * not have to be held in memory as a whole. Only the sum of the p-values is kept, which is all
+	 * StegExpose needs; it equals the sum of chi after chiSquareAttackTopToBottom with as many blocks.
+	 */
+	public static class StripAttack implements Detector.Accumulator
+	{
+		private final ChiSquareEngine engine;
+		private final long blocks;
+		private long block = 0;
+		private double sum = 0;
+		
+		/**
+		 * @param size		block size in bytes
+		 * @param blocks	number of blocks whose p-values are added up
+		 */
+		public StripAttack(int size, long blocks)
+		{
+			engine = new ChiSquareEngine(size);
+			this.blocks = blocks;
+		}
+		
+		/**
+		 * Feeds the next strip of rows into the attack
+		 * 
+		 * @param strip		rows following the rows added so far
+		 */
+		public void add(ChannelPlanes strip)
+		{
+			add(strip, 0, 0, strip.getHeight());
+		}
+		
+		/**
+		 * Feeds the next band of rows into the attack
+		 * 
+		 * @param planes		channel planes holding the rows
+		 * @param firstRow		row of the image the first row of the planes is
+		 * @param fromRow		first row of the image to be added
+		 * @param toRow			row of the image after the last row to be added
+		 */
+		public void add(ChannelPlanes planes, int firstRow, int fromRow, int toRow)
+		{
+			byte[] red = planes.getRed();
+			byte[] green = planes.getGreen();
+			byte[] blue = planes.getBlue();
+			int width = planes.getWidth();
+			int end = (toRow - firstRow)*width;
+			for(int p=(fromRow - firstRow)*width; p<end && block<blocks; p++)
+			{
+				addByte(red[p] & 0xff);
+				addByte(green[p] & 0xff);
+				addByte(blue[p] & 0xff);
+			}
+		}
+		
+		private void addByte(int value)
+		{
+			if(block >= blocks)
+				return;
+			if(engine.add(value))
+			{
+				sum += engine.pValue();
+				block++;
+			}
+		}
+		
+		public double getSum()
+		{
+			return sum;
+		}
+	}
+	
+	/*
+	 * State of one attack: feeds the red, green and blue byte of each pixel into
+	 * a chi-square engine and stores the p-value whenever a block is complete.
+	 */
+	private static class Attack
+	{
+		private final byte[] red, green, blue;
+		private final double[] chi;
+		private final ChiSquareEngine engine;
+		private int block = 0;
+		
+		Attack(ChannelPlanes image, double[] x, double[] chi, int size)
+		{
+			red = image.getRed();
+			green = image.getGreen();
+			blue = image.getBlue();
+			this.chi = chi;
+			engine = new ChiSquareEngine(size);
+			for(int i=0; i<256; i++)
+			{
+				x[i] = i;
+			}
+		}
+		
+		/*
+		 * returns false once all blocks have been filled
+		 */
+		boolean addPixel(int p)
+		{
+			return addByte(red[p] & 0xff) && addByte(green[p] & 0xff) && addByte(blue[p] & 0xff);
+		}
+		
+		private boolean addByte(int value)
+		{
+			if(block >= chi.length)
+				return false;
+			if(engine.add(value))
+			{
+				chi[block] = engine.pValue();
+				block++;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package stegexpose;
+
+/**
+ * ChiSquareEngine
+ * 
+ * Chi-square test for pairs of values (PoV) as used by the chi-square attack. The histogram of
+ * byte values and the expected values of each pair are kept up to date as bytes are added, so a
+ * p-value can be taken after every block without rebuilding anything. The p-value is worked out
+ * by a survival function specialised for the 127 degrees of freedom of the 128 pairs.
+ * 
+ * Gives the same p-values as org.apache.commons.math3.stat.inference.ChiSquareTest, including the
+ * integer division of the expected values and the rescaling of the expected values when their sum
+ * differs from the sum of the observed values.
+ * 
+ * @version 0.1
+ */
+public class ChiSquareEngine {
+	
+	//number of pairs of values and the resulting degrees of freedom
+	private static final int PAIRS = 128;
+	private static final int DEGREES_OF_FREEDOM = PAIRS - 1;
+	
+	//shape of the gamma distribution behind the chi-square distribution and the log of its gamma function
+	private static final double SHAPE = DEGREES_OF_FREEDOM / 2.0;
+	private static final double LOG_GAMMA_SHAPE;
+	
+	//accuracy of the survival function
+	private static final double EPSILON = 1e-15;
+	private static final double TINY = 1e-300;
+	private static final int MAX_ITERATIONS = 10000;
+	
+	static{
+		//gamma(63.5) = gamma(0.5) * 0.5 * 1.5 * ... * 62.5
+		double logGamma = 0.5*Math.log(Math.PI);
+		for(double z=0.5; z<SHAPE; z++)
+			logGamma += Math.log(z);
+		LOG_GAMMA_SHAPE = logGamma;
+	}
+	
+	//number of bytes per block
+	private final int size;
+	//histogram of values (every value starts at 1)
+	private final int[] values = new int[2*PAIRS];
+	//expected number of even values of each pair, (values[2k]+values[2k+1])/2 rounded down
+	private final long[] expected = new long[PAIRS];
+	private long sumExpected;
+	private long sumObserved;
+	//bytes added to the current block
+	private int nbBytes;
+	
+	
+	/**
+	 * Creates a new engine
+	 * 
+	 * @param size		number of bytes in a block
+	 */
+	public ChiSquareEngine(int size){
+		this.size = size;
+		reset();
+	}
+	
+	/**
+	 * Resets the histogram so the engine can be used for another image
+	 */
+	public void reset(){
+		for(int i=0; i<values.length; i++)
+			values[i] = 1;
+		for(int k=0; k<PAIRS; k++)
+			expected[k] = 1;
+		sumExpected = PAIRS;
+		sumObserved = PAIRS;
+		nbBytes = 0;
+	}
+	
+	/**
+	 * Adds a byte to the histogram
+	 * 
+	 * @param value		byte value between 0 and 255
+	 * @return 			true if the byte completes a block
+	 */
+	public boolean add(int value){
+		values[value]++;
+		if((value & 1) == 0)
+			sumObserved++;
+		//the rounded down half of the pair sum goes up whenever the pair sum becomes even
+		int pair = value >> 1;
+		if(((values[2*pair] + values[2*pair+1]) & 1) == 0){
+			expected[pair]++;
+			sumExpected++;
+		}
+		nbBytes++;
+		if(nbBytes == size){
+			nbBytes = 0;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Runs the chi-square test on the histogram of all bytes added so far
+	 * 
+	 * @return 		probability that the even values follow the expected distribution
+	 */
+	public double pValue(){
+		double ratio = 1;
+		boolean rescale = false;
+		if(Math.abs(sumExpected - sumObserved) > 10E-6){
+			ratio = (double) sumObserved / sumExpected;
+			rescale = true;
+		}
+		double sumSq = 0;
+		for(int k=0; k<PAIRS; k++){
+			if(rescale){
+				double dev = values[2*k] - ratio*expected[k];
+				sumSq += dev*dev / (ratio*expected[k]);
+			}
+			else{
+				double dev = values[2*k] - expected[k];
+				sumSq += dev*dev / expected[k];
+			}
+		}
+		return survival(sumSq);
+	}
+	
+	/**
+	 * Survival function (1 - cumulative probability) of the chi-square distribution with 127 degrees of
+	 * freedom. Evaluates the regularized incomplete gamma function by its series below the mean and by
+	 * its continued fraction above it.
+	 * 
+	 * @param chiSquare		chi-square statistic
+	 * @return 				probability of a statistic at least as large
+	 */
+	public static double survival(double chiSquare){
+		if(chiSquare <= 0)
+			return 1;
+		double x = chiSquare/2;
+		double prefactor = Math.exp(-x + SHAPE*Math.log(x) - LOG_GAMMA_SHAPE);
+		
+		if(x < SHAPE + 1){
+			//series for the lower regularized gamma function
+			double term = 1/SHAPE;
+			double sum = term;
+			for(int n=1; n<MAX_ITERATIONS && Math.abs(term) > Math.abs(sum)*EPSILON; n++){
+				term *= x/(SHAPE + n);
+				sum += term;
+			}
+			return 1 - prefactor*sum;
+		}
+		
+		//modified Lentz evaluation of the continued fraction for the upper regularized gamma function
+		double b = x + 1 - SHAPE;
+		double c = 1/TINY;
+		double d = 1/b;
+		double h = d;
+		for(int n=1; n<MAX_ITERATIONS; n++){
+			double an = -n*(n - SHAPE);
+			b += 2;
+			d = an*d + b;
+			if(Math.abs(d) < TINY)
+				d = TINY;
+			c = b + an/c;
+			if(Math.abs(c) < TINY)
+				c = TINY;
+			d = 1/d;
+			double delta = d*c;
+			h *= delta;
+			if(Math.abs(delta - 1) < EPSILON)
+				break;
+		}
+		return prefactor*h;
+	}
+}
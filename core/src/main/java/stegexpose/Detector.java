@@ -0,0 +1,79 @@
+package stegexpose;
+
+
+
+/**
+ * Detector
+ *
+ * A steganalysis detector whose output is worked out from counts gathered over the rows of an image.
+ * The counts are kept by an accumulator, which DetectorEngine feeds a band of rows at a time for all
+ * detectors of an analysis together, so that the rows are read once while they are still in the
+ * cache. Detectors with the same accumulator type share one accumulator, e.g. primary sets and sample
+ * pairs both read the pair histogram.
+ *
+ * A new detector plugs in by implementing this interface and, unless it reads counts already kept
+ * for another detector, an accumulator type of its own.
+ *
+ * @version 0.1
+ */
+public interface Detector {
+
+	/**
+	 * Gets the name of the detector, as used in reports
+	 *
+	 * @return 		the name, e.g. primary_sets
+	 */
+	String getName();
+
+	/**
+	 * Gets the type of the accumulator the detector reads its counts from
+	 *
+	 * @return 		the accumulator type, the same object for all detectors sharing their counts
+	 */
+	AccumulatorType getAccumulatorType();
+
+	/**
+	 * Works out the detector output once all rows of the image have been added to its accumulator
+	 *
+	 * @param counts		accumulator created by the accumulator type of this detector
+	 * @return 				the detector output, not a number if the detector has no answer for the image
+	 * @throws RuntimeException 	if the detector cannot be applied to the image
+	 */
+	double getResult(Accumulator counts);
+
+
+	/**
+	 * Creates the accumulators of one kind of counts
+	 */
+	interface AccumulatorType {
+
+		/**
+		 * Creates empty counts for an image
+		 *
+		 * @param width		width of the image
+		 * @param height	height of the image
+		 * @return 			the accumulator
+		 */
+		Accumulator newAccumulator(int width, int height);
+	}
+
+
+	/**
+	 * Counts gathered over the rows of an image, top to bottom. The rows are added in bands, every band
+	 * but the last one with an even number of rows.
+	 */
+	interface Accumulator {
+
+		/**
+		 * Adds the rows following the rows added so far. The planes hold these rows and may hold rows
+		 * before and after them as well, e.g. when they hold the whole image; an accumulator looking
+		 * ahead beyond the rows added may read those, and keeps what it needs of the rows otherwise.
+		 *
+		 * @param planes		channel planes holding the rows, as wide as the image
+		 * @param firstRow		row of the image the first row of the planes is
+		 * @param fromRow		first row of the image to be added
+		 * @param toRow			row of the image after the last row to be added
+		 */
+		void add(ChannelPlanes planes, int firstRow, int fromRow, int toRow);
+	}
+}
@@ -0,0 +1,192 @@
+package stegexpose;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+
+/**
+ * DetectorEngine
+ *
+ * Gathers the counts of several detectors in a single traversal of an image. The rows are read a band
+ * at a time, and every accumulator being filled is given the band in turn while it is still in the
+ * cache, rather than each detector walking the whole image on its own. An image held in memory is
+ * read in bands small enough for the cache; an image decoded a strip at a time is read a strip at a
+ * time, and a further traversal decodes it again.
+ *
+ * Accumulators are created once per accumulator type, so detectors sharing their counts share the
+ * work of gathering them. An accumulator failing on the image only fails the detectors reading it.
+ *
+ * @version 0.1
+ */
+public class DetectorEngine {
+
+	//bytes of the three planes of a band of rows, so that a band stays in the cache while it is read
+	private static final int BAND_BYTES = 1 << 17;
+
+	private final ChannelPlanes image;
+	private final ImageStrips strips;
+	private final int width;
+	private final int height;
+	//accumulators of the types filled so far, the time spent filling them and the failure of those that failed
+	private final IdentityHashMap<Detector.AccumulatorType, Detector.Accumulator> accumulators = new IdentityHashMap<Detector.AccumulatorType, Detector.Accumulator>();
+	private final IdentityHashMap<Detector.AccumulatorType, long[]> nanos = new IdentityHashMap<Detector.AccumulatorType, long[]>();
+	private final IdentityHashMap<Detector.AccumulatorType, RuntimeException> failures = new IdentityHashMap<Detector.AccumulatorType, RuntimeException>();
+	//number of traversals of the image so far
+	private int traversals = 0;
+
+
+	/**
+	 * Creates an engine reading an image held in memory
+	 *
+	 * @param image		channel planes of the image
+	 */
+	public DetectorEngine(ChannelPlanes image){
+		this.image = image;
+		this.strips = null;
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+
+	/**
+	 * Creates an engine reading an image decoded a strip of rows at a time
+	 *
+	 * @param strips	strips of the image
+	 */
+	public DetectorEngine(ImageStrips strips){
+		this.image = null;
+		this.strips = strips;
+		width = strips.getWidth();
+		height = strips.getHeight();
+	}
+
+	/**
+	 * Fills the accumulators of the given detectors which have not been filled yet, all of them in a
+	 * single traversal of the image
+	 *
+	 * @param detectors		detectors whose counts are needed
+	 * @throws IOException 	if the strips of the image cannot be decoded
+	 */
+	public void fill(List<Detector> detectors) throws IOException{
+		List<Detector.AccumulatorType> types = new ArrayList<Detector.AccumulatorType>();
+		List<Detector.Accumulator> filling = new ArrayList<Detector.Accumulator>();
+		for(Detector detector : detectors){
+			Detector.AccumulatorType type = detector.getAccumulatorType();
+			if(accumulators.containsKey(type))
+				continue;
+			Detector.Accumulator accumulator = null;
+			try{
+				accumulator = type.newAccumulator(width, height);
+			}
+			catch(RuntimeException e){
+				failures.put(type, e);
+			}
+			accumulators.put(type, accumulator);
+			nanos.put(type, new long[1]);
+			if(accumulator != null){
+				types.add(type);
+				filling.add(accumulator);
+			}
+		}
+		if(types.isEmpty())
+			return;
+
+		if(strips != null){
+			if(traversals > 0)
+				strips.rewind();
+			int row = 0;
+			for(ChannelPlanes strip = strips.next(); strip != null; strip = strips.next()){
+				feed(types, filling, strip, row, row, row + strip.getHeight());
+				row += strip.getHeight();
+			}
+		}
+		else{
+			//an even number of rows, so that the vertical pairs never cross from one band into the next
+			int band = (int)Math.max(2, Math.min(BAND_BYTES/(3L*width), height));
+			band += band % 2;
+			for(int row=0; row<height; row+=band)
+				feed(types, filling, image, 0, row, Math.min(row + band, height));
+		}
+		traversals++;
+	}
+
+	/*
+	 * Hands a band of rows to every accumulator being filled, leaving out those which have failed
+	 */
+	private void feed(List<Detector.AccumulatorType> types, List<Detector.Accumulator> filling, ChannelPlanes planes, int firstRow, int fromRow, int toRow){
+		for(int i=0; i<filling.size(); i++){
+			Detector.AccumulatorType type = types.get(i);
+			if(failures.containsKey(type))
+				continue;
+			long start = System.nanoTime();
+			try{
+				filling.get(i).add(planes, firstRow, fromRow, toRow);
+			}
+			catch(RuntimeException e){
+				failures.put(type, e);
+			}
+			nanos.get(type)[0] += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Checks if the counts of a detector have been gathered
+	 *
+	 * @param detector		the detector
+	 * @return 				true if its accumulator has been filled, even if it failed
+	 */
+	public boolean isFilled(Detector detector){
+		return accumulators.containsKey(detector.getAccumulatorType());
+	}
+
+	/**
+	 * Gets the counts of a detector
+	 *
+	 * @param detector		a detector whose accumulator has been filled
+	 * @return 				its accumulator
+	 * @throws IllegalStateException 	if the accumulator has not been filled
+	 * @throws RuntimeException 		the failure of the accumulator if it failed on the image
+	 */
+	public Detector.Accumulator getAccumulator(Detector detector){
+		Detector.AccumulatorType type = detector.getAccumulatorType();
+		if(!accumulators.containsKey(type))
+			throw new IllegalStateException(detector.getName() + " has not been filled");
+		RuntimeException failure = failures.get(type);
+		if(failure != null)
+			throw failure;
+		return accumulators.get(type);
+	}
+
+	/**
+	 * Works out the output of a detector from its counts
+	 *
+	 * @param detector		a detector whose accumulator has been filled
+	 * @return 				the detector output
+	 * @throws RuntimeException 	if the detector or its accumulator failed on the image
+	 */
+	public double getResult(Detector detector){
+		return detector.getResult(getAccumulator(detector));
+	}
+
+	/**
+	 * Gets the time spent filling the accumulator of a detector, shared with the detectors sharing it
+	 *
+	 * @param detector		the detector
+	 * @return 				nanoseconds, 0 if the accumulator has not been filled
+	 */
+	public long getNanos(Detector detector){
+		long[] spent = nanos.get(detector.getAccumulatorType());
+		return spent == null ? 0 : spent[0];
+	}
+
+	/**
+	 * Gets the image read by the engine
+	 *
+	 * @return 		channel planes of the image, null if it is read from strips
+	 */
+	public ChannelPlanes getImage(){
+		return image;
+	}
+}
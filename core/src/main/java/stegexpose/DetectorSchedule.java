@@ -0,0 +1,278 @@
+package stegexpose;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+
+/**
+ * DetectorSchedule
+ *
+ * Decides which detectors are run on a file, in which order, and in fast mode when to stop. Fuse.se
+ * gives every detector the same say in the fused score, so each detector is worth as much as any
+ * other and a fast mode schedule runs the cheapest ones first, by their cost per pixel. Scans use the
+ * typical costs below, as measuring them took longer than fast mode saved on a small scan; the
+ * service, which runs for long, measures them once when it starts.
+ *
+ * Fast mode stops as soon as the decision cannot change any more with the detectors still to run:
+ * - clean, once the fused score of the detectors run so far is below the threshold. As fast mode
+ *   always has, this takes the detectors still to run not to score above the ones run so far.
+ * - stego, once the fused score stays above the threshold even if every detector still to run scores
+ *   0, the lowest score a detector gives. A detector which gives no number at all only raises it.
+ *
+ * A schedule can also let RS analysis estimate its result from a sample of the rows of an image,
+ * which is widened until the result is known closely enough to make the decision (see
+ * FileAnalysis). The sample is drawn from a seed, so the same seed always gives the same results.
+ *
+ * @version 0.1
+ */
+public class DetectorSchedule {
+
+	//all detectors, in the order StegExpose has always run them
+	public static final int[] ALL_DETECTORS = {FileAnalysis.PRIMARY_SETS, FileAnalysis.SAMPLE_PAIRS, FileAnalysis.CHI_SQUARE, FileAnalysis.RS_ANALYSIS};
+	//decisions after a detector
+	public static final int CONTINUE = 0;
+	public static final int CLEAN = 1;
+	public static final int STEGO = 2;
+
+	//size and number of runs of the image costs are measured on
+	private static final int CALIBRATION_SIZE = 384;
+	private static final int CALIBRATION_RUNS = 2;
+	//a detector is only moved ahead of one usually run before it if it costs less than this share of it,
+	//so that the order does not change with the noise of the measurement
+	private static final double COST_MARGIN = 0.5;
+	//nanoseconds per pixel of every step as measured by measureCosts on a warmed up JVM, only their
+	//ratios matter
+	private static final double[] TYPICAL_COSTS = {10, 3.5, 8, 41, 113};
+
+	private final int[] order;
+	private final boolean fast;
+	//whether RS analysis is estimated from a sample of the rows and the seed of the sample
+	private final boolean sampled;
+	private final long seed;
+
+
+	/**
+	 * Creates a schedule running all detectors in their usual order
+	 *
+	 * @param fast		true if fast mode is used
+	 */
+	public DetectorSchedule(boolean fast){
+		this(ALL_DETECTORS, fast);
+	}
+
+	/**
+	 * Creates a schedule running the given detectors in the given order
+	 *
+	 * @param order		detectors to be run (PRIMARY_SETS, SAMPLE_PAIRS, CHI_SQUARE or RS_ANALYSIS of FileAnalysis)
+	 * @param fast		true if fast mode is used
+	 */
+	public DetectorSchedule(int[] order, boolean fast){
+		this(order, fast, false, 0);
+	}
+
+	private DetectorSchedule(int[] order, boolean fast, boolean sampled, long seed){
+		if(order.length == 0)
+			throw new IllegalArgumentException("no detectors to run");
+		int seen = 0;
+		for(int detector : order){
+			if(detector < FileAnalysis.PRIMARY_SETS || detector > FileAnalysis.RS_ANALYSIS)
+				throw new IllegalArgumentException("not a detector: " + detector);
+			if((seen & 1 << detector) != 0)
+				throw new IllegalArgumentException("detector given twice: " + FileAnalysis.STEP_NAMES[detector]);
+			seen |= 1 << detector;
+		}
+		this.order = order.clone();
+		this.fast = fast;
+		this.sampled = sampled;
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates a schedule running the given detectors cheapest first. Detectors of about the same cost
+	 * stay in their usual order.
+	 *
+	 * @param detectors		detectors to be run
+	 * @param costs			cost of every step in nanoseconds per pixel, as returned by measureCosts
+	 * @param fast			true if fast mode is used
+	 * @return 				the schedule
+	 */
+	public static DetectorSchedule byCost(int[] detectors, double[] costs, boolean fast){
+		//steps are numbered in the usual order
+		detectors = detectors.clone();
+		Arrays.sort(detectors);
+		int[] order = new int[detectors.length];
+		boolean[] taken = new boolean[detectors.length];
+		//the pair histogram is paid for by whichever of primary sets and sample pairs runs first
+		boolean pairsBuilt = false;
+		for(int i=0; i<order.length; i++){
+			int cheapest = -1;
+			double cheapestCost = 0;
+			for(int j=0; j<detectors.length; j++){
+				if(taken[j])
+					continue;
+				double cost = costs[detectors[j]];
+				if(!pairsBuilt && usesPairs(detectors[j]))
+					cost += costs[FileAnalysis.PAIR_HISTOGRAM];
+				if(cheapest < 0 || cost < cheapestCost*COST_MARGIN){
+					cheapest = j;
+					cheapestCost = cost;
+				}
+			}
+			taken[cheapest] = true;
+			order[i] = detectors[cheapest];
+			pairsBuilt |= usesPairs(order[i]);
+		}
+		return new DetectorSchedule(order, fast);
+	}
+
+	/**
+	 * Gets the typical cost of every step, which gives the same order as measureCosts on most machines
+	 * without taking its time
+	 *
+	 * @return 		nanoseconds per pixel, indexed by step (PAIR_HISTOGRAM to RS_ANALYSIS of FileAnalysis)
+	 */
+	public static double[] typicalCosts(){
+		return TYPICAL_COSTS.clone();
+	}
+
+	/**
+	 * Measures the cost of every step of the analysis by running all detectors on a noise image a few
+	 * times and keeping the fastest run of each step
+	 *
+	 * @return 		nanoseconds per pixel, indexed by step (PAIR_HISTOGRAM to RS_ANALYSIS of FileAnalysis)
+	 */
+	public static double[] measureCosts(){
+		ChannelPlanes image = new ChannelPlanes(CALIBRATION_SIZE, CALIBRATION_SIZE);
+		Random random = new Random(0);
+		random.nextBytes(image.getRed());
+		random.nextBytes(image.getGreen());
+		random.nextBytes(image.getBlue());
+		long[] fastest = new long[FileAnalysis.STEP_NAMES.length];
+		Arrays.fill(fastest, Long.MAX_VALUE);
+		for(int run=0; run<CALIBRATION_RUNS; run++){
+			FileAnalysis analysis = new FileAnalysis(new File("calibration"));
+			analysis.run(image, 3L*CALIBRATION_SIZE*CALIBRATION_SIZE, new DetectorSchedule(false), 0.2);
+			for(int step=0; step<fastest.length; step++)
+				fastest[step] = Math.min(fastest[step], analysis.getStepNanos(step));
+		}
+		double[] costs = new double[fastest.length];
+		for(int step=0; step<costs.length; step++)
+			costs[step] = (double)fastest[step]/(CALIBRATION_SIZE*CALIBRATION_SIZE);
+		return costs;
+	}
+
+	/**
+	 * Reads a list of detectors such as "primary_sets,rs_analysis". The short names ps, sp, cs and rs
+	 * can be used as well.
+	 *
+	 * @param list		comma separated detector names
+	 * @return 			detectors in the order given
+	 */
+	public static int[] parseDetectors(String list){
+		String[] shortNames = {null, "ps", "sp", "cs", "rs"};
+		String[] names = list.split(",");
+		int[] detectors = new int[names.length];
+		for(int i=0; i<names.length; i++){
+			String name = names[i].trim().toLowerCase();
+			detectors[i] = -1;
+			for(int step=FileAnalysis.PRIMARY_SETS; step<=FileAnalysis.RS_ANALYSIS; step++)
+				if(name.equals(FileAnalysis.STEP_NAMES[step]) || name.equals(shortNames[step]))
+					detectors[i] = step;
+			if(detectors[i] < 0)
+				throw new IllegalArgumentException("unknown detector " + names[i]);
+		}
+		return detectors;
+	}
+
+	/**
+	 * Decides after a detector whether the remaining ones need to run
+	 *
+	 * @param outputs		detector outputs so far, leaving out those which gave no number
+	 * @param remaining		number of detectors still to run
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				CONTINUE, or CLEAN or STEGO if fast mode can stop
+	 */
+	public int decide(ArrayList<Double> outputs, int remaining, double threshold){
+		if(!fast || remaining == 0 || outputs.isEmpty())
+			return CONTINUE;
+		if(Fuse.se(outputs) < threshold)
+			return CLEAN;
+		double sum = 0;
+		for(Double output : outputs)
+			sum += output;
+		if(sum/(outputs.size() + remaining) > threshold)
+			return STEGO;
+		return CONTINUE;
+	}
+
+	/**
+	 * Gets the detectors to be run
+	 *
+	 * @return 		detectors in the order they are run
+	 */
+	public int[] getOrder(){
+		return order.clone();
+	}
+
+	/**
+	 * Checks if a detector is run
+	 *
+	 * @param detector		PRIMARY_SETS, SAMPLE_PAIRS, CHI_SQUARE or RS_ANALYSIS of FileAnalysis
+	 * @return 				true if the detector is part of the schedule
+	 */
+	public boolean runs(int detector){
+		for(int step : order)
+			if(step == detector)
+				return true;
+		return false;
+	}
+
+	public boolean isFast(){
+		return fast;
+	}
+
+	/**
+	 * Creates the same schedule for the other speed
+	 *
+	 * @param fast		true if fast mode is used
+	 * @return 			schedule running the same detectors in the same order
+	 */
+	public DetectorSchedule withFast(boolean fast){
+		return fast == this.fast ? this : new DetectorSchedule(order, fast, sampled, seed);
+	}
+
+	/**
+	 * Creates the same schedule with RS analysis estimated from a sample of the rows of an image
+	 *
+	 * @param seed		seed of the random sample
+	 * @return 			schedule running the same detectors in the same order at the same speed
+	 */
+	public DetectorSchedule withSampling(long seed){
+		return new DetectorSchedule(order, fast, true, seed);
+	}
+
+	public boolean isSampled(){
+		return sampled;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	public String toString(){
+		StringBuilder names = new StringBuilder();
+		for(int step : order){
+			if(names.length() > 0)
+				names.append(',');
+			names.append(FileAnalysis.STEP_NAMES[step]);
+		}
+		return names.toString();
+	}
+
+	private static boolean usesPairs(int detector){
+		return detector == FileAnalysis.PRIMARY_SETS || detector == FileAnalysis.SAMPLE_PAIRS;
+	}
+}
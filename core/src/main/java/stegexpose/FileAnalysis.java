@@ -0,0 +1,558 @@
+package stegexpose;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+
+/**
+ * FileAnalysis
+ *
+ * Holds everything StegExpose works out about a single file. Each file gets its own
+ * analysis context so that several files can be steganalysed at the same time.
+ *
+ * @version 0.1
+ */
+public class FileAnalysis {
+
+	//size of chi square blocks
+	private static final int csSize = 1024;
+	//setting color codes for rs and sample pair detectors
+	private static final int RED =0;
+	private static final int GREEN =1;
+	private static final int BLUE =2;
+
+	//steps of the analysis which are timed (the pair histogram is shared by primary sets and sample pairs)
+	public static final int PAIR_HISTOGRAM = 0;
+	public static final int PRIMARY_SETS = 1;
+	public static final int SAMPLE_PAIRS = 2;
+	public static final int CHI_SQUARE = 3;
+	public static final int RS_ANALYSIS = 4;
+	public static final String[] STEP_NAMES = {"pair_histogram", "primary_sets", "sample_pairs", "chi_square", "rs_analysis"};
+
+	//Student's t for a two-sided 99% confidence interval from a jackknife over RSAnalysis.Sample.GROUPS groups
+	private static final double RS_SAMPLE_T = 3.499;
+
+	//detectors by step (the pair histogram is not a detector of its own)
+	private static final Detector[] DETECTORS = {null, PrimarySets.DETECTOR, SamplePairs.DETECTOR, ChiSquare.detector(csSize), new RSAnalysis(2,2).detector()};
+
+	//version of the detectors, to be increased whenever a change alters their outputs so that stored results are not reused
+	public static final int DETECTOR_VERSION = 1;
+
+	//file being processed
+	private File file;
+	private String fileName;
+	private double fileSize;
+
+	//list of individual detectors to feed into fusion algorithm
+	private ArrayList<Double> stegExposeInput = new ArrayList<Double>();
+
+	//detector outputs (null if a detector did not run or failed)
+	private Double ps = null;
+	private Double cs = null;
+	private Double sp = null;
+	private Double rs = null;
+	private Double fusion = null;
+	private Long fusionQ = null;
+	//RS analysis results for [colour][0 overlapping, 1 non-overlapping] (null if RS analysis did not run or failed)
+	private double[][][] rsResults = null;
+	//whether the RS analysis results were estimated from a sample of the rows
+	private boolean rsSampled = false;
+
+	//time taken by each step in nanoseconds (-1 if the step did not run)
+	private final long[] stepNanos = {-1, -1, -1, -1, -1};
+	//detectors which ran, one bit per step
+	private int detectorsRun = 0;
+	//step after which fast mode stopped (-1 if all detectors ran) and whether it regarded the file as stego
+	private int fastExit = -1;
+	private boolean stegoExit = false;
+
+
+	/**
+	 * Creates a new analysis context for a file
+	 *
+	 * @param file	file to be steganalysed
+	 */
+	public FileAnalysis(File file){
+		this(file, file.getName());
+	}
+
+	/**
+	 * Creates a new analysis context for a file which is reported under a different name
+	 *
+	 * @param file		file to be steganalysed
+	 * @param fileName	name the file is reported under, e.g. its path within the scanned directory
+	 */
+	public FileAnalysis(File file, String fileName){
+		this.file = file;
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Loads the file and runs the detectors on it. In fast mode the expensive detectors are skipped
+	 * as soon as the cheaper ones regard the file as clean or as stego.
+	 *
+	 * @param fast			true if fast mode is used
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				false if the file is not an image that could be loaded
+	 */
+	public boolean run(boolean fast, double threshold){
+		ChannelPlanes image = ImageFileManager.loadChannelPlanes(file);
+		if(image == null)
+			return false;
+		return run(image, file.length(), fast, threshold);
+	}
+
+	/**
+	 * Runs all detectors in their usual order on a file that has already been decoded
+	 *
+	 * @param image			channel planes of the file
+	 * @param fileSize		size of the file in bytes
+	 * @param fast			true if fast mode is used
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true
+	 */
+	public boolean run(ChannelPlanes image, long fileSize, boolean fast, double threshold){
+		return run(image, fileSize, new DetectorSchedule(fast), threshold);
+	}
+
+	/**
+	 * Runs the detectors of a schedule on a file that has already been decoded. The counts of the
+	 * detectors are gathered in a single traversal of the image, except in fast mode, where the
+	 * counts of each detector are only gathered once it is reached.
+	 *
+	 * @param image			channel planes of the file
+	 * @param fileSize		size of the file in bytes
+	 * @param schedule		detectors to be run, their order and the speed mode
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true
+	 */
+	public boolean run(ChannelPlanes image, long fileSize, DetectorSchedule schedule, double threshold){
+		try{
+			return run(new DetectorEngine(image), fileSize, schedule, threshold);
+		}
+		catch(IOException e){
+			//an image held in memory is never decoded
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Runs all detectors in their usual order on an image decoded a strip of rows at a time, see
+	 * run(ImageStrips, long, DetectorSchedule, double)
+	 *
+	 * @param image			strips of the image
+	 * @param fileSize		size of the file in bytes
+	 * @param fast			true if fast mode is used
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true
+	 * @throws IOException 	if the image cannot be decoded
+	 */
+	public boolean run(ImageStrips image, long fileSize, boolean fast, double threshold) throws IOException{
+		return run(image, fileSize, new DetectorSchedule(fast), threshold);
+	}
+
+	/**
+	 * Runs the detectors on an image decoded a strip of rows at a time, so that memory use depends
+	 * on the size of the strips rather than the size of the image. The detectors only keep counts,
+	 * which are added up strip by strip, so the results are the same as for the image as a whole.
+	 * The image is decoded once; in fast mode RS analysis is left out of that pass unless it runs
+	 * first, and the image is decoded a second time if RS analysis is needed after all. RS analysis
+	 * is never estimated from a sample here, as the rows are not held.
+	 *
+	 * @param image			strips of the image
+	 * @param fileSize		size of the file in bytes
+	 * @param schedule		detectors to be run, their order and the speed mode
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true
+	 * @throws IOException 	if the image cannot be decoded
+	 */
+	public boolean run(ImageStrips image, long fileSize, DetectorSchedule schedule, double threshold) throws IOException{
+		return run(new DetectorEngine(image), fileSize, schedule, threshold);
+	}
+
+	/*
+	 * Runs the detectors of a schedule, gathering their counts through the engine
+	 */
+	private boolean run(DetectorEngine engine, long fileSize, DetectorSchedule schedule, double threshold) throws IOException{
+		this.fileSize = fileSize;
+		int[] order = schedule.getOrder();
+		ChannelPlanes image = engine.getImage();
+		boolean sampleRS = schedule.isSampled() && image != null;
+
+		//detectors whose counts are gathered in the first traversal: all of them, but in fast mode only
+		//the first one and those sharing its counts, as fast mode may stop after it. Decoding strips
+		//again costs more, so there fast mode only leaves RS analysis for a second traversal.
+		ArrayList<Detector> first = new ArrayList<Detector>();
+		for(int step : order){
+			if(step == RS_ANALYSIS && sampleRS)
+				continue;
+			if(!schedule.isFast() || DETECTORS[step].getAccumulatorType() == DETECTORS[order[0]].getAccumulatorType()
+					|| (image == null && step != RS_ANALYSIS))
+				first.add(DETECTORS[step]);
+		}
+		engine.fill(first);
+
+		for(int i=0; i<order.length; i++){
+			int step = order[i];
+			Detector detector = DETECTORS[step];
+			if(step == RS_ANALYSIS && sampleRS){
+				long start = System.nanoTime();
+				sampleRS(image, schedule.getSeed(), order.length - 1 - i, threshold);
+				lap(step, start);
+			}
+			else{
+				if(!engine.isFilled(detector))
+					engine.fill(Collections.singletonList(detector));
+				long start = System.nanoTime();
+				result(step, engine);
+				lap(step, start);
+				//the time spent gathering the counts, the pair histogram is timed as a step of its own
+				long counting = engine.getNanos(detector);
+				if(detector.getAccumulatorType() == PairHistogram.ACCUMULATOR_TYPE){
+					if(stepNanos[PAIR_HISTOGRAM] < 0)
+						stepNanos[PAIR_HISTOGRAM] = counting;
+				}
+				else
+					stepNanos[step] += counting;
+			}
+
+			//looking for fast break
+			if(stop(schedule, step, order.length - 1 - i, threshold))
+				return true;
+		}
+		return finish(-1, false);
+	}
+
+	/*
+	 * Works out the output of a detector from its counts
+	 */
+	private void result(int step, DetectorEngine engine){
+		Detector detector = DETECTORS[step];
+		if(step == RS_ANALYSIS){
+			//computing RS Analysis average, keeping the results of all colours
+			try{
+				setRSResults(((RSAnalysis.Strips)engine.getAccumulator(detector)).getResults());
+			}
+			catch(Exception e){
+			}
+			return;
+		}
+		Double output;
+		try{
+			output = steralize(engine.getResult(detector));
+		}
+		catch(Exception e){
+			return;
+		}
+		if(step == PRIMARY_SETS)
+			ps = output;
+		else if(step == SAMPLE_PAIRS)
+			sp = output;
+		else
+			cs = output;
+		add(output);
+	}
+
+	/*
+	 * Works out the RS analysis average from a sample of the rows of the image. The sample is widened
+	 * until a confidence interval of the average lies on one side of every score at which RS analysis
+	 * could turn the final fused score across the threshold, whatever the detectors still to run give,
+	 * or until it covers the whole image and gives the exact result.
+	 */
+	private void sampleRS(ChannelPlanes image, long seed, int remaining, double threshold){
+		try{
+			RSAnalysis.Sample sample = new RSAnalysis(2,2).analyseSample(image, seed);
+			double sum = 0;
+			for(Double output : stegExposeInput)
+				sum += output;
+			//with the detectors still to run all giving 1 the fused score is above the threshold exactly
+			//if the RS analysis average is above low, with them all giving 0 if it is above high; between
+			//the two the decision rests on them, and giving no number lies in between as well
+			double low = threshold*(stegExposeInput.size() + 1) - sum - remaining*(1 - threshold);
+			double high = threshold*(stegExposeInput.size() + 1 + remaining) - sum;
+			while(!sample.isComplete() && isUndecided(sample, low, high))
+				sample.widen();
+			rsSampled = !sample.isComplete();
+			setRSResults(sample.getResults(-1));
+		}
+		catch(Exception e){
+		}
+	}
+
+	/*
+	 * Checks if the confidence interval of the RS analysis average of a sample reaches the decisive
+	 * scores from low to high, using a delete-a-group jackknife with finite population correction
+	 */
+	private static boolean isUndecided(RSAnalysis.Sample sample, double low, double high){
+		double estimate = rsAverage(sample.getResults(-1));
+		int groups = RSAnalysis.Sample.GROUPS;
+		double[] partial = new double[groups];
+		double mean = 0;
+		for(int g=0; g<groups; g++){
+			partial[g] = rsAverage(sample.getResults(g));
+			mean += partial[g]/groups;
+		}
+		double variance = 0;
+		for(double p : partial)
+			variance += (p - mean)*(p - mean);
+		variance *= (groups - 1.0)/groups * (1 - sample.getFraction());
+		double spread = RS_SAMPLE_T*Math.sqrt(variance);
+		//bounds which are not a number compare false, so the sample is widened until it gives a number
+		double lower = Math.max(0, estimate - spread);
+		double upper = Math.min(1, estimate + spread);
+		return !(upper <= low || lower > high);
+	}
+
+	/*
+	 * Works out the RS analysis detector output from the results of all colours
+	 */
+	private void setRSResults(double[][][] rsResults){
+		this.rsResults = rsResults;
+		rs = rsAverage(rsResults);
+		add(rs);
+	}
+
+	/*
+	 * Averages the RS analysis results of all colours
+	 */
+	private static double rsAverage(double[][][] rsResults){
+		//RS analysis for overlapping groups
+		double rsAverageOverlappingVal = (rsResults[RED][0][26] + rsResults[GREEN][0][26] + rsResults[BLUE][0][26])/3;
+		//RS analysis for non-overlapping groups
+		double rsAverageNonOverlappingVal = (rsResults[RED][1][26] + rsResults[GREEN][1][26] + rsResults[BLUE][1][26])/3;
+
+		return steralize((rsAverageOverlappingVal+rsAverageNonOverlappingVal)/2);
+	}
+
+	/**
+	 * Sets up the analysis from detector outputs worked out by an earlier run, so that a different
+	 * threshold, speed or choice of detectors can be applied without decoding the file again. Fast
+	 * mode decides where to stop exactly as run does.
+	 *
+	 * @param fileSize			size of the file in bytes
+	 * @param ps				primary sets output of the earlier run
+	 * @param sp				sample pairs output of the earlier run
+	 * @param cs				chi square output of the earlier run
+	 * @param rs				RS analysis output of the earlier run
+	 * @param rsResults			RS analysis results of the earlier run
+	 * @param detectorsRun		detectors the earlier run ran, as returned by getDetectorsRun
+	 * @param schedule			detectors to be run, their order and the speed mode
+	 * @param threshold			threshold applied to the stegexpose indicator
+	 * @return 					false if this run needs a detector which the earlier run skipped
+	 */
+	public boolean restore(long fileSize, Double ps, Double sp, Double cs, Double rs, double[][][] rsResults,
+			int detectorsRun, DetectorSchedule schedule, double threshold){
+		this.fileSize = fileSize;
+		stegExposeInput.clear();
+		int[] order = schedule.getOrder();
+		for(int i=0; i<order.length; i++){
+			int step = order[i];
+			if((detectorsRun & 1 << step) == 0)
+				return false;
+			if(step == PRIMARY_SETS)
+				this.ps = ps;
+			else if(step == SAMPLE_PAIRS)
+				this.sp = sp;
+			else if(step == CHI_SQUARE)
+				this.cs = cs;
+			else{
+				this.rs = rs;
+				this.rsResults = rsResults;
+			}
+			Double output = step == PRIMARY_SETS ? ps : step == SAMPLE_PAIRS ? sp : step == CHI_SQUARE ? cs : rs;
+			if(output != null)
+				add(output);
+			if(stop(schedule, step, order.length - 1 - i, threshold))
+				return true;
+		}
+		return finish(-1, false);
+	}
+
+	/**
+	 * Sets up the analysis from the detector outputs of a copy of the file, e.g. the same image stored
+	 * with different metadata
+	 *
+	 * @param copy			completed analysis of the copy
+	 * @param fileSize		size of this file in bytes
+	 * @param schedule		detectors to be run, their order and the speed mode
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				false if this run needs a detector which the analysis of the copy skipped
+	 */
+	public boolean restore(FileAnalysis copy, long fileSize, DetectorSchedule schedule, double threshold){
+		if(!restore(fileSize, copy.ps, copy.sp, copy.cs, copy.rs, copy.rsResults, copy.detectorsRun, schedule, threshold))
+			return false;
+		rsSampled = copy.rsSampled && (detectorsRun & 1 << RS_ANALYSIS) != 0;
+		return true;
+	}
+
+	/**
+	 * Detector output should not be negative or above 100%. This method ensures all outputs are corrected if need be
+	 *
+	 * @param x		percentage value to be sterilised (corrected)
+	 * @return 		modified percentage value between 0 and 1
+	 */
+	private static double steralize(double x){
+		x=Math.abs(x);
+		if(x>1)
+			return 1;
+		return x;
+	}
+
+	/**
+	 * Adds detector output to stegExposeInput only if the value to be added is a actual number (not NaN).
+	 *
+	 * @param  x	value to be added
+	 */
+	private void add(Double x){
+		if(x.isNaN()==false){
+			stegExposeInput.add(x);
+		}
+	}
+
+	/**
+	 * Marks a detector as run and asks the schedule whether fast mode can stop after it
+	 *
+	 * @param schedule		detectors to be run, their order and the speed mode
+	 * @param step			detector which has just run
+	 * @param remaining		number of detectors still to run
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true if the analysis has finished early
+	 */
+	private boolean stop(DetectorSchedule schedule, int step, int remaining, double threshold){
+		detectorsRun |= 1 << step;
+		int decision = schedule.decide(stegExposeInput, remaining, threshold);
+		if(decision == DetectorSchedule.CONTINUE)
+			return false;
+		return finish(step, decision == DetectorSchedule.STEGO);
+	}
+
+	/**
+	 * Records the time taken by a step
+	 *
+	 * @param step		step which has finished
+	 * @param start		System.nanoTime() when the step started
+	 * @return 			System.nanoTime() now, when the next step starts
+	 */
+	private long lap(int step, long start){
+		long now = System.nanoTime();
+		stepNanos[step] = now - start;
+		return now;
+	}
+
+	/**
+	 * Sets up the stegexpose and quantitative stegexpose detectors from the detector outputs
+	 *
+	 * @param fastExit		step after which fast mode stopped, -1 if all detectors ran
+	 * @param stegoExit		true if fast mode stopped because the file is stego
+	 * @return true
+	 */
+	private boolean finish(int fastExit, boolean stegoExit){
+		this.fastExit = fastExit;
+		this.stegoExit = stegoExit;
+		fusion = Fuse.se(stegExposeInput);
+		fusionQ = Math.round(Fuse.seQ(fusion, fileSize));
+		return true;
+	}
+
+	/**
+	 * Determines if the file is a stego or clean file
+	 *
+	 * @param threshold		threshold applied to the stegexpose indicator
+	 * @return 				true if the fused detector output is above the threshold
+	 */
+	public boolean isStego(double threshold){
+		return fusion>threshold;
+	}
+
+	public String getFileName(){
+		return fileName;
+	}
+
+	/**
+	 * Gets the time taken by a step of the analysis
+	 *
+	 * @param step		PAIR_HISTOGRAM, PRIMARY_SETS, SAMPLE_PAIRS, CHI_SQUARE or RS_ANALYSIS
+	 * @return 			time in nanoseconds, -1 if the step did not run
+	 */
+	public long getStepNanos(int step){
+		return stepNanos[step];
+	}
+
+	/**
+	 * Gets the step after which fast mode stopped and skipped the remaining detectors
+	 *
+	 * @return 		PRIMARY_SETS, SAMPLE_PAIRS, CHI_SQUARE or RS_ANALYSIS, -1 if all scheduled detectors ran
+	 */
+	public int getFastExit(){
+		return fastExit;
+	}
+
+	/**
+	 * Checks why fast mode stopped early
+	 *
+	 * @return 		true if fast mode regarded the file as stego, false if as clean or if it did not stop early
+	 */
+	public boolean isStegoExit(){
+		return stegoExit;
+	}
+
+	/**
+	 * Gets the detectors which ran, including those which failed
+	 *
+	 * @return 		one bit (1 << step) for every detector which ran
+	 */
+	public int getDetectorsRun(){
+		return detectorsRun;
+	}
+
+	public Double getPrimarySets(){
+		return ps;
+	}
+
+	public Double getChiSquare(){
+		return cs;
+	}
+
+	public Double getSamplePairs(){
+		return sp;
+	}
+
+	public Double getRSAnalysis(){
+		return rs;
+	}
+
+	/**
+	 * Gets the RS analysis results of all colours
+	 *
+	 * @return 		28 results as listed by RSAnalysis.getResultNames for [colour][0 overlapping, 1 non-overlapping], null if RS analysis did not run or failed
+	 */
+	public double[][][] getRSResults(){
+		return rsResults;
+	}
+
+	/**
+	 * Checks if the RS analysis results were estimated from a sample of the rows of the image, which
+	 * was enough to make the decision at the threshold of this analysis
+	 *
+	 * @return 		true if RS analysis ran on a sample, false if on the whole image or not at all
+	 */
+	public boolean isRSSampled(){
+		return rsSampled;
+	}
+
+	public long getFileSize(){
+		return (long)fileSize;
+	}
+
+	public Double getFusion(){
+		return fusion;
+	}
+
+	public Long getFusionQ(){
+		return fusionQ;
+	}
+}
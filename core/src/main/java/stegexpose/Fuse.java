@@ -1,3 +1,5 @@
+package stegexpose;
+
 import java.util.ArrayList;
 /**
  * Fuse
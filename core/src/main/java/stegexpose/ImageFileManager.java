@@ -0,0 +1,290 @@
+package stegexpose;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * ImageFileManager is a small utility class with static methods to load
+ * and save images.
+ * 
+ * The files on disk can be in JPG or PNG image format. For files written
+ * by this class, the format is determined by the constant IMAGE_FORMAT.
+ * 
+ * @author Michael Kolling and David J Barnes 
+ * @version 2.0
+ */
+public class ImageFileManager
+{
+    // A constant for the image format that this writer uses for writing.
+    // Available formats are "jpg" and "png".
+    private static final String IMAGE_FORMAT = "PNG";
+    
+    /**
+     * Read an image file from disk and return it as an image. This method
+     * can read JPG and PNG file formats. In case of any problem (e.g the file 
+     * does not exist, is in an undecodable format, or any other read error) 
+     * this method returns null.
+     * 
+     * @param imageFile  The image file to be loaded.
+     * @return           The image object or null is it could not be read.
+     */
+    public static BufferedImage loadImage(File imageFile)
+    {
+        try {
+            BufferedImage image = ImageIO.read(imageFile);
+            if(image == null || (image.getWidth(null) < 0)) {
+                // we could not load the image - probably invalid file format
+                return null;
+            }
+            return image;
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode an image from the contents of an image file. In case of any
+     * problem this method returns null.
+     * 
+     * @param imageData  The bytes of the image file.
+     * @return           The image object or null is it could not be read.
+     */
+    public static BufferedImage loadImage(byte[] imageData)
+    {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+            if(image == null || (image.getWidth(null) < 0)) {
+                // we could not load the image - probably invalid file format
+                return null;
+            }
+            return image;
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Read an image file from disk and unpack it into channel planes, the
+     * form in which the detectors take their input. PNG files are decoded
+     * straight into channel planes where PngStrips can and BMP files are
+     * mapped into memory and unpacked where BmpStrips can, anything else
+     * goes through ImageIO. In case of any problem this method returns null.
+     * 
+     * @param imageFile  The image file to be loaded.
+     * @return           The channel planes or null is it could not be read.
+     */
+    public static ChannelPlanes loadChannelPlanes(File imageFile)
+    {
+        ChannelPlanes planes = BmpStrips.decode(imageFile);
+        if(planes == null) {
+            planes = PngStrips.decode(imageFile);
+        }
+        if(planes != null) {
+            return planes;
+        }
+        BufferedImage image = loadImage(imageFile);
+        if(image == null) {
+            return null;
+        }
+        return ChannelPlanes.fromImage(image);
+    }
+
+    /**
+     * Decode an image from the contents of an image file and unpack it into
+     * channel planes, straight from PNG or BMP where PngStrips or BmpStrips
+     * can. In case of any problem this method returns null.
+     * 
+     * @param imageData  The bytes of the image file.
+     * @return           The channel planes or null is it could not be read.
+     */
+    public static ChannelPlanes loadChannelPlanes(byte[] imageData)
+    {
+        ChannelPlanes planes = BmpStrips.decode(imageData);
+        if(planes == null) {
+            planes = PngStrips.decode(imageData);
+        }
+        if(planes != null) {
+            return planes;
+        }
+        BufferedImage image = loadImage(imageData);
+        if(image == null) {
+            return null;
+        }
+        return ChannelPlanes.fromImage(image);
+    }
+
+    /**
+     * Read the width and height of an image file without decoding it. In
+     * case of any problem this method returns null.
+     * 
+     * @param imageFile  The image file.
+     * @return           The size of the image or null if it could not be read.
+     */
+    public static Dimension getSize(File imageFile)
+    {
+        ImageReader reader = null;
+        try {
+            ImageInputStream stream = ImageIO.createImageInputStream(imageFile);
+            if(stream == null) {
+                return null;
+            }
+            try {
+                reader = openReader(stream);
+                if(reader == null) {
+                    return null;
+                }
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally {
+                if(reader != null) {
+                    reader.dispose();
+                }
+                stream.close();
+            }
+        }
+        catch(IOException exc) {
+            return null;
+        }
+        catch(RuntimeException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Open an image file for decoding a strip of rows at a time. PNG files
+     * are streamed through PngStrips where it can, which decodes every row
+     * once, and BMP files are mapped into memory by BmpStrips. Anything else goes through the source regions of an
+     * ImageReader; readers that can only decode from the start of the image
+     * decode the rows above each strip again, so strips should be large. In
+     * case of any problem this method returns null.
+     * 
+     * @param imageFile  The image file to be decoded.
+     * @param rows       The largest number of rows in a strip, rounded up to an even number.
+     * @return           The strips of the image or null if it could not be opened.
+     */
+    public static ImageStrips openStrips(File imageFile, int rows)
+    {
+        ImageStrips direct = BmpStrips.open(imageFile, rows);
+        if(direct == null) {
+            direct = PngStrips.open(imageFile, rows);
+        }
+        if(direct != null) {
+            return direct;
+        }
+        try {
+            ImageInputStream stream = ImageIO.createImageInputStream(imageFile);
+            if(stream == null) {
+                return null;
+            }
+            ImageReader reader = openReader(stream);
+            if(reader == null) {
+                stream.close();
+                return null;
+            }
+            return new ReaderStrips(reader, stream, rows + rows % 2);
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /*
+     * Find a reader for the first image of a stream, the same one ImageIO.read uses
+     */
+    private static ImageReader openReader(ImageInputStream stream)
+    {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if(!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, false, true);
+        return reader;
+    }
+
+    /*
+     * Strips of rows decoded through the source regions of an image reader
+     */
+    private static class ReaderStrips implements ImageStrips
+    {
+        private final ImageReader reader;
+        private final ImageInputStream stream;
+        private final int rows;
+        private final int width;
+        private final int height;
+        private int nextRow = 0;
+
+        ReaderStrips(ImageReader reader, ImageInputStream stream, int rows) throws IOException
+        {
+            this.reader = reader;
+            this.stream = stream;
+            this.rows = rows;
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        }
+
+        public int getWidth()
+        {
+            return width;
+        }
+
+        public int getHeight()
+        {
+            return height;
+        }
+
+        public ChannelPlanes next() throws IOException
+        {
+            if(nextRow >= height) {
+                return null;
+            }
+            int stripRows = Math.min(rows, height - nextRow);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, nextRow, width, stripRows));
+            BufferedImage strip;
+            try {
+                strip = reader.read(0, param);
+            }
+            catch(RuntimeException exc) {
+                throw new IOException("cannot decode rows " + nextRow + " to " + (nextRow + stripRows), exc);
+            }
+            nextRow += stripRows;
+            return ChannelPlanes.fromImage(strip);
+        }
+
+        public void rewind()
+        {
+            nextRow = 0;
+        }
+
+        public void close() throws IOException
+        {
+            reader.dispose();
+            stream.close();
+        }
+    }
+
+    /**
+     * Write an image file to disk. The file format is JPG. In case of any 
+     * problem the methd just silently returns.
+     * 
+     * @param image  The image to be saved.
+     * @param file   The file to save to.
+     */
+    public static void saveImage(BufferedImage image, File file)
+    {
+        try {
+            ImageIO.write(image, IMAGE_FORMAT, file);
+        }
+        catch(IOException exc) {
+            return;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package stegexpose;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+
+/**
+ * ImageStrips
+ *
+ * An image decoded a strip of rows at a time, top to bottom, so that it never has to be held in memory
+ * as a whole. Every strip but the last one has an even number of rows, so the non-overlapping vertical
+ * pairs of the detectors never cross from one strip into the next.
+ *
+ * @version 0.1
+ */
+public interface ImageStrips extends Closeable {
+
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Decodes the rows following the previous strip. The planes returned may be reused for a later
+	 * strip, so they are only valid until the next call.
+	 *
+	 * @return 		channel planes of the rows, null once all rows have been delivered
+	 * @throws IOException 	if the image cannot be decoded
+	 */
+	ChannelPlanes next() throws IOException;
+
+	/**
+	 * Starts again from the first row, for detectors which need a second pass over the image
+	 *
+	 * @throws IOException 	if the image cannot be decoded again
+	 */
+	void rewind() throws IOException;
+}
@@ -0,0 +1,194 @@
+package stegexpose;
+
+import java.util.Arrays;
+
+/**
+ * PairHistogram
+ *
+ * Co-occurrence matrices of adjacent pixel pairs for the red, green and blue channels of an image.
+ * Horizontal pairs are (x,y),(x+1,y) for even x and vertical pairs are (x,y),(x,y+1) for even y, so
+ * the pairs do not overlap. The count of pairs with first value u and second value v is at index
+ * u*256+v.
+ *
+ * Every count used by PrimarySets and SamplePairs is a sum over these matrices, so both detectors can
+ * be computed for any channel from a single pass over the image. The matrices can also be built from
+ * strips or bands of rows, so that an image never has to be held in memory as a whole and can be
+ * read together with the counts of the other detectors (see DetectorEngine). Counts are kept in
+ * int arrays while the image is scanned and carried over into long arrays before they could overflow.
+ *
+ * @version 0.1
+ */
+public class PairHistogram implements Detector.Accumulator {
+
+	//number of cells in a co-occurrence matrix
+	public static final int SIZE = 256*256;
+
+	//accumulator type of the detectors reading the pair histogram
+	public static final Detector.AccumulatorType ACCUMULATOR_TYPE = new Detector.AccumulatorType(){
+		public Detector.Accumulator newAccumulator(int width, int height){
+			return new PairHistogram(width);
+		}
+	};
+
+	private final int width;
+	private int height = 0;
+	//matrices indexed by colour code, with the counts carried over from the int matrices (null until needed)
+	private final int[][] horizontal = new int[3][SIZE];
+	private final int[][] vertical = new int[3][SIZE];
+	private long[][] carriedHorizontal = null;
+	private long[][] carriedVertical = null;
+	//number of pairs counted in each int matrix since the last carry
+	private long pending = 0;
+	//total counts as handed out by the getters (null until asked for or after more rows were added)
+	private long[][] totalHorizontal = null;
+	private long[][] totalVertical = null;
+
+
+	/**
+	 * Creates empty matrices for an image of the given width, to be filled a strip of rows at a time
+	 *
+	 * @param width		width of the image
+	 */
+	public PairHistogram(int width){
+		this.width = width;
+	}
+
+	/**
+	 * Builds the co-occurrence matrices of all three channels in one pass over the image, two rows
+	 * at a time.
+	 *
+	 * @param image		image to be analysed
+	 * @return 			pair histogram of the image
+	 */
+	public static PairHistogram fromPlanes(ChannelPlanes image){
+		PairHistogram pairs = new PairHistogram(image.getWidth());
+		pairs.add(image);
+		return pairs;
+	}
+
+	/**
+	 * Adds the pairs of the next strip of rows of the image. Vertical pairs never cross from one strip
+	 * into the next, so every strip but the last one must have an even number of rows.
+	 *
+	 * @param strip		rows following the rows added so far
+	 * @throws IllegalArgumentException 	if the strip is not as wide as the image or follows a strip with an odd number of rows
+	 */
+	public void add(ChannelPlanes strip){
+		add(strip, height, height, height + strip.getHeight());
+	}
+
+	/**
+	 * Adds the pairs of the next band of rows of the image. Vertical pairs never cross from one band
+	 * into the next, so every band but the last one must have an even number of rows.
+	 *
+	 * @param planes		channel planes holding the rows
+	 * @param firstRow		row of the image the first row of the planes is
+	 * @param fromRow		first row of the image to be added, the row after the rows added so far
+	 * @param toRow			row of the image after the last row to be added
+	 * @throws IllegalArgumentException 	if the planes are not as wide as the image or the band follows one with an odd number of rows
+	 */
+	public void add(ChannelPlanes planes, int firstRow, int fromRow, int toRow){
+		if(planes.getWidth() != width)
+			throw new IllegalArgumentException("Strip width differs from image width");
+		if(height % 2 != 0)
+			throw new IllegalArgumentException("Only the last strip may have an odd number of rows");
+		int rows = toRow - fromRow;
+		int offset = (fromRow - firstRow)*width;
+
+		//no count of an int matrix may exceed Integer.MAX_VALUE
+		long pairs = (long)rows*width;
+		if(pending + pairs > Integer.MAX_VALUE)
+			carry();
+		pending += pairs;
+		totalHorizontal = null;
+		totalVertical = null;
+
+		byte[][] channels = {planes.getRed(), planes.getGreen(), planes.getBlue()};
+		for(int y=0; y<rows; y+=2){
+			boolean pairedRow = y+1 < rows;
+			for(int c=0; c<3; c++){
+				byte[] plane = channels[c];
+				int[] h = horizontal[c];
+				int[] v = vertical[c];
+				int row = offset + y*width;
+				int next = row+width;
+				//horizontal pairs of both rows
+				for(int x=0; x+1<width; x+=2){
+					h[((plane[row+x] & 0xff) << 8) | (plane[row+x+1] & 0xff)]++;
+					if(pairedRow)
+						h[((plane[next+x] & 0xff) << 8) | (plane[next+x+1] & 0xff)]++;
+				}
+				//vertical pairs between the rows
+				if(pairedRow)
+					for(int x=0; x<width; x++)
+						v[((plane[row+x] & 0xff) << 8) | (plane[next+x] & 0xff)]++;
+			}
+		}
+		height += rows;
+	}
+
+	/*
+	 * Moves the counts of the int matrices into the long matrices
+	 */
+	private void carry(){
+		if(carriedHorizontal == null){
+			carriedHorizontal = new long[3][SIZE];
+			carriedVertical = new long[3][SIZE];
+		}
+		for(int c=0; c<3; c++){
+			for(int i=0; i<SIZE; i++){
+				carriedHorizontal[c][i] += horizontal[c][i];
+				carriedVertical[c][i] += vertical[c][i];
+			}
+			Arrays.fill(horizontal[c], 0);
+			Arrays.fill(vertical[c], 0);
+		}
+		pending = 0;
+	}
+
+	/*
+	 * Adds up the int and long matrices of a colour
+	 */
+	private long[] total(int[] counts, long[] carried){
+		long[] total = new long[SIZE];
+		for(int i=0; i<SIZE; i++)
+			total[i] = carried == null ? counts[i] : carried[i] + counts[i];
+		return total;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Gets the matrix of horizontal pairs of a colour
+	 *
+	 * @param colour	colour code as used by the detectors (0 red, 1 green, 2 blue)
+	 * @return 			co-occurrence matrix (must not be modified)
+	 */
+	public long[] getHorizontal(int colour){
+		if(totalHorizontal == null)
+			totalHorizontal = new long[3][];
+		if(totalHorizontal[colour] == null)
+			totalHorizontal[colour] = total(horizontal[colour], carriedHorizontal == null ? null : carriedHorizontal[colour]);
+		return totalHorizontal[colour];
+	}
+
+	/**
+	 * Gets the matrix of vertical pairs of a colour
+	 *
+	 * @param colour	colour code as used by the detectors (0 red, 1 green, 2 blue)
+	 * @return 			co-occurrence matrix (must not be modified)
+	 */
+	public long[] getVertical(int colour){
+		if(totalVertical == null)
+			totalVertical = new long[3][];
+		if(totalVertical[colour] == null)
+			totalVertical[colour] = total(vertical[colour], carriedVertical == null ? null : carriedVertical[colour]);
+		return totalVertical[colour];
+	}
+}
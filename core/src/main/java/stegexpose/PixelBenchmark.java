@@ -20,6 +20,9 @@
  *		@author Kathryn Hempstalk
  */
 
+package stegexpose;
+
+
 
 /**
  * A convience class to provide all the base methods
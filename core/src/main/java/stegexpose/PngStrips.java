@@ -0,0 +1,514 @@
+package stegexpose;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+
+
+/**
+ * PngStrips
+ *
+ * Decodes PNG files straight into channel planes, without going through BufferedImage. Scanlines are
+ * inflated and unfiltered one at a time into two reusable row buffers and unpacked into the strip being
+ * filled, so decoding needs memory for a strip of rows only.
+ *
+ * Only non-interlaced PNGs with 8 bits per sample in grey, RGB, RGBA or palette colour are decoded,
+ * and the values are exactly those ImageIO gives; open returns null for every other PNG, which is
+ * then left to ImageIO. Files ImageIO might treat differently (colour profiles, grey with a
+ * transparent colour, palettes of 16 colours or fewer, chunks failing their checksum) are left to
+ * it as well.
+ *
+ * @version 0.1
+ */
+public class PngStrips implements ImageStrips {
+
+	private static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504c5445;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454e44;
+	private static final int TRNS = 0x74524e53;
+	private static final int ICCP = 0x69434350;
+	//colour types
+	private static final int GREY = 0;
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+	private static final int RGBA = 6;
+	//largest chunk read into memory
+	private static final int MAX_CHUNK = 1 << 26;
+	//rows decoded at a time when the caller does not need more
+	private static final int STRIP_ROWS = 64;
+
+	//red, green and blue ImageIO gives for every grey value (null if that could not be worked out)
+	private static final byte[][] GREY_LEVELS = greyLevels();
+
+	private final Source source;
+	private final int width;
+	private final int height;
+	private final int colourType;
+	private final int rows;
+	//samples per pixel and bytes per scanline, without the filter byte
+	private final int samples;
+	private final int rowBytes;
+	//red, green and blue of every palette index or grey value (null for RGB and RGBA)
+	private byte[][] levels = null;
+
+	private InputStream in;
+	private Inflater inflater;
+	private DataInputStream chunks;
+	private int idatLeft;
+	private byte[] row;
+	private byte[] previous;
+	private ChannelPlanes strip;
+	private int nextRow;
+
+
+	/**
+	 * Opens a PNG file held in memory
+	 *
+	 * @param data		contents of the file
+	 * @param rows		largest number of rows in a strip, rounded up to an even number
+	 * @return 			strips of the image, null if it is not a PNG this class decodes
+	 */
+	public static PngStrips open(final byte[] data, int rows){
+		return open(new Source(){
+			public InputStream open(){
+				return new ByteArrayInputStream(data);
+			}
+		}, rows);
+	}
+
+	/**
+	 * Opens a PNG file on disk
+	 *
+	 * @param file		the file
+	 * @param rows		largest number of rows in a strip, rounded up to an even number
+	 * @return 			strips of the image, null if it is not a PNG this class decodes
+	 */
+	public static PngStrips open(final File file, int rows){
+		return open(new Source(){
+			public InputStream open() throws IOException{
+				return new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			}
+		}, rows);
+	}
+
+	private static PngStrips open(Source source, int rows){
+		PngStrips strips = null;
+		try{
+			strips = new PngStrips(source, rows);
+			strips.start();
+			return strips;
+		}
+		catch(IOException e){
+		}
+		catch(IllegalArgumentException e){
+		}
+		if(strips != null)
+			strips.close();
+		return null;
+	}
+
+	/**
+	 * Decodes a PNG file held in memory into channel planes
+	 *
+	 * @param data		contents of the file
+	 * @return 			channel planes of the image, null if it is not a PNG this class decodes
+	 */
+	public static ChannelPlanes decode(byte[] data){
+		return decode(open(data, STRIP_ROWS));
+	}
+
+	/**
+	 * Decodes a PNG file on disk into channel planes
+	 *
+	 * @param file		the file
+	 * @return 			channel planes of the image, null if it is not a PNG this class decodes
+	 */
+	public static ChannelPlanes decode(File file){
+		return decode(open(file, STRIP_ROWS));
+	}
+
+	private static ChannelPlanes decode(PngStrips strips){
+		if(strips == null)
+			return null;
+		try{
+			if((long)strips.width*strips.height > Integer.MAX_VALUE)
+				return null;
+			ChannelPlanes image = new ChannelPlanes(strips.width, strips.height);
+			strips.fill(image, strips.height);
+			return image;
+		}
+		catch(IOException e){
+			return null;
+		}
+		finally{
+			strips.close();
+		}
+	}
+
+	/*
+	 * Reads the header of the image, up to its first IDAT chunk
+	 */
+	private PngStrips(Source source, int rows) throws IOException{
+		this.source = source;
+		InputStream header = source.open();
+		try{
+			DataInputStream data = new DataInputStream(header);
+			byte[] signature = new byte[SIGNATURE.length];
+			data.readFully(signature);
+			if(!Arrays.equals(signature, SIGNATURE))
+				throw new IOException("not a PNG file");
+			byte[] ihdr = readChunk(data, IHDR);
+			DataInputStream fields = new DataInputStream(new ByteArrayInputStream(ihdr));
+			width = fields.readInt();
+			height = fields.readInt();
+			int bitDepth = fields.readUnsignedByte();
+			colourType = fields.readUnsignedByte();
+			int compression = fields.readUnsignedByte();
+			int filter = fields.readUnsignedByte();
+			int interlace = fields.readUnsignedByte();
+			if(width <= 0 || height <= 0 || bitDepth != 8 || compression != 0 || filter != 0 || interlace != 0)
+				throw new IOException("unsupported PNG");
+			if(colourType == GREY)
+				samples = 1;
+			else if(colourType == RGB)
+				samples = 3;
+			else if(colourType == PALETTE)
+				samples = 1;
+			else if(colourType == RGBA)
+				samples = 4;
+			else
+				throw new IOException("unsupported PNG colour type " + colourType);
+			if((long)width*samples > Integer.MAX_VALUE - 1)
+				throw new IOException("image too wide");
+			rowBytes = width*samples;
+			if(colourType == GREY){
+				if(GREY_LEVELS == null)
+					throw new IOException("grey levels unknown");
+				levels = GREY_LEVELS;
+			}
+
+			//the chunks up to the first IDAT, only those affecting the colours are looked at
+			while(true){
+				int length = data.readInt();
+				int type = data.readInt();
+				if(type == IDAT)
+					break;
+				if(type == IEND)
+					throw new IOException("no image data");
+				if(type == ICCP || (type == TRNS && colourType == GREY))
+					throw new IOException("left to ImageIO");
+				byte[] content = readChunk(data, type, length);
+				if(type == PLTE && colourType == PALETTE){
+					if(content.length % 3 != 0 || content.length > 3*256)
+						throw new IOException("bad palette");
+					//ImageIO pads palettes of up to 16 colours to a smaller colour model, whose colours
+					//beyond the palette are not simply black
+					if(content.length <= 3*16)
+						throw new IOException("left to ImageIO");
+					//indices beyond the palette are black, as ImageIO makes them
+					levels = new byte[3][256];
+					for(int i=0; i<content.length/3; i++)
+						for(int c=0; c<3; c++)
+							levels[c][i] = content[3*i + c];
+				}
+			}
+			if(colourType == PALETTE && levels == null)
+				throw new IOException("no palette");
+		}
+		finally{
+			header.close();
+		}
+		this.rows = Math.max(2, Math.min(rows + rows % 2, STRIP_ROWS));
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Decodes the rows following the previous strip. The planes returned are reused for the next
+	 * strip of the same height, so they must not be kept.
+	 *
+	 * @return 		channel planes of the rows, null once all rows have been delivered
+	 * @throws IOException 	if the image cannot be decoded
+	 */
+	public ChannelPlanes next() throws IOException{
+		if(nextRow >= height)
+			return null;
+		int stripRows = Math.min(rows, height - nextRow);
+		if(strip == null || strip.getHeight() != stripRows)
+			strip = new ChannelPlanes(width, stripRows);
+		fill(strip, stripRows);
+		return strip;
+	}
+
+	public void rewind() throws IOException{
+		close();
+		start();
+	}
+
+	public void close(){
+		if(inflater != null)
+			inflater.end();
+		inflater = null;
+		if(in != null){
+			try{
+				in.close();
+			}
+			catch(IOException e){}
+		}
+		in = null;
+	}
+
+	/*
+	 * Opens the source again and skips to the first IDAT chunk
+	 */
+	private void start() throws IOException{
+		in = source.open();
+		chunks = new DataInputStream(in);
+		chunks.skipBytes(SIGNATURE.length);
+		while(true){
+			int length = chunks.readInt();
+			int type = chunks.readInt();
+			if(type == IDAT){
+				idatLeft = length;
+				break;
+			}
+			skipFully(chunks, length + 4);
+		}
+		inflater = new Inflater();
+		row = new byte[rowBytes];
+		previous = new byte[rowBytes];
+		nextRow = 0;
+	}
+
+	/*
+	 * Decodes the next rows into the first rows of the planes
+	 */
+	private void fill(ChannelPlanes planes, int count) throws IOException{
+		byte[] red = planes.getRed();
+		byte[] green = planes.getGreen();
+		byte[] blue = planes.getBlue();
+		int p = 0;
+		for(int y=0; y<count; y++){
+			readRow();
+			if(levels != null){
+				byte[] r = levels[0], g = levels[1], b = levels[2];
+				for(int x=0; x<width; x++){
+					int index = row[x] & 0xff;
+					red[p] = r[index];
+					green[p] = g[index];
+					blue[p] = b[index];
+					p++;
+				}
+			}
+			else{
+				for(int i=0; i<rowBytes; i+=samples){
+					red[p] = row[i];
+					green[p] = row[i+1];
+					blue[p] = row[i+2];
+					p++;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Inflates and unfilters the next scanline into row, keeping the scanline before it in previous
+	 */
+	private void readRow() throws IOException{
+		byte[] swap = previous;
+		previous = row;
+		row = swap;
+		if(nextRow == 0)
+			Arrays.fill(previous, (byte)0);
+		int filter = inflateByte();
+		inflateFully(row);
+		int bpp = samples;
+		switch(filter){
+		case 0:
+			break;
+		case 1:
+			for(int i=bpp; i<rowBytes; i++)
+				row[i] += row[i-bpp];
+			break;
+		case 2:
+			for(int i=0; i<rowBytes; i++)
+				row[i] += previous[i];
+			break;
+		case 3:
+			for(int i=0; i<bpp; i++)
+				row[i] += (previous[i] & 0xff) >> 1;
+			for(int i=bpp; i<rowBytes; i++)
+				row[i] += ((row[i-bpp] & 0xff) + (previous[i] & 0xff)) >> 1;
+			break;
+		case 4:
+			for(int i=0; i<bpp; i++)
+				row[i] += previous[i];
+			for(int i=bpp; i<rowBytes; i++){
+				int a = row[i-bpp] & 0xff;
+				int b = previous[i] & 0xff;
+				int c = previous[i-bpp] & 0xff;
+				int pa = Math.abs(b - c);
+				int pb = Math.abs(a - c);
+				int pc = Math.abs(a + b - 2*c);
+				row[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+			}
+			break;
+		default:
+			throw new IOException("unknown filter type " + filter + " in row " + nextRow);
+		}
+		nextRow++;
+	}
+
+	private final byte[] one = new byte[1];
+
+	private int inflateByte() throws IOException{
+		inflateFully(one);
+		return one[0] & 0xff;
+	}
+
+	/*
+	 * Inflates image data until the buffer is full, reading further IDAT chunks as needed
+	 */
+	private void inflateFully(byte[] buffer) throws IOException{
+		int done = 0;
+		byte[] input = null;
+		try{
+			while(done < buffer.length){
+				int n = inflater.inflate(buffer, done, buffer.length - done);
+				done += n;
+				if(n > 0)
+					continue;
+				if(inflater.finished() || inflater.needsDictionary())
+					throw new EOFException("image data ends in row " + nextRow);
+				if(inflater.needsInput()){
+					if(input == null)
+						input = new byte[1 << 16];
+					inflater.setInput(input, 0, readIdat(input));
+				}
+			}
+		}
+		catch(DataFormatException e){
+			throw new IOException("corrupt image data in row " + nextRow, e);
+		}
+	}
+
+	/*
+	 * Reads the next bytes of image data, moving on to the next IDAT chunk at the end of one
+	 */
+	private int readIdat(byte[] buffer) throws IOException{
+		while(idatLeft == 0){
+			chunks.skipBytes(4);
+			int length = chunks.readInt();
+			int type = chunks.readInt();
+			if(type != IDAT)
+				throw new EOFException("image data ends in row " + nextRow);
+			idatLeft = length;
+		}
+		int n = in.read(buffer, 0, Math.min(buffer.length, idatLeft));
+		if(n < 0)
+			throw new EOFException("file ends in row " + nextRow);
+		idatLeft -= n;
+		return n;
+	}
+
+	/*
+	 * Reads the content of a chunk which has to come next, checking its CRC
+	 */
+	private static byte[] readChunk(DataInputStream data, int expected) throws IOException{
+		int length = data.readInt();
+		int type = data.readInt();
+		if(type != expected)
+			throw new IOException("unexpected chunk");
+		return readChunk(data, type, length);
+	}
+
+	/*
+	 * Reads the content of a chunk whose length and type have been read, checking its CRC
+	 */
+	private static byte[] readChunk(DataInputStream data, int type, int length) throws IOException{
+		if(length < 0 || length > MAX_CHUNK)
+			throw new IOException("chunk too long");
+		byte[] content = new byte[length];
+		data.readFully(content);
+		CRC32 crc = new CRC32();
+		crc.update(type >>> 24);
+		crc.update(type >>> 16);
+		crc.update(type >>> 8);
+		crc.update(type);
+		crc.update(content);
+		if((int)crc.getValue() != data.readInt())
+			throw new IOException("chunk fails its checksum");
+		return content;
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException{
+		while(n > 0){
+			long skipped = in.skip(n);
+			if(skipped <= 0){
+				if(in.read() < 0)
+					throw new EOFException();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/*
+	 * Works out the red, green and blue ImageIO gives for each grey value, by writing every grey value
+	 * into a PNG and reading it back
+	 */
+	private static byte[][] greyLevels(){
+		try{
+			BufferedImage grey = new BufferedImage(256, 2, BufferedImage.TYPE_BYTE_GRAY);
+			WritableRaster raster = grey.getRaster();
+			for(int i=0; i<256; i++){
+				raster.setSample(i, 0, 0, i);
+				raster.setSample(i, 1, 0, i);
+			}
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			if(!ImageIO.write(grey, "png", png))
+				return null;
+			BufferedImage read = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+			if(read == null)
+				return null;
+			ChannelPlanes planes = ChannelPlanes.fromImage(read);
+			return new byte[][]{Arrays.copyOf(planes.getRed(), 256), Arrays.copyOf(planes.getGreen(), 256), Arrays.copyOf(planes.getBlue(), 256)};
+		}
+		catch(IOException e){
+			return null;
+		}
+		catch(RuntimeException e){
+			return null;
+		}
+	}
+
+	/*
+	 * Where the file is read from, opened again for a second pass
+	 */
+	private interface Source {
+		InputStream open() throws IOException;
+	}
+}
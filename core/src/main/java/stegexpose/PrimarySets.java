@@ -5,68 +5,93 @@
  * author: Bastien Faure
  */
 
+package stegexpose;
+
+
 
-import java.awt.Color;
-import java.awt.image.BufferedImage;
 
 public class PrimarySets {
 	
-	private BufferedImage image;
+	/*
+	 * Primary sets of the red horizontal pairs as a detector for DetectorEngine, reading the pair histogram
+	 */
+	public static final Detector DETECTOR = new Detector()
+	{
+		public String getName()
+		{
+			return "primary_sets";
+		}
+		
+		public Detector.AccumulatorType getAccumulatorType()
+		{
+			return PairHistogram.ACCUMULATOR_TYPE;
+		}
+		
+		public double getResult(Detector.Accumulator counts)
+		{
+			PrimarySets pso = new PrimarySets((PairHistogram)counts, RSAnalysis.ANALYSIS_COLOUR_RED);
+			pso.run();
+			return pso.getResult();
+		}
+	};
+	
+	private PairHistogram pairs;
+	private int colour;
 	private double result;
 	
-	public PrimarySets(BufferedImage image)
+	public PrimarySets(ChannelPlanes image)
+	{
+		this(PairHistogram.fromPlanes(image), RSAnalysis.ANALYSIS_COLOUR_RED);
+	}
+	
+	/*
+	 * Primary sets of the horizontal pairs of one colour (red in the original method)
+	 */
+	public PrimarySets(PairHistogram pairs, int colour)
 	{
-		this.image = image;
+		this.pairs = pairs;
+		this.colour = colour;
 	}
 	
 	public void run()
 	{
-		int width = image.getWidth();
-		int height = image.getHeight();
-		int red, green, blue;
-		int red2, green2, blue2;
+		long[] across = pairs.getHorizontal(colour);
+		long n;
 		
-		int P=0, X=0, Y=0, V=0, W=0, Z=0;
+		long P=0, X=0, Y=0, V=0, W=0, Z=0;
 		double a, b, c, delta, p1, p2;
 		
-		for(int j=0; j<height; j++)
+		for(int red=0; red<256; red++)
 		{
-			for(int i=0; i<width; i+=2)
+			for(int red2=0; red2<256; red2++)
 			{
-				if( (i+1) < width)
+				n = across[(red << 8) | red2];
+				if(n != 0)
 				{
-					red = new Color(image.getRGB(i,j)).getRed();
-					/*green = new Color(image.getRGB(i,j)).getGreen();
-					blue = new Color(image.getRGB(i,j)).getBlue();*/
-					
-					red2 = new Color(image.getRGB(i+1,j)).getRed();
-					/*green2 = new Color(image.getRGB(i+1,j)).getGreen();
-					blue2 = new Color(image.getRGB(i+1,j)).getBlue();*/
-					
-					P++;
+					P += n;
 					
 					// (v is even and u < v)  or  (v is odd and u > v)
 					if((((red2&0x01) == 0) && (red < red2) ) || ( ((red2&0x01) == 1) && (red > red2)))
 					{
-						X++;
+						X += n;
 					}
 					// (v is even and u > v)  or  (v is odd and u < v)
 					else if((((red2&0x01) == 0) && (red > red2) ) || ( ((red2&0x01) == 1) && (red < red2)))
 					{
-						Y++;
+						Y += n;
 						// (u even and v odd) or (u odd and v even)
 						if((((red&0x01) == 0) && ((red2&0x01) == 1)) || (((red&0x01) == 1) && ((red2&0x0) == 0))) 
 						{
-							W++;
+							W += n;
 						}
 						else
 						{
-							V++;
+							V += n;
 						}
 					}
 					else if(red == red2)
 					{
-						Z++;
+						Z += n;
 					}
 				}
 			}
@@ -0,0 +1,986 @@
+/*
+ *    Digital Invisible Ink Toolkit
+ *    Copyright (C) 2005  K. Hempstalk	
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *		@author Kathryn Hempstalk
+ */
+
+package stegexpose;
+
+
+
+import java.util.Random;
+import java.util.Vector;
+import java.util.Enumeration;
+import javax.imageio.ImageIO;
+import java.io.File;
+
+
+/**
+ * RS analysis for a stego-image.
+ * <P>
+ * RS analysis is a system for detecting LSB steganography proposed by
+ * Dr. Fridrich at Binghamton University, NY.  You can visit her
+ * webpage for more information - 
+ * {@link http://www.ws.binghamton.edu/fridrich/} <BR>
+ * Implemented as described in "Reliable detection of LSB steganography
+ * in color and grayscale images" by J. Fridrich, M. Goljan and R. Du. 
+ * <BR>
+ * This code was produced with the aid of the authors and has been 
+ * verified as a correct implementation of RS Analysis.  Their assistance
+ * has proved invaluable.
+ * <P>
+ * An analysis keeps no state between calls, so a single instance can
+ * analyse images on several threads at once.
+ *
+ * @author Kathryn Hempstalk
+ */
+public class RSAnalysis extends PixelBenchmark{
+	
+	//CONSTRUCTORS
+	
+	/**
+	 * Creates a new RS analysis with a given mask size of m x n.
+	 *
+	 * Each alternating bit is set to 1.  Eg for a mask of size 2x2
+	 * the resulting mask will be {1,0;0,1}.  Two masks are used - one is
+	 * the inverse of the other.
+	 *
+	 * @param m The x mask size.
+	 * @param n The y mask size.
+	 */
+	public RSAnalysis(int m, int n){
+		//two masks
+		mMask = new int[2][m * n];
+		
+		//iterate through them and set alternating bits
+		int k = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j < m; j++){
+				if ( ((j % 2) == 0  && (i % 2) == 0 )
+						|| ((j % 2) == 1 && (i % 2) == 1 )){
+					mMask[0][k] = 1;
+					mMask[1][k] = 0;
+				}else{
+					mMask[0][k] = 0;
+					mMask[1][k] = 1;
+				}
+				k++;
+			}
+		}
+		
+		//set up the mask size.
+		mM = m;
+		mN = n;
+	}
+	
+	
+	//FUNCTIONS
+	
+	/**
+	 * Does an RS analysis of a given image.  
+	 * <P>
+	 * The analysis data returned is specified by name in
+	 * the getResultNames() method.
+	 *
+	 * @param image The image to analyse.
+	 * @param colour The colour to analyse.
+	 * @param overlap Whether the blocks should overlap or not.
+	 * @return The analysis information.
+	 */
+	public double[] doAnalysis(ChannelPlanes image, int colour, boolean overlap){
+		byte[][] planes = {image.getChannel(colour)};
+		long[][] counts = countGroups(planes, image.getWidth(), image.getHeight());
+		return getResults(counts[0], overlap, image.getWidth(), image.getHeight());
+	}
+	
+	
+	/**
+	 * Does an RS analysis of all three colours of a given image, with
+	 * and without overlapping blocks, in a single pass over the image.
+	 * <P>
+	 * Each element is the same as the result of doAnalysis(image, colour,
+	 * overlap) and is specified by name in the getResultNames() method.
+	 *
+	 * @param image The image to analyse.
+	 * @return The analysis information, indexed by [colour][0 for 
+	 * overlapping blocks, 1 for non-overlapping blocks].
+	 */
+	public double[][][] doAnalysis(ChannelPlanes image){
+		int imgx = image.getWidth(), imgy = image.getHeight();
+		byte[][] planes = new byte[3][];
+		planes[ANALYSIS_COLOUR_RED] = image.getRed();
+		planes[ANALYSIS_COLOUR_GREEN] = image.getGreen();
+		planes[ANALYSIS_COLOUR_BLUE] = image.getBlue();
+		
+		long[][] counts = countGroups(planes, imgx, imgy);
+		return getResults(counts, imgx, imgy);
+	}
+	
+	
+	/**
+	 * Starts an RS analysis of all three colours of an image which is
+	 * delivered as strips of rows, top to bottom, so that the image never
+	 * has to be held in memory as a whole.
+	 *
+	 * @param imgx The width of the image.
+	 * @param imgy The height of the image.
+	 * @return The analysis, to be given every strip of the image in turn.
+	 */
+	public Strips analyseStrips(int imgx, int imgy){
+		return new Strips(imgx, imgy);
+	}
+	
+	
+	/**
+	 * Gets this analysis as a detector for DetectorEngine, counting the
+	 * groups of all three colours a band of rows at a time. Its output is
+	 * the average of the estimated message lengths (result 26) of all
+	 * colours with and without overlapping groups.
+	 *
+	 * @return The detector.
+	 */
+	public Detector detector(){
+		final Detector.AccumulatorType type = new Detector.AccumulatorType(){
+			public Detector.Accumulator newAccumulator(int width, int height){
+				return new Strips(width, height);
+			}
+		};
+		return new Detector(){
+			public String getName(){
+				return "rs_analysis";
+			}
+			
+			public Detector.AccumulatorType getAccumulatorType(){
+				return type;
+			}
+			
+			public double getResult(Detector.Accumulator counts){
+				double[][][] results = ((Strips)counts).getResults();
+				double overlapping = (results[ANALYSIS_COLOUR_RED][0][26] + results[ANALYSIS_COLOUR_GREEN][0][26] + results[ANALYSIS_COLOUR_BLUE][0][26]) / 3;
+				double nonOverlapping = (results[ANALYSIS_COLOUR_RED][1][26] + results[ANALYSIS_COLOUR_GREEN][1][26] + results[ANALYSIS_COLOUR_BLUE][1][26]) / 3;
+				return (overlapping + nonOverlapping) / 2;
+			}
+		};
+	}
+	
+	
+	/**
+	 * An RS analysis of an image delivered as strips or bands of rows.
+	 * Groups reaching beyond the rows held are counted once the next
+	 * rows arrive, from a copy of the last rows, so that they are counted
+	 * exactly as for the image as a whole.
+	 */
+	public class Strips implements Detector.Accumulator {
+		private final int imgx;
+		private final int imgy;
+		private final long[][] counts = new long[3][COUNTS];
+		//the row the next band starts at
+		private int nextRow = 0;
+		//the last rows of the previous band, whose groups end in the next one (null if there are none)
+		private ChannelPlanes carried = null;
+		
+		private Strips(int imgx, int imgy){
+			this.imgx = imgx;
+			this.imgy = imgy;
+		}
+		
+		/**
+		 * Counts the groups of the next strip of the image.
+		 *
+		 * @param strip The rows following the rows added so far.
+		 */
+		public void add(ChannelPlanes strip){
+			add(strip, nextRow, nextRow, nextRow + strip.getHeight());
+		}
+		
+		/**
+		 * Counts the groups starting in the next band of rows of the
+		 * image. Every band but the last must have at least mN - 1 rows.
+		 *
+		 * @param rows The channel planes holding the band, and possibly
+		 * rows before and after it.
+		 * @param firstRow The row of the image the first row of the
+		 * planes is.
+		 * @param fromRow The first row of the band, the row after the
+		 * rows added so far.
+		 * @param toRow The row after the last row of the band.
+		 */
+		public void add(ChannelPlanes rows, int firstRow, int fromRow, int toRow){
+			if(rows.getWidth() != imgx)
+				throw new IllegalArgumentException("Strip width differs from image width");
+			int endRow = firstRow + rows.getHeight();
+			
+			//groups starting in the rows kept from the previous band
+			if(carried != null){
+				int carriedRow = fromRow - carried.getHeight();
+				ChannelPlanes joined = join(carried, slice(rows, fromRow - firstRow, Math.min(mN - 1, endRow - fromRow)));
+				countGroups(planes(joined), imgx, imgy, carriedRow, carriedRow, carriedRow + joined.getHeight() - mN + 1, counts);
+			}
+			
+			//groups starting in this band whose rows are all held
+			int held = endRow - mN + 1;
+			countGroups(planes(rows), imgx, imgy, firstRow, fromRow, Math.min(toRow, held), counts);
+			
+			//keep the rows of the groups starting in this band but ending in the next one
+			int keep = Math.max(fromRow, held);
+			carried = keep < toRow ? slice(rows, keep - firstRow, toRow - keep) : null;
+			nextRow = toRow;
+		}
+		
+		/**
+		 * Gets the results once every strip has been added.
+		 *
+		 * @return The analysis information, indexed by [colour][0 for
+		 * overlapping blocks, 1 for non-overlapping blocks], the same as
+		 * doAnalysis(image) returns for the whole image.
+		 */
+		public double[][][] getResults(){
+			if(Math.min(Math.max(imgx - 2, 0), imgx - mM) < 0 || Math.min(Math.max(imgy - 2, 0), imgy - mN) < 0)
+				throw new IllegalArgumentException("Image is smaller than the mask");
+			return RSAnalysis.this.getResults(counts, imgx, imgy);
+		}
+	}
+	
+	
+	/**
+	 * Starts an RS analysis of a random sample of the rows of an image,
+	 * which can be widened step by step up to the whole image.
+	 *
+	 * @param image The image to analyse.
+	 * @param seed The seed of the random sample, the same seed always
+	 * gives the same sample.
+	 * @return The analysis of the first sample.
+	 */
+	public Sample analyseSample(ChannelPlanes image, long seed){
+		return new Sample(image, seed);
+	}
+	
+	
+	/**
+	 * An RS analysis of a stratified random sample of the rows of an
+	 * image. The groups are counted in bands of mN rows. The image is
+	 * split into as many strata of neighbouring bands as the first sample
+	 * takes bands, and every step takes one more band from each stratum,
+	 * so that the sample is spread over the whole image. Every step at
+	 * least doubles the sample, and once every band has been taken the
+	 * counts are those of the whole image.
+	 * <P>
+	 * The sampled bands are dealt out to GROUPS groups in turn, so that
+	 * the spread of the results can be estimated by leaving out one group
+	 * at a time (a delete-a-group jackknife).
+	 */
+	public class Sample {
+		//number of groups the sampled bands are dealt out to
+		public static final int GROUPS = 8;
+		//share of the bands taken by the first sample
+		private static final int FIRST_SHARE = 32;
+		
+		private final int imgx;
+		private final int imgy;
+		private final byte[][] planes = new byte[3][];
+		//the first row of each band in the order the bands are sampled
+		private final int[] order;
+		//the group counts of the sampled bands of each group
+		private final long[][][] counts = new long[GROUPS][3][COUNTS];
+		//the number of bands sampled so far
+		private int taken = 0;
+		
+		private Sample(ChannelPlanes image, long seed){
+			imgx = image.getWidth();
+			imgy = image.getHeight();
+			if(Math.min(Math.max(imgx - 2, 0), imgx - mM) < 0 || Math.min(Math.max(imgy - 2, 0), imgy - mN) < 0)
+				throw new IllegalArgumentException("Image is smaller than the mask");
+			planes[ANALYSIS_COLOUR_RED] = image.getRed();
+			planes[ANALYSIS_COLOUR_GREEN] = image.getGreen();
+			planes[ANALYSIS_COLOUR_BLUE] = image.getBlue();
+			
+			//deal the bands of each stratum out in a random order, one stratum after the other
+			int bands = (imgy + mN - 1) / mN;
+			int strata = Math.min(bands, Math.max(2 * GROUPS, (bands + FIRST_SHARE - 1) / FIRST_SHARE));
+			Random random = new Random(seed);
+			int[][] shuffled = new int[strata][];
+			for(int s = 0; s < strata; s++){
+				int first = (int)((long)bands * s / strata);
+				int last = (int)((long)bands * (s + 1) / strata);
+				shuffled[s] = new int[last - first];
+				for(int i = 0; i < shuffled[s].length; i++){
+					int j = random.nextInt(i + 1);
+					shuffled[s][i] = shuffled[s][j];
+					shuffled[s][j] = first + i;
+				}
+			}
+			order = new int[bands];
+			int k = 0;
+			for(int round = 0; k < bands; round++)
+				for(int s = 0; s < strata; s++)
+					if(round < shuffled[s].length)
+						order[k++] = shuffled[s][round] * mN;
+			widen(strata);
+		}
+		
+		/**
+		 * Widens the sample, at least doubling the number of rows it
+		 * covers.
+		 *
+		 * @return Whether the sample has grown, false once it is the whole
+		 * image.
+		 */
+		public boolean widen(){
+			if(isComplete())
+				return false;
+			widen(taken);
+			return true;
+		}
+		
+		private void widen(int more){
+			int end = Math.min(order.length, taken + more);
+			for(; taken < end; taken++){
+				int fromRow = order[taken];
+				countGroups(planes, imgx, imgy, 0, fromRow, fromRow + mN, counts[taken % GROUPS]);
+			}
+		}
+		
+		/**
+		 * Checks if every band of the image has been counted.
+		 *
+		 * @return Whether getResults gives the same as doAnalysis.
+		 */
+		public boolean isComplete(){
+			return taken == order.length;
+		}
+		
+		/**
+		 * Gets the share of the image covered by the sample.
+		 *
+		 * @return The sampled share of the bands, between 0 and 1.
+		 */
+		public double getFraction(){
+			return (double)taken / order.length;
+		}
+		
+		/**
+		 * Gets the results of the sample.
+		 *
+		 * @param leaveOut The group to be left out, -1 to use the whole
+		 * sample.
+		 * @return The analysis information, indexed by [colour][0 for
+		 * overlapping blocks, 1 for non-overlapping blocks], the same as
+		 * doAnalysis(image) returns once the sample is complete.
+		 */
+		public double[][][] getResults(int leaveOut){
+			long[][] total = new long[3][COUNTS];
+			for(int g = 0; g < GROUPS; g++)
+				if(g != leaveOut)
+					for(int p = 0; p < 3; p++)
+						for(int i = 0; i < COUNTS; i++)
+							total[p][i] += counts[g][p][i];
+			return RSAnalysis.this.getResults(total, imgx, imgy);
+		}
+	}
+	
+	
+	/**
+	 * Gets the planes of a strip of rows in the order of the colour codes.
+	 */
+	private static byte[][] planes(ChannelPlanes rows){
+		byte[][] planes = new byte[3][];
+		planes[ANALYSIS_COLOUR_RED] = rows.getRed();
+		planes[ANALYSIS_COLOUR_GREEN] = rows.getGreen();
+		planes[ANALYSIS_COLOUR_BLUE] = rows.getBlue();
+		return planes;
+	}
+	
+	
+	/**
+	 * Puts two strips of rows of the same image one after the other.
+	 */
+	private static ChannelPlanes join(ChannelPlanes top, ChannelPlanes bottom){
+		int width = top.getWidth();
+		ChannelPlanes rows = new ChannelPlanes(width, top.getHeight() + bottom.getHeight());
+		int split = width * top.getHeight();
+		System.arraycopy(top.getRed(), 0, rows.getRed(), 0, split);
+		System.arraycopy(top.getGreen(), 0, rows.getGreen(), 0, split);
+		System.arraycopy(top.getBlue(), 0, rows.getBlue(), 0, split);
+		int size = width * bottom.getHeight();
+		System.arraycopy(bottom.getRed(), 0, rows.getRed(), split, size);
+		System.arraycopy(bottom.getGreen(), 0, rows.getGreen(), split, size);
+		System.arraycopy(bottom.getBlue(), 0, rows.getBlue(), split, size);
+		return rows;
+	}
+	
+	
+	/**
+	 * Copies some rows of a strip.
+	 */
+	private static ChannelPlanes slice(ChannelPlanes strip, int firstRow, int height){
+		int width = strip.getWidth();
+		ChannelPlanes rows = new ChannelPlanes(width, height);
+		int from = width * firstRow;
+		int size = width * height;
+		System.arraycopy(strip.getRed(), from, rows.getRed(), 0, size);
+		System.arraycopy(strip.getGreen(), from, rows.getGreen(), 0, size);
+		System.arraycopy(strip.getBlue(), from, rows.getBlue(), 0, size);
+		return rows;
+	}
+	
+	
+	/**
+	 * Works out the analysis information of all three colours from
+	 * their group counts.
+	 */
+	private double[][][] getResults(long[][] counts, int imgx, int imgy){
+		double[][][] results = new double[3][2][];
+		for(int colour = 0; colour < 3; colour++){
+			results[colour][0] = getResults(counts[colour], true, imgx, imgy);
+			results[colour][1] = getResults(counts[colour], false, imgx, imgy);
+		}
+		return results;
+	}
+	
+	
+	/**
+	 * Works out the analysis information from the group counts of
+	 * one colour.
+	 *
+	 * @param counts The group counts of the colour (see countGroups()).
+	 * @param overlap Whether the counts for overlapping blocks should be used.
+	 * @param imgx The width of the image.
+	 * @param imgy The height of the image.
+	 * @return The analysis information.
+	 */
+	private double[] getResults(long[] counts, boolean overlap, int imgx, int imgy){
+		int base = overlap ? OVERLAPPING : NON_OVERLAPPING;
+		double numregular = counts[base + REGULAR];
+		double numsingular = counts[base + SINGULAR];
+		double numunusable = counts[base + UNUSABLE];
+		double numnegreg = counts[base + NEG_REGULAR];
+		double numnegsing = counts[base + NEG_SINGULAR];
+		
+		//get all the details needed to derive x...
+		double totalgroups = numregular + numsingular + numunusable;
+		double allpixels[] = new double[4];
+		allpixels[0] = counts[base + ALL_FLIPPED + REGULAR];
+		allpixels[1] = counts[base + ALL_FLIPPED + SINGULAR];
+		allpixels[2] = counts[base + ALL_FLIPPED + NEG_REGULAR];
+		allpixels[3] = counts[base + ALL_FLIPPED + NEG_SINGULAR];
+		double x = getX(numregular, numnegreg, allpixels[0], allpixels[2],
+				numsingular, numnegsing, allpixels[1], allpixels[3]);
+		
+		//calculate the estimated percent of flipped pixels and message length
+		double epf, ml;
+		if( 2 * (x - 1) == 0)
+			epf = 0;
+		else
+			epf = Math.abs(x / (2 * (x - 1)));
+		
+		if(x - 0.5 == 0)
+			ml = 0;
+		else
+			ml = Math.abs(x / (x - 0.5));
+		
+		//now we have the number of regular and singular groups...
+		double results[] = new double[28];
+		
+		//save them all...
+		
+		//these results
+		results[0] = numregular;
+		results[1] = numsingular;
+		results[2] = numnegreg;
+		results[3] = numnegsing;
+		results[4] = Math.abs(numregular - numnegreg);
+		results[5] = Math.abs(numsingular - numnegsing);
+		results[6] = (numregular / totalgroups) * 100;
+		results[7] = (numsingular / totalgroups) * 100;
+		results[8] = (numnegreg / totalgroups) * 100;
+		results[9] = (numnegsing / totalgroups) * 100;
+		results[10] = (results[4] / totalgroups) * 100;
+		results[11] = (results[5] / totalgroups) * 100;
+		
+		//all pixel results
+		results[12] = allpixels[0];
+		results[13] = allpixels[1];
+		results[14] = allpixels[2];
+		results[15] = allpixels[3];
+		results[16] = Math.abs(allpixels[0] - allpixels[1]);
+		results[17] = Math.abs(allpixels[2] - allpixels[3]);
+		results[18] = (allpixels[0] / totalgroups) * 100;
+		results[19] = (allpixels[1] / totalgroups) * 100;
+		results[20] = (allpixels[2] / totalgroups) * 100;
+		results[21] = (allpixels[3] / totalgroups) * 100;
+		results[22] = (results[16] / totalgroups) * 100;
+		results[23] = (results[17] / totalgroups) * 100;
+		
+		//overall results
+		results[24] = totalgroups;
+		results[25] = epf;
+		results[26] = ml;
+		results[27] = (((long) imgx * imgy * 3) * ml) / 8;
+		
+		return results;
+	}
+	
+	/**
+	 * Gets the x value for the p=x(x/2) RS equation. See the paper for
+	 * more details.
+	 *
+	 * @param r The value of Rm(p/2).
+	 * @param rm The value of R-m(p/2).
+	 * @param r1 The value of Rm(1-p/2).
+	 * @param rm1 The value of R-m(1-p/2).
+	 * @param s The value of Sm(p/2).
+	 * @param sm The value of S-m(p/2).
+	 * @param s1 The value of Sm(1-p/2).
+	 * @param sm1 The value of S-m(1-p/2).
+	 * @return The value of x.
+	 */
+	private double getX(double r, double rm, double r1, double rm1,
+			double s, double sm, double s1, double sm1){
+		
+		double x = 0; //the cross point.
+		
+		double dzero = r - s; // d0 = Rm(p/2) - Sm(p/2)
+		double dminuszero = rm - sm; // d-0 = R-m(p/2) - S-m(p/2)
+		double done = r1 - s1; // d1 = Rm(1-p/2) - Sm(1-p/2)
+		double dminusone = rm1 - sm1; // d-1 = R-m(1-p/2) - S-m(1-p/2)
+		
+		//get x as the root of the equation 
+		//2(d1 + d0)x^2 + (d-0 - d-1 - d1 - 3d0)x + d0 - d-0 = 0
+		//x = (-b +or- sqrt(b^2-4ac))/2a
+		//where ax^2 + bx + c = 0 and this is the form of the equation
+		
+		//thanks to a good friend in Dunedin, NZ for helping with maths
+		//and to Miroslav Goljan's fantastic Matlab code
+		
+		double a = 2 * (done + dzero);
+		double b = dminuszero - dminusone - done - (3 * dzero);
+		double c = dzero - dminuszero;
+		
+		if(a == 0)
+		    //take it as a straight line
+		    x = c / b;
+		  		
+		//take it as a curve
+		double discriminant = Math.pow(b,2) - (4 * a * c);
+		
+		if(discriminant >= 0){
+			double rootpos = ((-1 * b) + Math.sqrt(discriminant)) / (2 * a);
+			double rootneg = ((-1 * b) - Math.sqrt(discriminant)) / (2 * a);
+			
+			//return the root with the smallest absolute value (as per paper)
+			if(Math.abs(rootpos) <= Math.abs(rootneg))
+				x = rootpos;
+			else
+				x = rootneg;
+		}else{
+			//maybe it's not the curve we think (straight line)
+			double cr = (rm - r) / (r1 - r + rm - rm1);
+			double cs = (sm - s) / (s1 -s + sm - sm1);
+			x = (cr + cs) / 2;
+		}
+		
+		if(x == 0){
+			double ar = ((rm1 - r1 + r - rm) + (rm - r) / x) / (x - 1);
+			double as = ((sm1 - s1 + s - sm) + (sm - s) / x) / (x - 1);
+			if(as > 0 | ar < 0){
+				//let's assume straight lines again...
+				double cr = (rm - r) / (r1 - r + rm - rm1);
+				double cs = (sm - s) / (s1 -s + sm - sm1);
+				x = (cr + cs) / 2; 
+			}
+		}
+		return x;
+	}
+	
+	
+	/**
+	 * Counts the regular, singular and unusable groups of one or more
+	 * colour planes in a single pass over the image.
+	 * <P>
+	 * Every group is built once and classified for the mask, the
+	 * negative mask and with all of its pixels flipped.  Non-overlapping
+	 * groups are the overlapping groups that start on a multiple of the
+	 * mask size, so both are counted at the same time.
+	 *
+	 * @param planes The colour planes to analyse.
+	 * @param imgx The width of the image.
+	 * @param imgy The height of the image.
+	 * @return The group counts for each plane, laid out as described
+	 * by the OVERLAPPING, NON_OVERLAPPING, ALL_FLIPPED, REGULAR, SINGULAR,
+	 * UNUSABLE, NEG_REGULAR and NEG_SINGULAR offsets.
+	 */
+	private long[][] countGroups(byte[][] planes, int imgx, int imgy){
+		
+		//the last positions a block can start at
+		int lastx = Math.min(Math.max(imgx - 2, 0), imgx - mM);
+		int lasty = Math.min(Math.max(imgy - 2, 0), imgy - mN);
+		if(lastx < 0 || lasty < 0)
+			throw new IllegalArgumentException("Image is smaller than the mask");
+		
+		long[][] counts = new long[planes.length][COUNTS];
+		countGroups(planes, imgx, imgy, 0, 0, imgy, counts);
+		return counts;
+	}
+	
+	
+	/**
+	 * Counts the groups starting in some rows of an image, adding them
+	 * to the given counts. The planes have to hold every row of these
+	 * groups.
+	 *
+	 * @param planes The colour planes holding the rows.
+	 * @param imgx The width of the image.
+	 * @param imgy The height of the image.
+	 * @param firstRow The row of the image the planes start at.
+	 * @param fromRow The first row groups are counted from.
+	 * @param toRow The row after the last row groups are counted from.
+	 * @param counts The group counts for each plane to add to.
+	 */
+	private void countGroups(byte[][] planes, int imgx, int imgy, int firstRow, int fromRow, int toRow, long[][] counts){
+		
+		//the last positions a block can start at
+		int lastx = Math.min(Math.max(imgx - 2, 0), imgx - mM);
+		int lasty = Math.min(Math.min(Math.max(imgy - 2, 0), imgy - mN), toRow - 1);
+		
+		//the 2x2 mask is counted a row of groups at a time, see RSKernel
+		if(mM == 2 && mN == 2){
+			for(int p = 0; p < planes.length; p++)
+				RSKernel.INSTANCE.countRows(planes[p], imgx, (fromRow - firstRow) * imgx, lasty - fromRow + 1, lastx, fromRow % 2 == 0, counts[p]);
+			return;
+		}
+		
+		int size = mM * mN;
+		//the block followed by space for its two flipped versions
+		int work[] = new int[3 * size];
+		
+		for(int starty = fromRow; starty <= lasty; starty++){
+			boolean alignedy = (starty % mN) == 0;
+			for(int startx = 0; startx <= lastx; startx++){
+				boolean aligned = alignedy && (startx % mM) == 0;
+				for(int p = 0; p < planes.length; p++){
+					//get the block of data
+					byte[] plane = planes[p];
+					int k = 0;
+					for(int i = 0; i < mN; i++){
+						int row = (starty - firstRow + i) * imgx + startx;
+						for(int j = 0; j < mM; j++){
+							work[k] = plane[row + j] & 0xff;
+							k++;
+						}
+					}
+					classifyBlock(work, counts[p], 0, aligned);
+					
+					//flip all the pixels in the block
+					for(k = 0; k < size; k++)
+						work[k] = NEGATE_LSB[work[k]];
+					classifyBlock(work, counts[p], ALL_FLIPPED, aligned);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Works out which groups a block belongs to for each mask and adds
+	 * them to the group counts.
+	 *
+	 * @param work The block of data, followed by space for two flipped
+	 * copies of it.
+	 * @param counts The group counts to add to.
+	 * @param offset The offset of the counts to add to (0 or ALL_FLIPPED).
+	 * @param aligned Whether the block is also a non-overlapping block.
+	 */
+	private void classifyBlock(int[] work, long[] counts, int offset, boolean aligned){
+		int size = mM * mN;
+		
+		//get the variation the block
+		int variationB = getVariation(work, 0, size);
+		
+		//this is done once for each mask...
+		for(int m = 0; m < 2; m++){
+			//flip according to the mask and the negative mask
+			int[] mask = mMask[m];
+			for(int k = 0; k < size; k++){
+				int value = work[k];
+				if(mask[k] == 1){
+					work[size + k] = NEGATE_LSB[value];
+					work[2 * size + k] = INVERT_LSB[value];
+				}else{
+					work[size + k] = value;
+					work[2 * size + k] = value;
+				}
+			}
+			int variationP = getVariation(work, size, size);
+			int variationN = getVariation(work, 2 * size, size);
+			
+			//now we need to work out which group each belongs to
+			int group, neggroup;
+			
+			//positive groupings
+			if(variationP > variationB)
+				group = REGULAR;
+			else if(variationP < variationB)
+				group = SINGULAR;
+			else
+				group = UNUSABLE;
+			
+			//negative mask groupings
+			if(variationN > variationB)
+				neggroup = NEG_REGULAR;
+			else if(variationN < variationB)
+				neggroup = NEG_SINGULAR;
+			else
+				neggroup = -1;
+			
+			counts[OVERLAPPING + offset + group]++;
+			if(neggroup >= 0)
+				counts[OVERLAPPING + offset + neggroup]++;
+			if(aligned){
+				counts[NON_OVERLAPPING + offset + group]++;
+				if(neggroup >= 0)
+					counts[NON_OVERLAPPING + offset + neggroup]++;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns an enumeration of all the result names.
+	 *
+	 * @return The names of all the results.
+	 */
+	public Enumeration getResultNames(){
+		Vector names = new Vector(28);
+		names.add("Number of regular groups (positive)");
+		names.add("Number of singular groups (positive)");
+		names.add("Number of regular groups (negative)");
+		names.add("Number of singular groups (negative)");
+		names.add("Difference for regular groups");
+		names.add("Difference for singular groups");
+		names.add("Percentage of regular groups (positive)");
+		names.add("Percentage of singular groups (positive)");
+		names.add("Percentage of regular groups (negative)");
+		names.add("Percentage of singular groups (negative)");
+		names.add("Difference for regular groups %");
+		names.add("Difference for singular groups %");
+		names.add("Number of regular groups (positive for all flipped)");
+		names.add("Number of singular groups (positive for all flipped)");
+		names.add("Number of regular groups (negative for all flipped)");
+		names.add("Number of singular groups (negative for all flipped)");
+		names.add("Difference for regular groups (all flipped)");
+		names.add("Difference for singular groups (all flipped)");
+		names.add("Percentage of regular groups (positive for all flipped)");
+		names.add("Percentage of singular groups (positive for all flipped)");
+		names.add("Percentage of regular groups (negative for all flipped)");
+		names.add("Percentage of singular groups (negative for all flipped)");
+		names.add("Difference for regular groups (all flipped) %");
+		names.add("Difference for singular groups (all flipped) %");
+		names.add("Total number of groups");
+		names.add("Estimated percent of flipped pixels");
+		names.add("Estimated message length (in percent of pixels)(p)");
+		names.add("Estimated message length (in bytes)");
+		return names.elements();
+	}
+	
+	
+	/**
+	 * Gets the variation of the blocks of data. Uses
+	 * the formula f(x) = |x0 - x1| + |x1 + x3| + |x3 - x2| + |x2 - x0|;
+	 * However, if the block is not in the shape 2x2 or 4x1, this will be
+	 * applied as many times as the block can be broken up into 4 (without
+	 * overlaps).
+	 *
+	 * @param block The array holding the block of data (colour values of
+	 * one channel).
+	 * @param start The position of the block in the array.
+	 * @param size The size of the block.
+	 * @return The variation in the block.
+	 */
+	private static int getVariation(int[] block, int start, int size){
+		int var = 0;
+		for(int i = start; i < start + size; i = i + 4){
+			var += Math.abs(block[0 + i] - block[1 + i]);
+			var += Math.abs(block[3 + i] - block[2 + i]);
+			var += Math.abs(block[1 + i] - block[3 + i]);
+			var += Math.abs(block[2 + i] - block[0 + i]);
+		}
+		return var;
+	}
+	
+	
+	/**
+	 * Gets the given colour value for this pixel.
+	 * 
+	 * @param pixel The pixel to get the colour of.
+	 * @param colour The colour to get.
+	 * @return The colour value of the given colour in the given pixel.
+	 */
+	public int getPixelColour(int pixel, int colour){
+		if(colour == RSAnalysis.ANALYSIS_COLOUR_RED)
+			return getRed(pixel);
+		else if (colour == RSAnalysis.ANALYSIS_COLOUR_GREEN)
+			return getGreen(pixel);
+		else if (colour == RSAnalysis.ANALYSIS_COLOUR_BLUE)
+			return getBlue(pixel);
+		else
+			return 0;		
+	}
+	
+	
+	/**
+	 * Negates the LSB of a given byte (stored in an int).
+	 *
+	 * @param abyte The byte to negate the LSB of.
+	 * @return The byte with negated LSB.
+	 */
+	private static int negateLSB(int abyte){
+		int temp = abyte & 0xfe;
+		if(temp == abyte)
+			return abyte | 0x1;
+		else
+			return temp;
+	}
+	
+	
+	/**
+	 * Inverts the LSB of a given byte (stored in an int).
+	 * 
+	 * @param abyte The byte to flip.
+	 * @return The byte with the flipped LSB.
+	 */
+	private static int invertLSB(int abyte){
+		if(abyte == 255)
+			return 256;
+		if(abyte == 256)
+			return 255;
+		return (negateLSB(abyte + 1) - 1);
+	}
+	
+	
+	/**
+	 * A small main method that will print out the message length
+	 * in percent of pixels.
+	 *
+	 */
+	public static void main(String[] args){
+		if(args.length != 1){
+			System.out.println("Usage: stegexpose.RSAnalysis <imagefilename>");
+			System.exit(1);
+		}
+		try{
+			System.out.println("\nRS Analysis results");
+			System.out.println("-------------------");
+			RSAnalysis rsa = new RSAnalysis(2,2);
+			ChannelPlanes image = ChannelPlanes.fromImage(ImageIO.read(new File(args[0])));
+			double average = 0;
+			double[][][] results = rsa.doAnalysis(image);
+			System.out.println("Result from red: " + results[RSAnalysis.ANALYSIS_COLOUR_RED][0][26]);
+			average += results[RSAnalysis.ANALYSIS_COLOUR_RED][0][26];
+			System.out.println("Result from green: " + results[RSAnalysis.ANALYSIS_COLOUR_GREEN][0][26]);
+			average += results[RSAnalysis.ANALYSIS_COLOUR_GREEN][0][26];
+			System.out.println("Result from blue: " + results[RSAnalysis.ANALYSIS_COLOUR_BLUE][0][26]);
+			average += results[RSAnalysis.ANALYSIS_COLOUR_BLUE][0][26];
+			average = average/3;
+			System.out.println("Average result: " + average);
+			System.out.println();
+		}catch(Exception e){
+			System.out.println("ERROR: Cannot process that image type, please try another image.");
+			e.printStackTrace();
+		}
+	}
+	
+	//VARIABLES
+	
+	/**
+	 * Denotes analysis to be done with red.
+	 */
+	public static final int ANALYSIS_COLOUR_RED = 0;
+	
+	/**
+	 * Denotes analysis to be done with green.
+	 */
+	public static final int ANALYSIS_COLOUR_GREEN = 1;
+	
+	/**
+	 * Denotes analysis to be done with blue.
+	 */
+	public static final int ANALYSIS_COLOUR_BLUE = 2;
+	
+	/**
+	 * The mask to be used for the pixel groups.  The masks are never
+	 * changed once created, so one analysis can be used by many threads.
+	 */
+	private final int[][] mMask;
+	
+	/**
+	 * The x length of the mask.
+	 */
+	private final int mM;
+	
+	/**
+	 * The y length of the mask.
+	 */
+	private final int mN;
+	
+	/**
+	 * Lookup table of negateLSB() for every byte.
+	 */
+	private static final int[] NEGATE_LSB = new int[256];
+	
+	/**
+	 * Lookup table of invertLSB() for every byte.
+	 */
+	private static final int[] INVERT_LSB = new int[256];
+	
+	static{
+		for(int i = 0; i < 256; i++){
+			NEGATE_LSB[i] = negateLSB(i);
+			INVERT_LSB[i] = invertLSB(i);
+		}
+	}
+	
+	/**
+	 * Offset of the counts for overlapping groups.
+	 */
+	static final int OVERLAPPING = 0;
+	
+	/**
+	 * Offset of the counts for non-overlapping groups.
+	 */
+	static final int NON_OVERLAPPING = 10;
+	
+	/**
+	 * Offset of the counts for groups with all pixels flipped (within
+	 * the overlapping or non-overlapping counts).
+	 */
+	static final int ALL_FLIPPED = 5;
+	
+	/**
+	 * Offsets of the group types (within the counts for normal or all 
+	 * flipped groups).
+	 */
+	static final int REGULAR = 0, SINGULAR = 1, UNUSABLE = 2,
+			NEG_REGULAR = 3, NEG_SINGULAR = 4;
+	
+	/**
+	 * Number of group counts kept for each colour.
+	 */
+	static final int COUNTS = 20;
+	
+}
+//end of class
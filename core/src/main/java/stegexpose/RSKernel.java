@@ -0,0 +1,207 @@
+package stegexpose;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+
+/**
+ * RSKernel
+ *
+ * Counts the groups of RS analysis with the 2x2 mask used by StegExpose, one row of groups of one
+ * colour at a time. A group starting at (x,y) holds the pixels a=(x,y), b=(x+1,y), c=(x,y+1) and
+ * d=(x+1,y+1); the mask flips a and d, the negative mask b and c. Both rows of a row of groups are
+ * widened to int rows once, so that the groups of neighbouring x can be read from contiguous rows.
+ *
+ * This class counts one group after the other. VectorRSKernel counts a vector of neighbouring groups
+ * at a time with the Vector API; it is only built on JDK 17 or later and only used when the
+ * jdk.incubator.vector module is present (java --add-modules jdk.incubator.vector). Before it is
+ * used its counts are checked against the counts of this class on generated rows, and if they differ
+ * in any way this class is used instead. Setting the system property stegexpose.kernel to scalar
+ * always uses this class.
+ *
+ * The counts are laid out as in RSAnalysis.
+ *
+ * @version 0.1
+ */
+class RSKernel {
+
+	//the kernel used by RSAnalysis
+	static final RSKernel INSTANCE = choose();
+
+
+	/**
+	 * Counts the groups starting in some rows of one colour plane, adding them to the given counts
+	 *
+	 * @param plane			the colour plane
+	 * @param width			width of the image
+	 * @param offset		index in the plane of the first row groups are counted from
+	 * @param rows			number of rows groups are counted from, the row after them must be held as well
+	 * @param lastx			last x a group can start at
+	 * @param alignedFirst	true if the first row is also the first row of non-overlapping groups
+	 * @param counts		group counts of the colour to add to
+	 */
+	final void countRows(byte[] plane, int width, int offset, int rows, int lastx, boolean alignedFirst, long[] counts){
+		if(rows <= 0 || lastx < 0)
+			return;
+		//room behind the rows for reads past the last group
+		int[] top = new int[width + getLanes() + 1];
+		int[] bottom = new int[top.length];
+		widen(plane, offset, width, top);
+		for(int y=0; y<rows; y++){
+			widen(plane, offset + (y+1)*width, width, bottom);
+			countRow(top, bottom, 0, lastx, (y % 2 == 0) == alignedFirst, counts);
+			int[] swap = top;
+			top = bottom;
+			bottom = swap;
+		}
+	}
+
+	private static void widen(byte[] plane, int from, int width, int[] row){
+		for(int x=0; x<width; x++)
+			row[x] = plane[from + x] & 0xff;
+	}
+
+	/**
+	 * Counts the groups of one row starting from x = fromx to lastx
+	 *
+	 * @param top			upper row of the groups
+	 * @param bottom		lower row of the groups
+	 * @param fromx			first x a group is counted from
+	 * @param lastx			last x a group is counted from
+	 * @param alignedRow	true if the groups starting at an even x are also non-overlapping groups
+	 * @param counts		group counts of the colour to add to
+	 */
+	void countRow(int[] top, int[] bottom, int fromx, int lastx, boolean alignedRow, long[] counts){
+		for(int x=fromx; x<=lastx; x++){
+			int a = top[x], b = top[x+1], c = bottom[x], d = bottom[x+1];
+			boolean aligned = alignedRow && x % 2 == 0;
+			countGroup(a, b, c, d, counts, 0, aligned);
+			countGroup(a ^ 1, b ^ 1, c ^ 1, d ^ 1, counts, RSAnalysis.ALL_FLIPPED, aligned);
+		}
+	}
+
+	/*
+	 * Classifies a group for the mask and the negative mask, as RSAnalysis.classifyBlock does
+	 */
+	private static void countGroup(int a, int b, int c, int d, long[] counts, int offset, boolean aligned){
+		int variation = variation(a, b, c, d);
+		//mask flipping a and d, then the mask flipping b and c
+		classify(variation, variation(a ^ 1, b, c, d ^ 1), variation(invert(a), b, c, invert(d)), counts, offset, aligned);
+		classify(variation, variation(a, b ^ 1, c ^ 1, d), variation(a, invert(b), invert(c), d), counts, offset, aligned);
+	}
+
+	private static void classify(int variation, int positive, int negative, long[] counts, int offset, boolean aligned){
+		int group;
+		if(positive > variation)
+			group = RSAnalysis.REGULAR;
+		else if(positive < variation)
+			group = RSAnalysis.SINGULAR;
+		else
+			group = RSAnalysis.UNUSABLE;
+		int negGroup = -1;
+		if(negative > variation)
+			negGroup = RSAnalysis.NEG_REGULAR;
+		else if(negative < variation)
+			negGroup = RSAnalysis.NEG_SINGULAR;
+
+		counts[RSAnalysis.OVERLAPPING + offset + group]++;
+		if(negGroup >= 0)
+			counts[RSAnalysis.OVERLAPPING + offset + negGroup]++;
+		if(aligned){
+			counts[RSAnalysis.NON_OVERLAPPING + offset + group]++;
+			if(negGroup >= 0)
+				counts[RSAnalysis.NON_OVERLAPPING + offset + negGroup]++;
+		}
+	}
+
+	/*
+	 * Variation of a group, |a-b| + |d-c| + |b-d| + |c-a|
+	 */
+	static int variation(int a, int b, int c, int d){
+		return Math.abs(a - b) + Math.abs(d - c) + Math.abs(b - d) + Math.abs(c - a);
+	}
+
+	/*
+	 * The negative flip: even values go down by one, odd values up by one (0 becomes -1, 255 becomes 256)
+	 */
+	static int invert(int value){
+		return value - 1 + 2*(value & 1);
+	}
+
+	/**
+	 * Gets the number of groups counted at a time
+	 *
+	 * @return 		1 for this class
+	 */
+	int getLanes(){
+		return 1;
+	}
+
+	/**
+	 * Gets a description of the kernel, for reports
+	 *
+	 * @return 		e.g. scalar
+	 */
+	String getName(){
+		return "scalar";
+	}
+
+	/*
+	 * Chooses the vector kernel if it can be loaded and counts the same as this class
+	 */
+	private static RSKernel choose(){
+		RSKernel scalar = new RSKernel();
+		if("scalar".equals(System.getProperty("stegexpose.kernel")))
+			return scalar;
+		try{
+			RSKernel vector = (RSKernel)Class.forName("stegexpose.VectorRSKernel").getDeclaredConstructor().newInstance();
+			if(sameCounts(scalar, vector))
+				return vector;
+		}
+		//not built, module not present or not supported on this machine
+		catch(Exception e){}
+		catch(LinkageError e){}
+		return scalar;
+	}
+
+	/**
+	 * Checks that two kernels give exactly the same counts on generated rows of several widths, with
+	 * flat, noisy and saturated areas as well as areas of every value
+	 *
+	 * @param expected		the kernel to be compared with
+	 * @param kernel		the kernel to be checked
+	 * @return 				true if all counts are equal
+	 */
+	static boolean sameCounts(RSKernel expected, RSKernel kernel){
+		Random random = new Random(1);
+		int lanes = Math.max(expected.getLanes(), kernel.getLanes());
+		int[] widths = {2, 3, lanes, lanes + 1, lanes + 2, 2*lanes + 3, 4*lanes + 5, 509};
+		for(int width : widths){
+			int rows = 9;
+			byte[] plane = new byte[width*(rows + 1)];
+			for(int i=0; i<plane.length; i++){
+				int area = (i / 7) % 5;
+				if(area == 0)
+					plane[i] = (byte)random.nextInt(256);
+				else if(area == 1)
+					plane[i] = (byte)(128 + random.nextInt(3));
+				else if(area == 2)
+					plane[i] = (byte)(random.nextBoolean() ? 0 : 1);
+				else if(area == 3)
+					plane[i] = (byte)(254 + random.nextInt(2));
+				else
+					plane[i] = (byte)i;
+			}
+			for(int first=0; first<2; first++){
+				long[] want = new long[RSAnalysis.COUNTS];
+				long[] got = new long[RSAnalysis.COUNTS];
+				expected.countRows(plane, width, 0, rows, width - 2, first == 0, want);
+				kernel.countRows(plane, width, 0, rows, width - 2, first == 0, got);
+				if(!Arrays.equals(want, got))
+					return false;
+			}
+		}
+		return true;
+	}
+}
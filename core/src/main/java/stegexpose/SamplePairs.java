@@ -21,8 +21,10 @@
  *		@author Kathryn Hempstalk
  */
 
+package stegexpose;
+
+
 
-import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.File;
 
@@ -52,76 +54,92 @@ public class SamplePairs extends PixelBenchmark{
 	
 	//FUNCTIONS
 	
+	/**
+	 * Sample pairs analysis as a detector for DetectorEngine, reading
+	 * the pair histogram. Its output is the average of the estimated
+	 * message lengths of all three colours.
+	 */
+	public static final Detector DETECTOR = new Detector(){
+		public String getName(){
+			return "sample_pairs";
+		}
+		
+		public Detector.AccumulatorType getAccumulatorType(){
+			return PairHistogram.ACCUMULATOR_TYPE;
+		}
+		
+		public double getResult(Detector.Accumulator counts){
+			PairHistogram pairs = (PairHistogram)counts;
+			SamplePairs spo = new SamplePairs();
+			return (spo.doAnalysis(pairs, ANALYSIS_COLOUR_RED) + spo.doAnalysis(pairs, ANALYSIS_COLOUR_GREEN) + spo.doAnalysis(pairs, ANALYSIS_COLOUR_BLUE))/3;
+		}
+	};
+	
+	
 	/**
 	 * Does sample pairs analysis on an image.
+	 * <P>
+	 * Pairs are taken across and down the image without overlap, so the
+	 * image needs an even width and height.
 	 *
 	 * @param image The image to analyse.
+	 * @param colour The colour to analyse.
+	 * @return The estimated message length (in percent of pixels).
+	 * @throws IllegalArgumentException If the width or height is odd.
 	 */
-	public double doAnalysis(BufferedImage image, int colour){
+	public double doAnalysis(ChannelPlanes image, int colour){
+		return doAnalysis(PairHistogram.fromPlanes(image), colour);
+	}
+	
+	
+	/**
+	 * Does sample pairs analysis on the pair histogram of an image.
+	 * <P>
+	 * Pairs are taken across and down the image without overlap, so the
+	 * image needs an even width and height.
+	 *
+	 * @param pairs The pair histogram of the image to analyse.
+	 * @param colour The colour to analyse.
+	 * @return The estimated message length (in percent of pixels).
+	 * @throws IllegalArgumentException If the width or height is odd.
+	 */
+	public double doAnalysis(PairHistogram pairs, int colour){
 		
 		//get the images sizes
-		int imgx = image.getWidth(), imgy = image.getHeight();
+		int imgx = pairs.getWidth(), imgy = pairs.getHeight();
+		if(imgx % 2 != 0 || imgy % 2 != 0)
+			throw new IllegalArgumentException("Sample pairs needs an even image width and height");
+		
+		//pairs across and down the image
+		long[] across = pairs.getHorizontal(colour);
+		long[] down = pairs.getVertical(colour);
 		
-		int startx = 0, starty = 0;
-		int apair[] = new int[2];
-		int u, v;
 		long P,X,Y,Z;
 		long W;
 		
 		P = X = Y = Z = W = 0;
 		
-		//pairs across the image
-		for(starty = 0; starty < imgy; starty++){
-			for(startx = 0; startx < imgx; startx = startx + 2){
-				//get the block of data (2 pixels)
-				apair[0] = image.getRGB(startx, starty);
-				apair[1] = image.getRGB(startx + 1, starty);
+		//every pair (u,v) in the image
+		for(int u = 0; u < 256; u++){
+			for(int v = 0; v < 256; v++){
+				long n = across[(u << 8) | v] + down[(u << 8) | v];
+				if(n == 0)
+					continue;
 				
-				u = getPixelColour(apair[0], colour);
-				v = getPixelColour(apair[1], colour);
-				
-
 				//if the 7 msb are the same, but the 1 lsb are different
 				if( (u>>1 == v>>1) && ((v & 0x1) != (u & 0x1)))
-					W++;
+					W += n;
 				//if the pixels are the same
 				if( u == v )
-					Z++;
-				//if lsb(v) = 0 & u < v OR lsb(v) = 1 & u > v
-				if( (v==(v>>1)<<1)&&(u<v) || (v!=(v>>1)<<1)&&(u>v) )
-					X++;
-				//vice versa
-				if( (v==(v>>1)<<1)&&(u>v) || (v!=(v>>1)<<1)&&(u<v) )
-					Y++;
-				P++;
-			}			
-		}
-		
-		//pairs down the image
-		for(starty = 0; starty < imgy; starty = starty + 2){
-			for(startx = 0; startx < imgx; startx++){
-				
-				//get the block of data (2 pixels)
-				apair[0] = image.getRGB(startx, starty);
-				apair[1] = image.getRGB(startx, starty + 1);
-				
-				u = getPixelColour(apair[0], colour);
-				v = getPixelColour(apair[1], colour);
-				
-				//if the 7 msb are the same, but the 1 lsb are different
-				if( (u>>1 == v>>1) && ((v & 0x1) != (u & 0x1)))
-					W++;
-				//the pixels are the same
-				if( u==v )
-					Z++;
+					Z += n;
 				//if lsb(v) = 0 & u < v OR lsb(v) = 1 & u > v
 				if( (v==(v>>1)<<1)&&(u<v) || (v!=(v>>1)<<1)&&(u>v) )
-					X++;
+					X += n;
 				//vice versa
 				if( (v==(v>>1)<<1)&&(u>v) || (v!=(v>>1)<<1)&&(u<v) )
-					Y++;
-				P++;
-			}			
+					Y += n;
+				P += n;
+			}
 		}
 		
 		//solve the quadratic equation
@@ -192,14 +210,14 @@ public class SamplePairs extends PixelBenchmark{
 	 */
 	public static void main(String[] args){
 		if(args.length != 1){
-			System.out.println("Usage: invisibleinktoolkit.benchmark.SamplePairs <imagefilename>");
+			System.out.println("Usage: stegexpose.SamplePairs <imagefilename>");
 			System.exit(1);
 		}
 		try{
 			System.out.println("\nSample Pairs Results");
 			System.out.println("--------------------");
 			SamplePairs sp = new SamplePairs();
-			BufferedImage image = ImageIO.read(new File(args[0]));
+			PairHistogram image = PairHistogram.fromPlanes(ChannelPlanes.fromImage(ImageIO.read(new File(args[0]))));
 			double average = 0;
 			double results = sp.doAnalysis(image, SamplePairs.ANALYSIS_COLOUR_RED);
 			System.out.println("Result from red: " + results);
@@ -0,0 +1,110 @@
+package stegexpose;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+
+/**
+ * VectorRSKernel
+ *
+ * Counts the groups of RS analysis with the 2x2 mask a vector of neighbouring groups at a time, using
+ * the Vector API (jdk.incubator.vector) with the widest int vectors of the machine, e.g. 8 groups on
+ * AVX2 and 16 on AVX-512. Every comparison of two variations is turned into a 0 or 1 by the sign of
+ * their difference, so the counting has no branches at all; the counts are kept per lane and only
+ * added up at the end of each row. Groups left over at the end of a row are counted by RSKernel.
+ *
+ * The loop is written out in full rather than with helper methods: every call level counts towards
+ * the inlining depth of the compiler, and a vector operation which is not inlined is carried out on
+ * vectors allocated on the heap, many times slower than the scalar kernel.
+ *
+ * Only loaded by RSKernel, which checks that it counts exactly as RSKernel does.
+ *
+ * @version 0.1
+ */
+class VectorRSKernel extends RSKernel {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	//lanes of the groups starting at an even x, as the vectors always start at an even x
+	private static final VectorMask<Integer> EVEN = VectorMask.fromLong(SPECIES, 0x5555555555555555L);
+
+
+	void countRow(int[] top, int[] bottom, int fromx, int lastx, boolean alignedRow, long[] counts){
+		if(fromx % 2 != 0){
+			super.countRow(top, bottom, fromx, fromx, alignedRow, counts);
+			fromx++;
+		}
+		int tail = fromx + (lastx + 1 - fromx) / LANES * LANES;
+		countVectors(top, bottom, fromx, tail, 0, alignedRow, counts, RSAnalysis.OVERLAPPING);
+		countVectors(top, bottom, fromx, tail, 1, alignedRow, counts, RSAnalysis.ALL_FLIPPED);
+		super.countRow(top, bottom, tail, lastx, alignedRow, counts);
+	}
+
+	/*
+	 * Counts the groups starting from fromx up to tail, a whole number of vectors, with all pixels
+	 * flipped (flip 1) or not (flip 0)
+	 */
+	private static void countVectors(int[] top, int[] bottom, int fromx, int tail, int flip, boolean alignedRow, long[] counts, int offset){
+		//lane counts of regular, singular, negative regular and negative singular groups
+		IntVector regular = IntVector.zero(SPECIES);
+		IntVector singular = regular, negRegular = regular, negSingular = regular;
+		for(int x = fromx; x < tail; x += LANES){
+			IntVector a = IntVector.fromArray(SPECIES, top, x).lanewise(VectorOperators.XOR, flip);
+			IntVector b = IntVector.fromArray(SPECIES, top, x + 1).lanewise(VectorOperators.XOR, flip);
+			IntVector c = IntVector.fromArray(SPECIES, bottom, x).lanewise(VectorOperators.XOR, flip);
+			IntVector d = IntVector.fromArray(SPECIES, bottom, x + 1).lanewise(VectorOperators.XOR, flip);
+			//|a-b| + |d-c| + |b-d| + |c-a|
+			IntVector variation = a.sub(b).abs().add(d.sub(c).abs()).add(b.sub(d).abs()).add(c.sub(a).abs());
+
+			//the mask flipping a and d, then the mask flipping b and c
+			IntVector fa = a.lanewise(VectorOperators.XOR, 1);
+			IntVector fd = d.lanewise(VectorOperators.XOR, 1);
+			IntVector one = fa.sub(b).abs().add(fd.sub(c).abs()).add(b.sub(fd).abs()).add(c.sub(fa).abs());
+			IntVector fb = b.lanewise(VectorOperators.XOR, 1);
+			IntVector fc = c.lanewise(VectorOperators.XOR, 1);
+			IntVector other = a.sub(fb).abs().add(d.sub(fc).abs()).add(fb.sub(d).abs()).add(fc.sub(a).abs());
+			//1 where the variation went up (regular) or down (singular), the values are too small to overflow
+			regular = regular.add(variation.sub(one).lanewise(VectorOperators.LSHR, 31)).add(variation.sub(other).lanewise(VectorOperators.LSHR, 31));
+			singular = singular.add(one.sub(variation).lanewise(VectorOperators.LSHR, 31)).add(other.sub(variation).lanewise(VectorOperators.LSHR, 31));
+
+			//the same with the negative flip, values - 1 + 2*(values & 1)
+			fa = a.add(a.and(1)).add(a.and(1)).sub(1);
+			fd = d.add(d.and(1)).add(d.and(1)).sub(1);
+			one = fa.sub(b).abs().add(fd.sub(c).abs()).add(b.sub(fd).abs()).add(c.sub(fa).abs());
+			fb = b.add(b.and(1)).add(b.and(1)).sub(1);
+			fc = c.add(c.and(1)).add(c.and(1)).sub(1);
+			other = a.sub(fb).abs().add(d.sub(fc).abs()).add(fb.sub(d).abs()).add(fc.sub(a).abs());
+			negRegular = negRegular.add(variation.sub(one).lanewise(VectorOperators.LSHR, 31)).add(variation.sub(other).lanewise(VectorOperators.LSHR, 31));
+			negSingular = negSingular.add(one.sub(variation).lanewise(VectorOperators.LSHR, 31)).add(other.sub(variation).lanewise(VectorOperators.LSHR, 31));
+		}
+
+		//two classifications of every group, one for each mask
+		int groups = tail - fromx;
+		add(counts, RSAnalysis.OVERLAPPING + offset, 2*groups, regular.reduceLanes(VectorOperators.ADD), singular.reduceLanes(VectorOperators.ADD),
+				negRegular.reduceLanes(VectorOperators.ADD), negSingular.reduceLanes(VectorOperators.ADD));
+		if(alignedRow){
+			IntVector none = IntVector.zero(SPECIES);
+			add(counts, RSAnalysis.NON_OVERLAPPING + offset, groups, none.blend(regular, EVEN).reduceLanes(VectorOperators.ADD), none.blend(singular, EVEN).reduceLanes(VectorOperators.ADD),
+					none.blend(negRegular, EVEN).reduceLanes(VectorOperators.ADD), none.blend(negSingular, EVEN).reduceLanes(VectorOperators.ADD));
+		}
+	}
+
+	private static void add(long[] counts, int offset, int classified, long regular, long singular, long negRegular, long negSingular){
+		counts[offset + RSAnalysis.REGULAR] += regular;
+		counts[offset + RSAnalysis.SINGULAR] += singular;
+		counts[offset + RSAnalysis.UNUSABLE] += classified - regular - singular;
+		counts[offset + RSAnalysis.NEG_REGULAR] += negRegular;
+		counts[offset + RSAnalysis.NEG_SINGULAR] += negSingular;
+	}
+
+	int getLanes(){
+		return LANES;
+	}
+
+	String getName(){
+		return "vector (" + LANES + " int lanes)";
+	}
+}
@@ -0,0 +1,47 @@
+package stegexpose;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.junit.Test;
+
+/**
+ * ChiSquareEngineTest
+ *
+ * Checks the survival function specialised for 127 degrees of freedom against the chi-square
+ * distribution of commons-math, which the chi-square attack used before.
+ *
+ * @version 0.1
+ */
+public class ChiSquareEngineTest {
+
+	private static final double TOLERANCE = 1e-12;
+
+	private final ChiSquaredDistribution reference = new ChiSquaredDistribution(127);
+
+	@Test
+	public void survivalMatchesCommonsMath(){
+		//statistics spread evenly on a log scale from 0.01 to 1000
+		for(int i=0; i<=5000; i++){
+			double chiSquare = Math.pow(10, -2 + 5.0*i/5000);
+			assertSurvival(chiSquare);
+		}
+	}
+
+	@Test
+	public void survivalMatchesCommonsMathAroundTheMean(){
+		//the series gives way to the continued fraction just above the mean of 127
+		for(double chiSquare=100; chiSquare<=160; chiSquare+=0.125)
+			assertSurvival(chiSquare);
+	}
+
+	@Test
+	public void survivalOfZeroIsOne(){
+		assertEquals(1, ChiSquareEngine.survival(0), 0);
+		assertEquals(1, ChiSquareEngine.survival(-1), 0);
+	}
+
+	private void assertSurvival(double chiSquare){
+		assertEquals("survival of "+chiSquare, 1 - reference.cumulativeProbability(chiSquare), ChiSquareEngine.survival(chiSquare), TOLERANCE);
+	}
+}